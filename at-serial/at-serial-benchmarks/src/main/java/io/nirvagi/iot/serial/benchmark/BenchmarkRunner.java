@@ -0,0 +1,109 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached , So the allocation rate
+ * (gc.alloc.rate.norm is the bytes allocated per operation) is reported next
+ * to the throughput of every benchmark. Accepts the usual JMH command line ,
+ * For example to run only the codec benchmarks
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar CommandCodecBenchmark
+ * </pre>
+ * 
+ * The run fails (With a non zero exit status) when a benchmark marked
+ * {@link AllocationFree} allocates
+ * 
+ * @author bharath
+ *
+ */
+public class BenchmarkRunner {
+	private static final String ALLOCATION_RATE_RESULT = "gc.alloc.rate.norm";
+	// The allocation rate is sampled , A benchmark that does not allocate is reported a fraction of a byte
+	private static final double MAX_ALLOCATION_FREE_BYTES = 0.5;
+
+	private static boolean isAllocationFree(final String benchmark) throws ClassNotFoundException {
+		final int methodIndex = benchmark.lastIndexOf('.');
+		final Class<?> benchmarkClass = Class.forName(benchmark.substring(0, methodIndex));
+		final String methodName = benchmark.substring(methodIndex + 1);
+		for (Method method : benchmarkClass.getMethods()) {
+			if (method.getName().equals(methodName) && method.isAnnotationPresent(AllocationFree.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find the allocation free benchmarks that allocated
+	 * 
+	 * @return A description of every offending benchmark
+	 */
+	private static List<String> findAllocatingBenchmarks(final Collection<RunResult> runResults)
+			throws ClassNotFoundException {
+		final List<String> allocatingBenchmarks = new ArrayList<String>();
+		for (RunResult runResult : runResults) {
+			final String benchmark = runResult.getParams().getBenchmark();
+			if (isAllocationFree(benchmark) == false) {
+				continue;
+			}
+			// The profiler prefixes the name of its results
+			for (String resultName : runResult.getSecondaryResults().keySet()) {
+				final Result<?> result = runResult.getSecondaryResults().get(resultName);
+				if (resultName.endsWith(ALLOCATION_RATE_RESULT) && result.getScore() > MAX_ALLOCATION_FREE_BYTES) {
+					final StringBuilder params = new StringBuilder();
+					for (String paramKey : runResult.getParams().getParamsKeys()) {
+						params.append(' ').append(paramKey).append('=').append(runResult.getParams().getParam(paramKey));
+					}
+					allocatingBenchmarks.add(String.format("%s%s allocates %.1f B/op", benchmark, params,
+							result.getScore()));
+				}
+			}
+		}
+		return allocatingBenchmarks;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		if (commandLineOptions.shouldHelp()) {
+			commandLineOptions.showHelp();
+			return;
+		}
+		final Collection<RunResult> runResults = new Runner(
+				new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class).build()).run();
+		final List<String> allocatingBenchmarks = findAllocatingBenchmarks(runResults);
+		if (allocatingBenchmarks.isEmpty() == false) {
+			for (String allocatingBenchmark : allocatingBenchmarks) {
+				System.err.println("Allocation free benchmark allocated : " + allocatingBenchmark);
+			}
+			System.exit(1);
+		}
+	}
+
+}
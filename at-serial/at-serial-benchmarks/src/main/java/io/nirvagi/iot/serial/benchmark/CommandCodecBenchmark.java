@@ -0,0 +1,136 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import io.nirvagi.iot.serial.at.command.CacheStatus;
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.server.CommandCodec;
+import io.nirvagi.iot.serial.server.CommandRequestDesierializer;
+import io.nirvagi.iot.serial.util.StringUtil;
+
+/**
+ * Measures the JSON handling of the server , Parsing a command request (And a
+ * batch of them) the way the command servlet does and rendering the result of
+ * a neighbour table query. The result is rendered through the shared Gson
+ * instance of the servlet and through a Gson built per result , Which is what
+ * the command processor did when it logged the result
+ * 
+ * The streaming benchmarks do the same through the {@link CommandCodec} , The
+ * requests are read from the bytes of the request body and the results are
+ * encoded to the bytes of the response the way the servlet does now
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandCodecBenchmark {
+	private static final String COMMAND_REQUEST = "{\"command\":\"ZB_NTABLE\",\"deviceId\":\"coordinator\","
+			+ "\"commandParameters\":[\"00\",\"0000\"],\"priority\":5,\"deadlineMillis\":2000}";
+	private static final String COMMAND_BATCH = "[{\"command\":\"ZB_ATI\"},"
+			+ "{\"command\":\"ZB_NTABLE\",\"commandParameters\":[\"00\",\"0000\"]},"
+			+ "{\"command\":\"ZB_NTABLE\",\"commandParameters\":[\"03\",\"0000\"]},"
+			+ "{\"command\":\"ZB_NTABLE\",\"commandParameters\":[\"06\",\"0000\"]}]";
+
+	private Gson gson;
+	private JsonParser jsonParser;
+	private CommandResult commandResult;
+	private CommandCodec commandCodec;
+	private byte[] commandRequestBytes;
+	private byte[] commandBatchBytes;
+
+	@Setup
+	public void setUp() {
+		this.gson = new GsonBuilder().registerTypeAdapter(CommandRequest.class, new CommandRequestDesierializer())
+				.create();
+		this.jsonParser = new JsonParser();
+		this.commandResult = new CommandResult();
+		this.commandResult.setCommandStatus(CommandStatus.SUCCESS);
+		this.commandResult.setCacheStatus(CacheStatus.MISS);
+		this.commandResult.setCommandDuration(0.042);
+		this.commandResult.setCommandOutput(StringUtil.convertDataBytesToString(TelegesisResponses.NTABLE.getBytes()));
+		this.commandCodec = new CommandCodec();
+		this.commandRequestBytes = COMMAND_REQUEST.getBytes(StandardCharsets.UTF_8);
+		this.commandBatchBytes = COMMAND_BATCH.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static JsonReader newJsonReader(final byte[] body) {
+		return CommandCodec.newJsonReader(body, 0, body.length);
+	}
+
+	@Benchmark
+	public CommandRequest deserializeCommandRequest() {
+		return this.gson.fromJson(this.jsonParser.parse(COMMAND_REQUEST), CommandRequest.class);
+	}
+
+	@Benchmark
+	public CommandRequest[] deserializeCommandBatch() {
+		return this.gson.fromJson(this.jsonParser.parse(COMMAND_BATCH), CommandRequest[].class);
+	}
+
+	@Benchmark
+	public String serializeCommandResult() {
+		return this.gson.toJson(this.commandResult);
+	}
+
+	@Benchmark
+	public String serializeCommandResultNewGson() {
+		return new Gson().toJson(this.commandResult, CommandResult.class);
+	}
+
+	@Benchmark
+	public CommandRequest readCommandRequestStreaming() throws IOException {
+		return this.commandCodec.readRequest(newJsonReader(this.commandRequestBytes));
+	}
+
+	@Benchmark
+	public List<CommandRequest> readCommandBatchStreaming() throws IOException {
+		return this.commandCodec.readBatch(newJsonReader(this.commandBatchBytes));
+	}
+
+	@Benchmark
+	public byte[] encodeCommandResultStreaming() {
+		return this.commandCodec.encodeResult(this.commandResult);
+	}
+
+}
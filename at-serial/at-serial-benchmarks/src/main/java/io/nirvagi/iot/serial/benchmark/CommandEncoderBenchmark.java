@@ -0,0 +1,106 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nirvagi.iot.serial.SerialInterface;
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.executor.CommandEncoder;
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.iot.serial.util.StringUtil;
+
+/**
+ * Measures encoding a command request into the bytes written to the device ,
+ * Through the {@link CommandEncoder} of a port and through the command string
+ * it replaced. The encoder must not allocate (Run with the
+ * {@link BenchmarkRunner} , The run fails if it does)
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandEncoderBenchmark {
+
+	@Param({ "ZB_ATI", "ZB_NTABLE" })
+	private String commandName;
+
+	private CommandRequest commandRequest;
+	private CommandEncoder commandEncoder;
+	private SerialInterface serialInterface;
+
+	/**
+	 * A port that counts the written bytes and drops them
+	 */
+	private static final class DiscardingSerialInterface extends SerialInterface {
+		public void write(final byte[] data, final int length) {
+			this.recordTransmittedData(data, length);
+		}
+
+		public void close() {
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		this.commandRequest = new CommandRequest();
+		// Resolved as a request naming the command is
+		this.commandRequest.setCommand(CommandRegistry.getDefault().getCommand(this.commandName));
+		this.commandRequest.setCommandParameters(
+				"ZB_NTABLE".equals(this.commandName) ? Arrays.asList("00", "0000") : Collections.<String>emptyList());
+		this.commandEncoder = new CommandEncoder();
+		this.serialInterface = new DiscardingSerialInterface();
+	}
+
+	@Benchmark
+	@AllocationFree
+	public int encodeCommand() {
+		return this.commandEncoder.encode(this.commandRequest);
+	}
+
+	@Benchmark
+	@AllocationFree
+	public long encodeAndWriteCommand() {
+		this.serialInterface.write(this.commandEncoder.getBuffer(), this.commandEncoder.encode(this.commandRequest));
+		return this.serialInterface.getTxByteCount();
+	}
+
+	@Benchmark
+	public byte[] buildCommandString() {
+		return StringUtil.buildCommandString(this.commandRequest).getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
@@ -0,0 +1,111 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.at.command.executor.ATSerialCommandExecutor;
+import io.nirvagi.iot.serial.simulator.SimulatedSerialInterface;
+import io.nirvagi.serial.command.ATSerialCommand;
+
+/**
+ * Measures a SEND round trip through the whole {@link ATSerialCommandExecutor}
+ * (Scheduling , Coalescing , Caching , Framing and matching) against an
+ * simulated device answering a neighbour table query. The cache is
+ * invalidated before every command of the device round trip so every command
+ * reaches the device , The cached round trip measures a cache hit
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandExecutorBenchmark {
+	private static final String DEVICE_NAME = "benchmark";
+
+	@Param({ "0", "500" })
+	private long deviceLatencyMicros;
+
+	private SimulatedSerialInterface serialInterface;
+	private ATSerialCommandExecutor commandExecutor;
+	private CommandRequest commandRequest;
+
+	@Setup(Level.Trial)
+	public void setUp() throws InterruptedException {
+		this.serialInterface = new SimulatedSerialInterface(DEVICE_NAME).addResponse("AT+NTABLE",
+				TelegesisResponses.NTABLE, this.deviceLatencyMicros, TimeUnit.MICROSECONDS);
+		// The command processor thread inherits the daemon flag of the thread
+		// building the executor , So it does not keep the forked VM alive
+		final Thread builderThread = new Thread(new Runnable() {
+			public void run() {
+				commandExecutor = new ATSerialCommandExecutor(DEVICE_NAME, serialInterface);
+			}
+		});
+		builderThread.setDaemon(true);
+		builderThread.start();
+		builderThread.join();
+		this.commandRequest = new CommandRequest();
+		this.commandRequest.setCommand(ATSerialCommand.ZB_NTABLE);
+		this.commandRequest.setCommandParameters(Arrays.asList("00", "0000"));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.serialInterface.close();
+	}
+
+	private CommandResult execute() {
+		final CommandResult commandResult = this.commandExecutor.execute(this.commandRequest);
+		if (commandResult.getCommandStatus() != CommandStatus.SUCCESS) {
+			throw new IllegalStateException("Unexpected command status " + commandResult.getCommandStatus());
+		}
+		return commandResult;
+	}
+
+	@Benchmark
+	public CommandResult deviceRoundTrip() {
+		this.commandExecutor.invalidateCache();
+		return this.execute();
+	}
+
+	@Benchmark
+	public CommandResult cachedRoundTrip() {
+		return this.execute();
+	}
+
+}
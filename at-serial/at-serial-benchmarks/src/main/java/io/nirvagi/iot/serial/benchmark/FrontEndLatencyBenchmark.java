@@ -0,0 +1,205 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.at.command.executor.ATSerialCommandExecutor;
+import io.nirvagi.iot.serial.server.BinaryCommandProtocol;
+import io.nirvagi.iot.serial.server.BinaryCommandServer;
+import io.nirvagi.iot.serial.server.ServerCommandProcessor;
+import io.nirvagi.iot.serial.simulator.SimulatedSerialInterface;
+import io.nirvagi.serial.command.ATSerialCommand;
+
+/**
+ * Compares the latency of a command sent through the HTTP servlet (
+ * {@link ServerCommandProcessor}) with the same command sent through the
+ * binary listener ({@link BinaryCommandServer}) , Both in front of the same
+ * executor and over a kept alive loopback connection. The sample time mode
+ * reports the percentiles (p50 , p99 ..) of the round trip.
+ * 
+ * ZB_ATI is served from the cache after the first command , So only the cost
+ * of the front end is measured. ZB_QIMGRSP is a short command the simulated
+ * device acknowledges at once , So every command makes a device round trip
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrontEndLatencyBenchmark {
+	private static final String DEVICE_NAME = "benchmark";
+	private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+	private static final String CONTENT_TYPE = "application/json";
+	private static final List<String> QIMGRSP_PARAMETERS = Arrays.asList("0000", "1039", "0203", "01045701");
+
+	@Param({ "ZB_ATI", "ZB_QIMGRSP" })
+	private String commandName;
+
+	private SimulatedSerialInterface serialInterface;
+	private ATSerialCommandExecutor commandExecutor;
+	private Server server;
+	private BinaryCommandServer binaryCommandServer;
+	private URL commandUrl;
+	private byte[] httpRequestBody;
+	private final byte[] httpResponseBuffer = new byte[4096];
+	private SocketChannel binaryChannel;
+	private CommandRequest commandRequest;
+	private final ByteBuffer lengthBuffer = ByteBuffer.allocate(BinaryCommandProtocol.LENGTH_FIELD_SIZE);
+	private long correlationId;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.serialInterface = new SimulatedSerialInterface(DEVICE_NAME)
+				.addResponse("ATI", TelegesisResponses.ATI, 0, TimeUnit.MICROSECONDS)
+				.addResponse("AT+QIMGRSP", "OK\r\n", 0, TimeUnit.MICROSECONDS);
+		// The command processor thread inherits the daemon flag of the thread
+		// building the executor , So it does not keep the forked VM alive
+		final Thread builderThread = new Thread(new Runnable() {
+			public void run() {
+				commandExecutor = new ATSerialCommandExecutor(DEVICE_NAME, serialInterface);
+			}
+		});
+		builderThread.setDaemon(true);
+		builderThread.start();
+		builderThread.join();
+
+		this.server = new Server(new InetSocketAddress(LOOPBACK_ADDRESS, 0));
+		final ServletContextHandler servletContextHandler = new ServletContextHandler();
+		final ServletHolder servletHolder = new ServletHolder(new ServerCommandProcessor(this.commandExecutor));
+		servletHolder.setAsyncSupported(true);
+		servletContextHandler.addServlet(servletHolder, "/*");
+		this.server.setHandler(servletContextHandler);
+		this.server.start();
+		this.commandUrl = new URL("http", LOOPBACK_ADDRESS,
+				((ServerConnector) this.server.getConnectors()[0]).getLocalPort(), "/");
+
+		this.binaryCommandServer = new BinaryCommandServer(this.commandExecutor, 0);
+		this.binaryCommandServer.start();
+		this.binaryChannel = SocketChannel
+				.open(new InetSocketAddress(LOOPBACK_ADDRESS, this.binaryCommandServer.getPort()));
+		this.binaryChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+		this.commandRequest = new CommandRequest();
+		this.commandRequest.setCommand(ATSerialCommand.valueOf(this.commandName));
+		if (this.commandRequest.getCommand() == ATSerialCommand.ZB_QIMGRSP) {
+			this.commandRequest.setCommandParameters(QIMGRSP_PARAMETERS);
+			this.httpRequestBody = ("{\"command\":\"ZB_QIMGRSP\",\"commandParameters\":[\""
+					+ String.join("\",\"", QIMGRSP_PARAMETERS) + "\"]}").getBytes(StandardCharsets.UTF_8);
+		} else {
+			this.httpRequestBody = ("{\"command\":\"" + this.commandName + "\"}").getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		this.binaryChannel.close();
+		this.binaryCommandServer.stop();
+		this.server.stop();
+		this.serialInterface.close();
+	}
+
+	@Benchmark
+	public int httpRoundTrip() throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) this.commandUrl.openConnection();
+		connection.setDoOutput(true);
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(this.httpRequestBody);
+		}
+		if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+			throw new IllegalStateException("Unexpected response code " + connection.getResponseCode());
+		}
+		// The whole body is read so that the connection is kept alive
+		int length = 0;
+		try (InputStream in = connection.getInputStream()) {
+			int read;
+			while ((read = in.read(this.httpResponseBuffer)) != -1) {
+				length += read;
+			}
+		}
+		return length;
+	}
+
+	private void readFully(final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (this.binaryChannel.read(buffer) < 0) {
+				throw new IOException("The binary command listener closed the connection");
+			}
+		}
+	}
+
+	@Benchmark
+	public CommandResult binaryRoundTrip() throws IOException {
+		final ByteBuffer requestFrame = BinaryCommandProtocol.encodeRequest(++this.correlationId, this.commandRequest);
+		while (requestFrame.hasRemaining()) {
+			this.binaryChannel.write(requestFrame);
+		}
+		this.lengthBuffer.clear();
+		this.readFully(this.lengthBuffer);
+		final ByteBuffer responseFrame = ByteBuffer.allocate(this.lengthBuffer.getInt(0));
+		this.readFully(responseFrame);
+		responseFrame.flip();
+		if (responseFrame.getLong() != this.correlationId
+				|| responseFrame.get() != BinaryCommandProtocol.RESULT) {
+			throw new IllegalStateException("Unexpected response");
+		}
+		final CommandResult commandResult = BinaryCommandProtocol.decodeResult(responseFrame);
+		if (commandResult.getCommandStatus() != CommandStatus.SUCCESS) {
+			throw new IllegalStateException("Unexpected command status " + commandResult.getCommandStatus());
+		}
+		return commandResult;
+	}
+
+}
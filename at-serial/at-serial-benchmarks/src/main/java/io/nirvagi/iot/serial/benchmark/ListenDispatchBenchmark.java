@@ -0,0 +1,85 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nirvagi.iot.serial.SerialEvent;
+import io.nirvagi.iot.serial.SerialLineFramer;
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.observer.ListenCommandDispatcher;
+import io.nirvagi.iot.serial.metrics.DeviceMetrics;
+import io.nirvagi.serial.command.ATSerialCommand;
+
+/**
+ * Measures dispatching a burst of unsolicited Telegesis output to the parked
+ * listen commands , With the number of parked listeners growing from 10 to
+ * 10,000. Every listener waits for the image query of its own node , None of
+ * them match the burst so the listeners stay parked
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenDispatchBenchmark {
+	private static final String UNSOLICITED_BURST = "SR:00,000D6F00015C1B8A,D6D6\r\n"
+			+ "RX:000D6F00015C1B8A,D6D6,01,0019,0104,04:0A1B2C3D\r\n" + "UCAST:000D6F00015C1B8A,00\r\n"
+			+ "ACK:00\r\n" + "IMGQUERY:FFFF,09,00,1039,0203,01045700,02\r\n";
+	private static final String NODE_ID_FORMAT = "%04X";
+
+	@Param({ "10", "1000", "10000" })
+	private int listeners;
+
+	private ListenCommandDispatcher listenCommandDispatcher;
+	private SerialEvent serialEvent;
+
+	@Setup
+	public void setUp() {
+		this.listenCommandDispatcher = new ListenCommandDispatcher(new DeviceMetrics());
+		for (int i = 0; i < this.listeners; i++) {
+			final CommandRequest commandRequest = new CommandRequest();
+			commandRequest.setCommand(ATSerialCommand.ZB_IMGQUERY);
+			commandRequest.setCommandParameters(Collections.singletonList(String.format(NODE_ID_FORMAT, i)));
+			this.listenCommandDispatcher.subscribe(commandRequest);
+		}
+		final byte[] data = UNSOLICITED_BURST.getBytes();
+		this.serialEvent = new SerialEvent(data, new SerialLineFramer().frame(data));
+	}
+
+	@Benchmark
+	public void dispatchUnsolicitedBurst() {
+		this.listenCommandDispatcher.update(null, this.serialEvent);
+	}
+
+}
@@ -0,0 +1,86 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nirvagi.iot.serial.at.command.matcher.ResponseMatcher;
+import io.nirvagi.iot.serial.util.StringUtil;
+import io.nirvagi.serial.command.ATSerialCommand;
+
+/**
+ * Compares matching a device response against the expected output of every
+ * {@link ATSerialCommand} , Through the regular expression that
+ * {@link StringUtil#getMatchingString(List, String)} builds for every response
+ * and through the cached {@link ResponseMatcher} of the command
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseMatcherBenchmark {
+
+	@Param({ "ZB_ATI", "ZB_NTABLE", "ZB_IMGQUERY" })
+	private String commandName;
+
+	private ATSerialCommand serialCommand;
+	private List<String> response;
+
+	@Setup
+	public void setUp() {
+		this.serialCommand = ATSerialCommand.valueOf(this.commandName);
+		this.response = StringUtil.convertDataBytesToString(TelegesisResponses.forCommand(this.serialCommand));
+	}
+
+	@Benchmark
+	public List<String> regexPerResponse() {
+		return StringUtil.getMatchingString(this.response, this.serialCommand.getCommandExpectedOutout());
+	}
+
+	@Benchmark
+	public List<String> cachedResponseMatcher() {
+		return ResponseMatcher.forCommand(this.serialCommand).getMatchingLines(this.response);
+	}
+
+	@Benchmark
+	public int cachedResponseMatcherPerLine() {
+		final ResponseMatcher responseMatcher = ResponseMatcher.forCommand(this.serialCommand);
+		int matchIndex = -1;
+		for (int i = 0; i < this.response.size() && matchIndex < 0; i++) {
+			matchIndex = responseMatcher.indexIn(this.response.get(i));
+		}
+		return matchIndex;
+	}
+
+}
@@ -0,0 +1,114 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.at.command.executor.CommandScheduler;
+import io.nirvagi.iot.serial.at.command.executor.PendingCommandBatch;
+import io.nirvagi.iot.serial.at.command.executor.SendCommandTask;
+import io.nirvagi.iot.serial.metrics.DeviceMetrics;
+import io.nirvagi.iot.serial.simulator.SimulatedSerialInterface;
+import io.nirvagi.serial.command.ATSerialCommand;
+
+/**
+ * Measures a SEND round trip through the {@link SendCommandTask} against an
+ * simulated device that answers after a fixed latency. Along with the round
+ * trip time , The CPU time consumed by the command processing thread is
+ * reported per command when the trial ends , This is the time the thread
+ * spends waiting for the device to respond
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendCommandBenchmark {
+	private static final int QUEUE_SIZE = 1;
+	private static final String DEVICE_NAME = "benchmark";
+
+	@Param({ "500", "5000" })
+	private long deviceLatencyMicros;
+
+	private SimulatedSerialInterface serialInterface;
+	private CommandScheduler commandScheduler;
+	private Thread commandProcessorThread;
+	private CommandRequest commandRequest;
+	private ThreadMXBean threadMXBean;
+	private long commandCount;
+	private long startCpuTimeNanos;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.serialInterface = new SimulatedSerialInterface(DEVICE_NAME).addResponse("ATI", TelegesisResponses.ATI,
+				this.deviceLatencyMicros, TimeUnit.MICROSECONDS);
+		this.commandScheduler = new CommandScheduler(QUEUE_SIZE);
+		this.commandProcessorThread = new Thread(new SendCommandTask(this.serialInterface, this.commandScheduler,
+				new DeviceMetrics()));
+		this.commandProcessorThread.setDaemon(true);
+		this.commandProcessorThread.start();
+		this.commandRequest = new CommandRequest();
+		this.commandRequest.setCommand(ATSerialCommand.ZB_ATI);
+		this.threadMXBean = ManagementFactory.getThreadMXBean();
+		this.startCpuTimeNanos = this.threadMXBean.getThreadCpuTime(this.commandProcessorThread.getId());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		final long cpuTimeNanos = this.threadMXBean.getThreadCpuTime(this.commandProcessorThread.getId())
+				- this.startCpuTimeNanos;
+		System.out.println(String.format("%nCommand processor CPU time per command : %.1f us over %d commands",
+				cpuTimeNanos / 1000d / this.commandCount, this.commandCount));
+		this.serialInterface.close();
+	}
+
+	@Benchmark
+	public CommandResult sendCommandRoundTrip() throws InterruptedException, ExecutionException {
+		final PendingCommandBatch commandBatch = new PendingCommandBatch(this.commandRequest);
+		this.commandScheduler.submit(commandBatch);
+		final CommandResult commandResult = commandBatch.getPendingCommands().get(0).getCommandResultFuture().get();
+		if (commandResult.getCommandStatus() != CommandStatus.SUCCESS) {
+			throw new IllegalStateException("Unexpected command status " + commandResult.getCommandStatus());
+		}
+		this.commandCount++;
+		return commandResult;
+	}
+
+}
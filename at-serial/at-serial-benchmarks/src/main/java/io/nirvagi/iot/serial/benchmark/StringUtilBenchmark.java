@@ -0,0 +1,95 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.util.StringUtil;
+import io.nirvagi.serial.command.ATSerialCommand;
+
+/**
+ * Measures the {@link StringUtil} helpers on the path of every command ,
+ * Framing the device output into lines , Packing the lines to match them
+ * against the expected output and building the command string written to the
+ * device
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringUtilBenchmark {
+
+	@Param({ "NTABLE", "IMGQUERY_BURST" })
+	private String responseName;
+
+	private byte[] responseBytes;
+	private List<String> responseLines;
+	private String expectedOutput;
+	private CommandRequest commandRequest;
+
+	@Setup
+	public void setUp() {
+		this.responseBytes = TelegesisResponses.forName(this.responseName);
+		this.responseLines = StringUtil.convertDataBytesToString(this.responseBytes);
+		final ATSerialCommand serialCommand = "NTABLE".equals(this.responseName) ? ATSerialCommand.ZB_NTABLE
+				: ATSerialCommand.ZB_IMGQUERY;
+		this.expectedOutput = serialCommand.getCommandExpectedOutout();
+		this.commandRequest = new CommandRequest();
+		this.commandRequest.setCommand(ATSerialCommand.ZB_NTABLE);
+		this.commandRequest.setCommandParameters(Arrays.asList("00", "0000"));
+	}
+
+	@Benchmark
+	public List<String> convertDataBytesToString() {
+		return StringUtil.convertDataBytesToString(this.responseBytes);
+	}
+
+	@Benchmark
+	public String unpackList() {
+		return StringUtil.unpackList(this.responseLines);
+	}
+
+	@Benchmark
+	public List<String> getMatchingString() {
+		return StringUtil.getMatchingString(this.responseLines, this.expectedOutput);
+	}
+
+	@Benchmark
+	public String buildCommandString() {
+		return StringUtil.buildCommandString(this.commandRequest);
+	}
+
+}
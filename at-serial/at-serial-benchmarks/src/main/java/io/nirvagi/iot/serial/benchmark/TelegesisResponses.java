@@ -0,0 +1,97 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import io.nirvagi.serial.command.ATSerialCommand;
+
+/**
+ * Realistic Telegesis ETRX3 outputs used by the benchmarks
+ * 
+ * @author bharath
+ *
+ */
+public final class TelegesisResponses {
+
+	public static final String ATI = "ATI\r\nTelegesis ETRX357\r\nR309C\r\n000D6F0000D5A0E4\r\n\r\nOK\r\n";
+
+	public static final String NTABLE = "AT+NTABLE:00,0000\r\n"
+			+ "NTable:0000,03\r\n"
+			+ "length:03\r\n"
+			+ "No.  Type   EUI                ID   LQI\r\n"
+			+ "0.   FFD    000D6F0000D5A0E4  0000  FF\r\n"
+			+ "1.   RFD    000D6F00015C1B8A  D6D6  C4\r\n"
+			+ "2.   RFD    000D6F00015C1C33  4E2F  B0\r\n"
+			+ "\r\nOK\r\n";
+
+	public static final String IMGQUERY = "SR:00,000D6F00015C1B8A,D6D6\r\n"
+			+ "IMGQUERY:D6D6,09,00,1039,0203,01045700,02\r\n";
+
+	/**
+	 * The image queries of a batch of nodes that woke up together , Each one is
+	 * preceded by the source route it arrived through
+	 */
+	public static final String IMGQUERY_BURST = burst(
+			new String[] { "D6D6", "4E2F", "7A10", "91C3", "A204", "B7E5", "C3F9", "E01A" },
+			new String[] { "000D6F00015C1B8A", "000D6F00015C1C33", "000D6F00015C2D01", "000D6F00015C2E77",
+					"000D6F00015C3A12", "000D6F00015C3B5F", "000D6F00015C4C08", "000D6F00015C4D9E" });
+
+	private TelegesisResponses() {
+	}
+
+	private static String burst(final String[] nodeIds, final String[] nodeEuis) {
+		final StringBuilder burst = new StringBuilder();
+		for (int i = 0; i < nodeIds.length; i++) {
+			burst.append("SR:00,").append(nodeEuis[i]).append(',').append(nodeIds[i]).append("\r\n");
+			burst.append("IMGQUERY:").append(nodeIds[i]).append(",09,00,1039,0203,01045700,02\r\n");
+		}
+		return burst.toString();
+	}
+
+	/**
+	 * Get a response by the name of its constant , Meant for benchmark
+	 * parameters
+	 * 
+	 * @param responseName
+	 *            One of ATI , NTABLE , IMGQUERY or IMGQUERY_BURST
+	 * @return The response bytes
+	 */
+	public static byte[] forName(final String responseName) {
+		switch (responseName) {
+		case "ATI":
+			return ATI.getBytes();
+		case "NTABLE":
+			return NTABLE.getBytes();
+		case "IMGQUERY":
+			return IMGQUERY.getBytes();
+		case "IMGQUERY_BURST":
+			return IMGQUERY_BURST.getBytes();
+		default:
+			throw new IllegalArgumentException("Unknown response " + responseName);
+		}
+	}
+
+	public static byte[] forCommand(final ATSerialCommand serialCommand) {
+		switch (serialCommand) {
+		case ZB_ATI:
+			return ATI.getBytes();
+		case ZB_NTABLE:
+			return NTABLE.getBytes();
+		default:
+			return IMGQUERY.getBytes();
+		}
+	}
+
+}
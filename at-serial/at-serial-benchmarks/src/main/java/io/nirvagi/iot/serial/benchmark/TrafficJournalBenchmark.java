@@ -0,0 +1,90 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.benchmark;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nirvagi.iot.serial.journal.TrafficJournal;
+import io.nirvagi.iot.serial.journal.TrafficJournal.Direction;
+
+/**
+ * Measures the cost the traffic journal adds to every chunk crossing the wire
+ * , Appending a chunk of Telegesis output to a memory mapped segment. The
+ * segments are small enough to rotate during the measurement , So the cost
+ * of starting a segment is included
+ * 
+ * @author bharath
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrafficJournalBenchmark {
+	private static final String PORT_ID = "benchmark";
+	private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+	private static final int MAX_SEGMENTS = 2;
+
+	@Param({ "NTABLE", "IMGQUERY_BURST" })
+	private String responseName;
+
+	private Path journalDirectory;
+	private TrafficJournal trafficJournal;
+	private byte[] responseBytes;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.journalDirectory = Files.createTempDirectory(PORT_ID);
+		this.trafficJournal = new TrafficJournal(this.journalDirectory, PORT_ID, SEGMENT_SIZE, MAX_SEGMENTS);
+		this.responseBytes = TelegesisResponses.forName(this.responseName);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.trafficJournal.close();
+		try (DirectoryStream<Path> segments = Files.newDirectoryStream(this.journalDirectory)) {
+			for (Path segment : segments) {
+				Files.delete(segment);
+			}
+		}
+		Files.delete(this.journalDirectory);
+	}
+
+	@Benchmark
+	public void appendRxChunk() {
+		this.trafficJournal.append(Direction.RX, this.responseBytes);
+	}
+
+}
@@ -0,0 +1,128 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+/**
+ * A serial interface based out of jSerialComm library , Backed by a physical
+ * serial port. jSerialComm notifies the data listener from its own event
+ * thread , The data is published to the observers from that thread
+ * 
+ * @author bharath
+ *
+ */
+public class JSerialCommInterface extends SerialInterface {
+	private static final String INTERFACE_UNAVAILABLE_ERROR_MESSAGE = "The serial interface %s is not available , Is the device plugged in or is the device busy(being accessed by other program) ?";
+	private static final String INTERFACE_DISCONNECTED_ERROR_MESSAGE = "Unable to send the serial command, Looks like the interface has been removed or is not available";
+	private static final Logger LOGGER = LoggerFactory.getLogger(JSerialCommInterface.class);
+	private final SerialPort serialPort;
+
+	/**
+	 * Add a data listener . Please refer to usage samples at
+	 * @see<a href=
+	 *        "https://github.com/Fazecast/jSerialComm/wiki/Event-Based-Reading-Usage-Example">jSerialComm
+	 *        examples</a>
+	 * 
+	 */
+	private void addDataListener() {
+		LOGGER.debug("Adding a serial data listener ");
+		this.serialPort.addDataListener(new SerialPortDataListener() {
+
+			public int getListeningEvents() {
+				return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+			}
+
+			public void serialEvent(SerialPortEvent event) {
+				if (event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE) {
+					return;
+				}
+				byte[] serialDataBytes = new byte[serialPort.bytesAvailable()];
+				serialPort.readBytes(serialDataBytes, serialDataBytes.length);
+				publishSerialData(serialDataBytes);
+			}
+		});
+	}
+
+	/**
+	 * Build a serial interface
+	 * 
+	 * @param portDescriptor
+	 *            The serial port descriptor (for example on typical nix based
+	 *            OS it will be /dev/tty.<DEVICE_NAME>
+	 * @param baudrate
+	 *            The Baud rate to initialize the serial port to
+	 * 
+	 */
+
+	// TODO MOdify the code to work on windows OS
+	public JSerialCommInterface(final String portDescriptor, final int baudrate) {
+		LOGGER.debug("Attempting to initialize the serial port with descriptor {} and baud rate ", portDescriptor,
+				baudrate);
+		this.serialPort = SerialPort.getCommPort(portDescriptor);
+		this.serialPort.setBaudRate(baudrate);
+		final boolean isPortOpened = this.serialPort.openPort();
+		if (isPortOpened == false) {
+			throw new SerialInterfaceException(String.format(INTERFACE_UNAVAILABLE_ERROR_MESSAGE, portDescriptor));
+		}
+		this.addDataListener();
+		/*
+		 * Add a shutdown hook to close the serial interface
+		 */
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Write data to the serial port , The buffer is handed to the port as is
+	 * 
+	 * @param data
+	 *            The buffer holding the data to write
+	 * @param length
+	 *            The length of the data to write
+	 */
+	public void write(final byte[] data, final int length) {
+		if (this.serialPort.isOpen()) {
+			if (data != null && length > 0) {
+				this.serialPort.writeBytes(data, length);
+				this.recordTransmittedData(data, length);
+			} else {
+				LOGGER.error("Cannot write a null or zero length data !");
+			}
+		} else {
+			throw new SerialInterfaceException(INTERFACE_DISCONNECTED_ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Close the serial port
+	 */
+	public void close() {
+		if (serialPort.isOpen()) {
+			LOGGER.debug("Closing the serial device.....");
+			this.serialPort.closePort();
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial;
+
+import java.util.List;
+
+/**
+ * A holder representing a serial event that is sent to the observers of the
+ * {@link SerialInterface} . It holds the chunk of data read from the device
+ * and the lines that the chunk completed. A line that is split across serial
+ * events is part of the event that completes it
+ * 
+ * @author bharath
+ *
+ */
+public class SerialEvent {
+	private final byte[] data;
+	private final List<String> lines;
+
+	public SerialEvent(final byte[] data, final List<String> lines) {
+		this.data = data;
+		this.lines = lines;
+	}
+
+	/**
+	 * @return The raw data read from the device
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return The complete lines , Upper cased and without the CR / LF
+	 *         terminators
+	 */
+	public List<String> getLines() {
+		return lines;
+	}
+
+}
@@ -16,18 +16,17 @@
 package io.nirvagi.iot.serial;
 
 import java.util.Observable;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.fazecast.jSerialComm.SerialPort;
-import com.fazecast.jSerialComm.SerialPortDataListener;
-import com.fazecast.jSerialComm.SerialPortEvent;
+import io.nirvagi.iot.serial.journal.TrafficJournal;
+import io.nirvagi.iot.serial.journal.TrafficJournal.Direction;
 
 /**
  * 
- * A serial interface based out of jSerialComm library . This class represents a
- * low level serial interface .
+ * A low level serial interface , The transport the AT commands are written to
+ * and the device output is read from. The interface to a physical serial port
+ * is {@link JSerialCommInterface} , Other implementations (a simulated device
+ * for example) let everything above the transport run without a device.
  * 
  * This class is essentially an observable , Serial data (AT commands) can also
  * be asynchronous . For example a Zigbee device might request for a OTA upgrade
@@ -35,100 +34,119 @@ import com.fazecast.jSerialComm.SerialPortEvent;
  * so that an appropriate action can be taken. To recieve events from the device
  * , Observers need to subscribe to this Observable
  * 
+ * The observers are notified with a {@link SerialEvent} , The serial data is
+ * framed into lines before the observers are notified. Implementations hand
+ * the data received from the device to {@link #publishSerialData(byte[])} ,
+ * The data may arrive in arbitrary chunks. An implementation publishes from a
+ * single thread (The event thread of the port) , The observers are notified
+ * on it without holding any lock of the interface
+ * 
+ * The interface counts the bytes and lines moved in each direction , A
+ * written command counts as a transmitted line. When a traffic journal is set
+ * every chunk moved in either direction is recorded in it
+ * 
  * @author bharath
  *
  */
-public class SerialInterface extends Observable {
-	private static final String INTERFACE_UNAVAILABLE_ERROR_MESSAGE = "The serial interface %s is not available , Is the device plugged in or is the device busy(being accessed by other program) ?";
-	private static final String INTERFACE_DISCONNECTED_ERROR_MESSAGE = "Unable to send the serial command, Looks like the interface has been removed or is not available";
-	private static final Logger LOGGER = LoggerFactory.getLogger(SerialInterface.class);
-	private final SerialPort serialPort;
+public abstract class SerialInterface extends Observable {
+	// Guarded by the framer lock , The observable monitor is not held while the observers run
+	private final SerialLineFramer lineFramer = new SerialLineFramer();
+	private final Object framerLock = new Object();
+	private final LongAdder rxByteCount = new LongAdder();
+	private final LongAdder rxLineCount = new LongAdder();
+	private final LongAdder txByteCount = new LongAdder();
+	private final LongAdder txLineCount = new LongAdder();
+	private volatile TrafficJournal trafficJournal;
 
 	/**
-	 * Add a data listener . Please refer to usage samples at
-	 * @see<a href=
-	 *        "https://github.com/Fazecast/jSerialComm/wiki/Event-Based-Reading-Usage-Example">jSerialComm
-	 *        examples</a>
+	 * Frame the data received from the device and notify the observers
 	 * 
+	 * @param serialDataBytes
+	 *            The data received from the device
 	 */
-	private void addDataListener() {
-		LOGGER.debug("Adding a serial data listener ");
-		this.serialPort.addDataListener(new SerialPortDataListener() {
-
-			public int getListeningEvents() {
-				return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+	protected void publishSerialData(final byte[] serialDataBytes) {
+		final SerialEvent serialEvent;
+		synchronized (this.framerLock) {
+			serialEvent = new SerialEvent(serialDataBytes, this.lineFramer.frame(serialDataBytes));
+			final TrafficJournal journal = this.trafficJournal;
+			if (journal != null) {
+				journal.append(Direction.RX, serialDataBytes);
 			}
-
-			public void serialEvent(SerialPortEvent event) {
-				if (event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE) {
-					return;
-				}
-				byte[] serialDataBytes = new byte[serialPort.bytesAvailable()];
-				serialPort.readBytes(serialDataBytes, serialDataBytes.length);
-				setChanged();
-				notifyObservers(serialDataBytes);
-			}
-		});
+		}
+		this.rxByteCount.add(serialDataBytes.length);
+		this.rxLineCount.add(serialEvent.getLines().size());
+		setChanged();
+		notifyObservers(serialEvent);
 	}
 
 	/**
-	 * Build a serial interface
+	 * Count a command written to the device , Implementations call it for
+	 * every command they write
 	 * 
-	 * @param portDescriptor
-	 *            The serial port descriptor (for example on typical nix based
-	 *            OS it will be /dev/tty.<DEVICE_NAME>
-	 * @param baudrate
-	 *            The Baud rate to initialize the serial port to
+	 * @param data
+	 *            The buffer holding the data written
+	 * @param length
+	 *            The length of the data written
+	 */
+	protected void recordTransmittedData(final byte[] data, final int length) {
+		this.txByteCount.add(length);
+		this.txLineCount.increment();
+		final TrafficJournal journal = this.trafficJournal;
+		if (journal != null) {
+			journal.append(Direction.TX, data, 0, length);
+		}
+	}
+
+	/**
+	 * Record the traffic of the interface in a journal
 	 * 
+	 * @param trafficJournal
+	 *            The journal , null to stop recording
 	 */
+	public void setTrafficJournal(final TrafficJournal trafficJournal) {
+		this.trafficJournal = trafficJournal;
+	}
 
-	// TODO MOdify the code to work on windows OS
-	public SerialInterface(final String portDescriptor, final int baudrate) {
-		LOGGER.debug("Attempting to initialize the serial port with descriptor {} and baud rate ", portDescriptor,
-				baudrate);
-		this.serialPort = SerialPort.getCommPort(portDescriptor);
-		this.serialPort.setBaudRate(baudrate);
-		final boolean isPortOpened = this.serialPort.openPort();
-		if (isPortOpened == false) {
-			throw new SerialInterfaceException(String.format(INTERFACE_UNAVAILABLE_ERROR_MESSAGE, portDescriptor));
-		}
-		this.addDataListener();
-		/*
-		 * Add a shutdown hook to close the serial interface
-		 */
-		Runtime.getRuntime().addShutdownHook(new Thread() {
-			public void run() {
-				close();
-			}
-		});
+	public long getRxByteCount() {
+		return this.rxByteCount.sum();
+	}
+
+	public long getRxLineCount() {
+		return this.rxLineCount.sum();
+	}
+
+	public long getTxByteCount() {
+		return this.txByteCount.sum();
+	}
+
+	public long getTxLineCount() {
+		return this.txLineCount.sum();
 	}
 
 	/**
-	 * Write data to the serial port
+	 * Write data to the device
 	 * 
 	 * @param data
 	 *            The byte array to write
 	 */
 	public void write(final byte[] data) {
-		if (this.serialPort.isOpen()) {
-			if (data != null && data.length > 0) {
-				this.serialPort.writeBytes(data, data.length);
-			} else {
-				LOGGER.error("Cannot write a null or zero length data !");
-			}
-		} else {
-			throw new SerialInterfaceException(INTERFACE_DISCONNECTED_ERROR_MESSAGE);
-		}
+		this.write(data, data.length);
 	}
 
 	/**
-	 * Close the serial port
+	 * Write the start of a buffer to the device , The buffer is not kept once
+	 * the data is written (The caller can reuse it for the next command)
+	 * 
+	 * @param data
+	 *            The buffer holding the data to write
+	 * @param length
+	 *            The length of the data to write
 	 */
-	public void close() {
-		if (serialPort.isOpen()) {
-			LOGGER.debug("Closing the serial device.....");
-			this.serialPort.closePort();
-		}
-	}
+	public abstract void write(final byte[] data, final int length);
+
+	/**
+	 * Close the interface
+	 */
+	public abstract void close();
 
 }
@@ -0,0 +1,121 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An incremental line framer for the serial data . The serial device output
+ * arrives in arbitrary chunks , A line can be split across many serial events.
+ * The framer keeps the partial line across the chunks and emits a line only
+ * when its CR or LF terminator arrives.
+ * 
+ * The bytes are scanned once , Each byte is folded to upper case (so that
+ * there are no issues while pattern matching) and copied into a reusable line
+ * buffer. Blank lines are dropped. A line longer than the line buffer is
+ * emitted as is when the buffer fills up. This class is not thread safe , A
+ * serial interface owns one framer and feeds it from its event thread
+ * 
+ * @author bharath
+ *
+ */
+public class SerialLineFramer {
+	private static final int DEFAULT_MAX_LINE_LENGTH = 4096;
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+	private final char[] lineBuffer;
+	private int lineLength;
+	// Whether the partial line has anything other than white spaces
+	private boolean hasContent;
+
+	public SerialLineFramer() {
+		this(DEFAULT_MAX_LINE_LENGTH);
+	}
+
+	public SerialLineFramer(final int maxLineLength) {
+		this.lineBuffer = new char[maxLineLength];
+		this.lineLength = 0;
+		this.hasContent = false;
+	}
+
+	private static char toUpperCase(final int dataByte) {
+		final char c = (char) (dataByte & 0xFF);
+		if (c >= 'a' && c <= 'z') {
+			return (char) (c - ('a' - 'A'));
+		}
+		return c < 0x80 ? c : Character.toUpperCase(c);
+	}
+
+	private List<String> emitLine(List<String> lines) {
+		if (this.hasContent) {
+			if (lines == null) {
+				lines = new ArrayList<String>(2);
+			}
+			lines.add(new String(this.lineBuffer, 0, this.lineLength));
+		}
+		this.lineLength = 0;
+		this.hasContent = false;
+		return lines;
+	}
+
+	/**
+	 * Frame a chunk of serial data
+	 * 
+	 * @param data
+	 *            The serial data
+	 * @param offset
+	 *            The offset of the chunk in the data
+	 * @param length
+	 *            The length of the chunk
+	 * @return The lines completed by this chunk , In the order they were
+	 *         received
+	 */
+	public List<String> frame(final byte[] data, final int offset, final int length) {
+		List<String> lines = null;
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			final byte dataByte = data[i];
+			if (dataByte == CR || dataByte == LF) {
+				lines = this.emitLine(lines);
+				continue;
+			}
+			if (this.lineLength == this.lineBuffer.length) {
+				lines = this.emitLine(lines);
+			}
+			final char c = toUpperCase(dataByte);
+			this.hasContent |= Character.isWhitespace(c) == false;
+			this.lineBuffer[this.lineLength++] = c;
+		}
+		return lines == null ? Collections.<String>emptyList() : lines;
+	}
+
+	public List<String> frame(final byte[] data) {
+		return this.frame(data, 0, data.length);
+	}
+
+	/**
+	 * Emit the partial line , if any , As a line
+	 * 
+	 * @return The partial line as a list of one line , or an empty list
+	 */
+	public List<String> flush() {
+		final List<String> lines = this.emitLine(null);
+		return lines == null ? Collections.<String>emptyList() : lines;
+	}
+
+}
@@ -1,5 +1,5 @@
 /*---------------------------------------------------------------------------------------------------------
- * Copyright 2018 - Nirvagi project
+ * Copyright 2016 - Nirvagi project
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -13,17 +13,18 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  * \*-------------------------------------------------------------------------------------------------------------------*/
-package io.nirvagi.iot.serial.at.command.observer;
-
-import java.util.Observer;
-
-import io.nirvagi.iot.serial.at.command.CommandResult;
-
-public interface CommandObserver extends Observer{
-	
-	public CommandResult getCommandResult();
-	
-	public boolean hasEventCompleted();
-	
+package io.nirvagi.iot.serial.at.command;
 
+/**
+ * Enum representing whether the result of a cacheable command was served from
+ * the command result cache
+ * 
+ * @author bharath
+ *
+ */
+public enum CacheStatus {
+	// The result was served from the cache , The command was not sent to the device
+	HIT,
+	// The command was sent to the device , A successful result is cached
+	MISS
 }
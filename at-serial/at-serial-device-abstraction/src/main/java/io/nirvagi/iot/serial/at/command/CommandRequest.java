@@ -20,7 +20,24 @@ import java.util.List;
 import io.nirvagi.serial.command.SerialCommand;
 
 /**
- * A holder representing a command.
+ * A holder representing a command. The device id identifies the serial device
+ * the command is routed to , It can be left out when the agent drives a single
+ * device
+ * 
+ * The commands with a higher priority are sent to the device first , The
+ * deadline is the time in milliseconds (counted from when the request is
+ * accepted) the client is willing to wait for the result. A command that can
+ * not be sent before its deadline is rejected instead of being sent
+ * 
+ * The command timeout of a request can only tighten the timeout of the command
+ * , A client that knows the device answers quickly does not have to wait for
+ * the command timeout when it does not
+ * 
+ * A request can carry a raw command payload instead of the command parameters
+ * , The payload is written to the device as is (No command name , No
+ * terminator and no character conversion). The command still decides how the
+ * response is matched and how long to wait for it. The raw bytes received
+ * from the device are added to the result when the request asks for them
  * 
  * @author bharath
  *
@@ -28,6 +45,16 @@ import io.nirvagi.serial.command.SerialCommand;
 public class CommandRequest {
 	private SerialCommand command;
 	private List<String> commandParameters;
+	private String deviceId;
+	// Higher is more urgent
+	private int priority;
+	// 0 if the client waits for as long as it takes
+	private long deadlineMillis;
+	// 0 to use the timeout of the command
+	private long commandTimeoutMillis;
+	// Written as is in place of the command string , null for a regular command
+	private byte[] commandPayload;
+	private boolean includeRawOutput;
 	
 	public SerialCommand getCommand() {
 		return command;
@@ -41,6 +68,53 @@ public class CommandRequest {
 	public void setCommandParameters(List<String> commandParameters) {
 		this.commandParameters = commandParameters;
 	}
+	public String getDeviceId() {
+		return deviceId;
+	}
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+	public int getPriority() {
+		return priority;
+	}
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+	public void setDeadlineMillis(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+	public long getCommandTimeoutMillis() {
+		return commandTimeoutMillis;
+	}
+	public void setCommandTimeoutMillis(long commandTimeoutMillis) {
+		this.commandTimeoutMillis = commandTimeoutMillis;
+	}
+	public byte[] getCommandPayload() {
+		return commandPayload;
+	}
+	public void setCommandPayload(byte[] commandPayload) {
+		this.commandPayload = commandPayload;
+	}
+	public boolean isIncludeRawOutput() {
+		return includeRawOutput;
+	}
+	public void setIncludeRawOutput(boolean includeRawOutput) {
+		this.includeRawOutput = includeRawOutput;
+	}
+	
+	/**
+	 * Get the time to wait for the command result
+	 * 
+	 * @return The command timeout in milliseconds , The tighter of the
+	 *         request timeout (if set) and the command timeout
+	 */
+	public long getEffectiveCommandTimeout() {
+		final long commandTimeout = this.command.getCommandTimeoutMillis();
+		return this.commandTimeoutMillis > 0 ? Math.min(this.commandTimeoutMillis, commandTimeout) : commandTimeout;
+	}
 	
 	
 	
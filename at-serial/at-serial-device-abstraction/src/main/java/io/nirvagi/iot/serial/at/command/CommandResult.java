@@ -32,6 +32,10 @@ public class CommandResult {
 	private double commandDuration;
 	// The command result 
 	private List<String> commandOutput;
+	// Whether the result was served from the cache , Only set for the cacheable commands
+	private CacheStatus cacheStatus;
+	// The bytes received while the command was in flight , Only set when the request asks for them
+	private byte[] rawOutput;
 	
 	public double getCommandDuration() {
 		return commandDuration;
@@ -51,6 +55,18 @@ public class CommandResult {
 	public void setCommandStatus(CommandStatus commandStatus) {
 		this.commandStatus = commandStatus;
 	}
+	public CacheStatus getCacheStatus() {
+		return cacheStatus;
+	}
+	public void setCacheStatus(CacheStatus cacheStatus) {
+		this.cacheStatus = cacheStatus;
+	}
+	public byte[] getRawOutput() {
+		return rawOutput;
+	}
+	public void setRawOutput(byte[] rawOutput) {
+		this.rawOutput = rawOutput;
+	}
 	
 	
 
@@ -15,98 +15,319 @@
  * \*-------------------------------------------------------------------------------------------------------------------*/
 package io.nirvagi.iot.serial.at.command.executor;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.nirvagi.iot.serial.JSerialCommInterface;
 import io.nirvagi.iot.serial.SerialInterface;
+import io.nirvagi.iot.serial.at.command.CacheStatus;
 import io.nirvagi.iot.serial.at.command.CommandRequest;
 import io.nirvagi.iot.serial.at.command.CommandResult;
-import io.nirvagi.iot.serial.at.command.observer.ListenCommandObserver;
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.at.command.observer.ListenCommandDispatcher;
+import io.nirvagi.iot.serial.at.command.ota.OtaImage;
+import io.nirvagi.iot.serial.at.command.ota.OtaTransfer;
+import io.nirvagi.iot.serial.at.command.observer.SerialEventBroadcaster;
+import io.nirvagi.iot.serial.metrics.DeviceMetrics;
 import io.nirvagi.serial.command.SerialCommand.CommandType;
 
 public class ATSerialCommandExecutor implements CommandExecutor{
-	private static final int QUEUE_MAX_SIZE = 10;
-	// TODO is a queue needed? Revisit 
-	private final BlockingQueue<CommandRequest> commandRequestQueue;
-	private final BlockingQueue<CommandResult> commandResultQueue;
+	// Queued commands do not hold a caller thread , So the queue can be deep
+	private static final int QUEUE_MAX_SIZE = 1024;
+	private static final int CACHE_MAX_SIZE = 256;
+	private static final String LISTEN_IN_BATCH_ERROR_MESSAGE = "The listen command %s cannot be part of a batch , Only send commands can be batched";
+	private static final String COMMAND_PROCESSOR_THREAD_NAME = "command-processor-%s";
+	private final CommandScheduler commandScheduler;
 	private final SerialInterface serialInterface;
+	private final ListenCommandDispatcher listenCommandDispatcher;
+	private final SerialEventBroadcaster serialEventBroadcaster;
+	private final CommandResultCache commandResultCache;
+	private final InFlightCommands inFlightCommands;
+	private final DeviceMetrics deviceMetrics;
+	// The OTA transfer being served , null if there is none
+	private volatile OtaTransfer otaTransfer;
 	private static final Logger LOGGER = LoggerFactory.getLogger(ATSerialCommandExecutor.class);
-	private static final int THREAD_SLEEP_TIME_IN_MILLIS = 25;
 	
 	
 	
 	
 	public ATSerialCommandExecutor(final String portDescriptor, final int baudRate) {
-		this.commandRequestQueue = new ArrayBlockingQueue<CommandRequest>(QUEUE_MAX_SIZE);
-		this.commandResultQueue = new ArrayBlockingQueue<CommandResult>(QUEUE_MAX_SIZE);
-		this.serialInterface = new SerialInterface(portDescriptor , baudRate);
-		// Start the command processor thread
-		new Thread(new SendCommandTask(serialInterface, commandRequestQueue, commandResultQueue)).start();
+		this(portDescriptor, new JSerialCommInterface(portDescriptor , baudRate));
 	}
 	
 	
 	/**
-	 * Handle a send command . Do note that this is a blocking operation . There
-	 * can be only one command in-flight for a serial device . Otherwise it is
-	 * impossible to parse the serial device output to derive a meaningful
-	 * result
+	 * Build an executor over an already opened serial interface
+	 * 
+	 * @param deviceName
+	 *            The name of the device , Used to name the command processor
+	 *            thread
+	 * @param serialInterface
+	 *            The serial interface of the device
+	 */
+	public ATSerialCommandExecutor(final String deviceName, final SerialInterface serialInterface) {
+		this.commandScheduler = new CommandScheduler(QUEUE_MAX_SIZE);
+		this.serialInterface = serialInterface;
+		this.deviceMetrics = new DeviceMetrics();
+		this.listenCommandDispatcher = new ListenCommandDispatcher(this.deviceMetrics);
+		this.serialInterface.addObserver(this.listenCommandDispatcher);
+		this.serialEventBroadcaster = new SerialEventBroadcaster();
+		this.serialInterface.addObserver(this.serialEventBroadcaster);
+		this.commandResultCache = new CommandResultCache(CACHE_MAX_SIZE);
+		this.inFlightCommands = new InFlightCommands();
+		this.registerMetrics();
+		// Start the command processor thread , There is one per serial device
+		new Thread(new SendCommandTask(serialInterface, commandScheduler, deviceMetrics),
+				String.format(COMMAND_PROCESSOR_THREAD_NAME, deviceName)).start();
+	}
+	
+	
+	/**
+	 * Expose the counters and gauges kept by the components of the device ,
+	 * They are read when the metrics are scraped
+	 */
+	private void registerMetrics() {
+		this.deviceMetrics.registerGauge("at_serial_queue_depth", "Command batches waiting for the device",
+				this.commandScheduler::getQueueSize);
+		this.deviceMetrics.registerCounter("at_serial_rx_bytes_total", "Bytes received from the device",
+				this.serialInterface::getRxByteCount);
+		this.deviceMetrics.registerCounter("at_serial_rx_lines_total", "Lines received from the device",
+				this.serialInterface::getRxLineCount);
+		this.deviceMetrics.registerCounter("at_serial_tx_bytes_total", "Bytes written to the device",
+				this.serialInterface::getTxByteCount);
+		this.deviceMetrics.registerCounter("at_serial_tx_lines_total", "Commands written to the device",
+				this.serialInterface::getTxLineCount);
+		this.deviceMetrics.registerGauge("at_serial_observers", "Observers of the serial interface",
+				this.serialInterface::countObservers);
+		this.deviceMetrics.registerGauge("at_serial_listen_waiters", "Clients waiting for a listen command output",
+				this.listenCommandDispatcher::getWaiterCount);
+		this.deviceMetrics.registerGauge("at_serial_event_subscribers", "Clients streaming the serial events",
+				this.serialEventBroadcaster::getSubscriberCount);
+		this.deviceMetrics.registerCounter("at_serial_ota_blocks_total", "OTA image blocks served by the current transfer",
+				() -> this.otaTransfer == null ? 0 : this.otaTransfer.getBlocksServed());
+		this.deviceMetrics.registerCounter("at_serial_ota_bytes_total", "OTA image bytes served by the current transfer",
+				() -> this.otaTransfer == null ? 0 : this.otaTransfer.getBytesServed());
+		this.deviceMetrics.registerCounter("at_serial_ota_dropped_block_requests_total",
+				"OTA block requests dropped because the transfer window was full",
+				() -> this.otaTransfer == null ? 0 : this.otaTransfer.getDroppedBlockRequests());
+	}
+	
+	
+	/**
+	 * Start serving an OTA image to the nodes of the device , Any transfer
+	 * being served is stopped. The transfer answers the image queries and the
+	 * block requests of the nodes by itself (see {@link OtaTransfer})
+	 * 
+	 * @param otaImage
+	 *            The image to serve
+	 * @param windowSize
+	 *            The maximum number of block responses queued or in flight
+	 * @return The transfer
+	 */
+	public synchronized OtaTransfer startOtaTransfer(final OtaImage otaImage, final int windowSize) {
+		final OtaTransfer transfer = new OtaTransfer(otaImage, this, windowSize);
+		this.stopOtaTransfer();
+		LOGGER.debug("Serving the OTA image {}", otaImage.getImagePath());
+		this.serialInterface.addObserver(transfer);
+		this.otaTransfer = transfer;
+		return transfer;
+	}
+	
+	
+	/**
+	 * Stop serving the current OTA transfer , if any
+	 */
+	public synchronized void stopOtaTransfer() {
+		if (this.otaTransfer != null) {
+			this.serialInterface.deleteObserver(this.otaTransfer);
+			this.otaTransfer = null;
+		}
+	}
+	
+	
+	/**
+	 * Get the OTA transfer being served
+	 * 
+	 * @return The transfer , or null if there is none
+	 */
+	public OtaTransfer getOtaTransfer() {
+		return this.otaTransfer;
+	}
+	
+	
+	/**
+	 * Get the metrics of the device
+	 * 
+	 * @return The device metrics
+	 */
+	public DeviceMetrics getDeviceMetrics() {
+		return this.deviceMetrics;
+	}
+	
+	
+	/**
+	 * Get the broadcaster that streams all the lines received from the device
+	 * 
+	 * @return The serial event broadcaster of the device
+	 */
+	public SerialEventBroadcaster getSerialEventBroadcaster() {
+		return this.serialEventBroadcaster;
+	}
+	
+	
+	/**
+	 * Handle a send command . There can be only one command in-flight for a
+	 * serial device , Otherwise it is impossible to parse the serial device
+	 * output to derive a meaningful result. The command is queued for the
+	 * command processor thread which completes the returned future , The
+	 * caller is not blocked. The queued commands are sent in the order of their
+	 * priority and deadline (see {@link CommandScheduler}) , The future fails
+	 * with a {@link CommandRejectedException} if the command can not be sent
+	 * in time
 	 * 
 	 * @param commandRequest
 	 * 				The command request to execute 
 	 * 	
 	 * @return
-	 * 		The Command result of the operation
+	 * 		A future holding the Command result of the operation
 	 */
-	private synchronized CommandResult handleSendCommand(final CommandRequest commandRequest){
-		this.commandRequestQueue.offer(commandRequest);
+	private CompletableFuture<CommandResult> handleSendCommand(final CommandRequest commandRequest){
+		final PendingCommandBatch commandBatch = new PendingCommandBatch(commandRequest);
+		final PendingCommand pendingCommand = commandBatch.getPendingCommands().get(0);
 		try {
-			return this.commandResultQueue.take();
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+			this.commandScheduler.submit(commandBatch);
+		} catch (CommandRejectedException err) {
+			pendingCommand.getCommandResultFuture().completeExceptionally(err);
 		}
+		return pendingCommand.getCommandResultFuture();
 	}
 	
 	
 	/**
-	 * A Listen command handler , Wait until the 
+	 * Send a command to the device , The identical requests of a coalescable
+	 * command that is already queued or in flight share its result instead of
+	 * being queued again
+	 * 
 	 * @param commandRequest
-	 * @return
+	 *            The send command request to execute
+	 * @return A future holding the Command result of the operation
 	 */
-	private CommandResult handleListenCommand(final CommandRequest commandRequest){
-		final ListenCommandObserver commandObserver = new ListenCommandObserver(commandRequest);
-		final String commandName = commandRequest.getCommand().getCommandName();
-		LOGGER.debug("Adding observer for {}", commandName);
-		this.serialInterface.addObserver(commandObserver);
-		while(commandObserver.hasEventCompleted() == false){
-			try {
-				Thread.sleep(THREAD_SLEEP_TIME_IN_MILLIS);
-			} catch (InterruptedException e) {
-				// Dont care about the interruptions 
-			}
+	private CompletableFuture<CommandResult> sendCommand(final CommandRequest commandRequest) {
+		if (InFlightCommands.isCoalescable(commandRequest)) {
+			return this.inFlightCommands.attach(commandRequest, this::handleSendCommand);
 		}
-		LOGGER.debug("Deleting observer for {}", commandName);
-		this.serialInterface.deleteObserver(commandObserver);
-		return commandObserver.getCommandResult();
-			
+		return this.handleSendCommand(commandRequest);
+	}
+	
+	
+	/**
+	 * Handle a cacheable send command , A live cached result is served without
+	 * queueing the command. Otherwise the command is sent to the device and a
+	 * successful result is cached for the cache TTL of the command
+	 * 
+	 * @param commandRequest
+	 *            The cacheable command request to execute
+	 * @return A future holding the Command result of the operation
+	 */
+	private CompletableFuture<CommandResult> handleCacheableCommand(final CommandRequest commandRequest) {
+		final CommandResult cachedResult = this.commandResultCache.get(commandRequest);
+		if (cachedResult != null) {
+			LOGGER.debug("Serving {} from the cache", commandRequest.getCommand().getCommandName());
+			return CompletableFuture.completedFuture(cachedResult);
+		}
+		final CompletableFuture<CommandResult> sendResultFuture = this.sendCommand(commandRequest);
+		// The result is cached before the caller sees it
+		final CompletableFuture<CommandResult> commandResultFuture = sendResultFuture.thenApply(commandResult -> {
+			commandResult.setCacheStatus(CacheStatus.MISS);
+			if (commandResult.getCommandStatus() == CommandStatus.SUCCESS) {
+				this.commandResultCache.put(commandRequest, commandResult);
+			}
+			return commandResult;
+		});
+		// Cancelling the returned future drops the command as usual
+		commandResultFuture.whenComplete((commandResult, err) -> sendResultFuture.cancel(false));
+		return commandResultFuture;
+	}
+	
+	
+	/**
+	 * A Listen command handler , The returned future is completed once the
+	 * expected output arrives or the command times out
+	 * 
+	 * @param commandRequest
+	 *            The listen command request
+	 * @return A future holding the Command result of the operation
+	 */
+	private CompletableFuture<CommandResult> handleListenCommand(final CommandRequest commandRequest){
+		LOGGER.debug("Listening for {}", commandRequest.getCommand().getCommandName());
+		return this.listenCommandDispatcher.subscribe(commandRequest);
 	}
 	
 
-	public CommandResult execute(CommandRequest commandRequest) {
+	public CompletableFuture<CommandResult> executeAsync(final CommandRequest commandRequest) {
 		final CommandType commandType = commandRequest.getCommand().getCommandType();
-		CommandResult cr = null;
+		CompletableFuture<CommandResult> cr = null;
 		switch (commandType) {
 		case LISTEN:
-			cr = handleListenCommand(commandRequest);
+			cr = this.handleListenCommand(commandRequest);
 			break;
 		case SEND:
-			cr = this.handleSendCommand(commandRequest);
+			cr = CommandResultCache.isCacheable(commandRequest) ? this.handleCacheableCommand(commandRequest)
+					: this.sendCommand(commandRequest);
 			break;
 		}
 		return cr;
 	}
+
+
+	public CompletableFuture<List<CommandResult>> executeBatchAsync(final List<CommandRequest> commandRequests,
+			final boolean stopOnFailure) {
+		for (CommandRequest commandRequest : commandRequests) {
+			if (commandRequest.getCommand().getCommandType() != CommandType.SEND) {
+				throw new IllegalArgumentException(
+						String.format(LISTEN_IN_BATCH_ERROR_MESSAGE, commandRequest.getCommand().getCommandName()));
+			}
+		}
+		final PendingCommandBatch commandBatch = new PendingCommandBatch(commandRequests, stopOnFailure);
+		try {
+			this.commandScheduler.submit(commandBatch);
+		} catch (CommandRejectedException err) {
+			commandBatch.getBatchResultFuture().completeExceptionally(err);
+		}
+		return commandBatch.getBatchResultFuture();
+	}
+
+
+	public List<CommandResult> executeBatch(final List<CommandRequest> commandRequests, final boolean stopOnFailure) {
+		return this.await(this.executeBatchAsync(commandRequests, stopOnFailure));
+	}
+
+
+	private <T> T await(final CompletableFuture<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+
+	public CommandResult execute(CommandRequest commandRequest) {
+		return this.await(this.executeAsync(commandRequest));
+	}
+
+
+	public void invalidateCache() {
+		LOGGER.debug("Invalidating the command result cache");
+		this.commandResultCache.invalidate();
+	}
 	
 	
 	
@@ -0,0 +1,117 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * Encodes the command requests of a port into a buffer reused for every
+ * command , The buffer is written to the port as is. The command name and
+ * separator are copied from the bytes the command keeps encoded (see
+ * {@link SerialCommand#getCommandPrefix()}) and the parameters are encoded
+ * straight into the buffer , Separated by a comma and followed by a CR.
+ * Encoding a command does not allocate once the buffer has grown to the
+ * longest command of the port
+ * 
+ * The parameters are encoded as US-ASCII , A character that US-ASCII cannot
+ * encode is replaced with a ? (As String.getBytes does). This class is not
+ * thread safe , Every port has its own encoder
+ * 
+ * @author bharath
+ *
+ */
+public final class CommandEncoder {
+	private static final int INITIAL_BUFFER_SIZE = 256;
+	private static final byte COMMAND_PARAM_SEPERATOR = ',';
+	// All serial command should terminate with a CR , else command wont be sent!
+	private static final byte COMMAND_TERMINATION_CHAR = '\r';
+	private static final byte REPLACEMENT_CHAR = '?';
+	private static final char MAX_ASCII_CHAR = 0x7F;
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+	private int length;
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity > this.buffer.length) {
+			this.buffer = Arrays.copyOf(this.buffer, Math.max(capacity, this.buffer.length * 2));
+		}
+	}
+
+	private void putParameter(final String parameter) {
+		final int parameterLength = parameter.length();
+		// A US-ASCII character is a byte
+		this.ensureCapacity(this.length + parameterLength + 1);
+		for (int i = 0; i < parameterLength; i++) {
+			final char c = parameter.charAt(i);
+			if (c <= MAX_ASCII_CHAR) {
+				this.buffer[this.length++] = (byte) c;
+				continue;
+			}
+			this.buffer[this.length++] = REPLACEMENT_CHAR;
+			// A surrogate pair is a single character
+			if (Character.isHighSurrogate(c) && i + 1 < parameterLength
+					&& Character.isLowSurrogate(parameter.charAt(i + 1))) {
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Encode a command request , In place of the command encoded before
+	 * 
+	 * @param commandRequest
+	 *            The command request
+	 * @return The length of the encoded command
+	 */
+	public int encode(final CommandRequest commandRequest) {
+		final byte[] commandPrefix = commandRequest.getCommand().getCommandPrefix();
+		this.ensureCapacity(commandPrefix.length + 1);
+		System.arraycopy(commandPrefix, 0, this.buffer, 0, commandPrefix.length);
+		this.length = commandPrefix.length;
+		final List<String> commandParams = commandRequest.getCommandParameters();
+		if (commandParams != null) {
+			// Indexed , An iterator would be allocated for every command
+			for (int i = 0; i < commandParams.size(); i++) {
+				if (i > 0) {
+					this.buffer[this.length++] = COMMAND_PARAM_SEPERATOR;
+				}
+				this.putParameter(commandParams.get(i));
+			}
+		}
+		this.ensureCapacity(this.length + 1);
+		this.buffer[this.length++] = COMMAND_TERMINATION_CHAR;
+		return this.length;
+	}
+
+	/**
+	 * @return The buffer holding the encoded command , Valid until the next
+	 *         command is encoded
+	 */
+	public byte[] getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * @return The length of the encoded command
+	 */
+	public int getLength() {
+		return this.length;
+	}
+
+}
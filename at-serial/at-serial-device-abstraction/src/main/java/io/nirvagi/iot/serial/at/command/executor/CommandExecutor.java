@@ -15,6 +15,9 @@
  * \*-------------------------------------------------------------------------------------------------------------------*/
 package io.nirvagi.iot.serial.at.command.executor;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import io.nirvagi.iot.serial.at.command.CommandRequest;
 import io.nirvagi.iot.serial.at.command.CommandResult;
 /**
@@ -36,6 +39,55 @@ public interface CommandExecutor {
 	 * 		the command result
 	 */
 	public CommandResult execute(final CommandRequest commandRequest);
+
+	/**
+	 * Send a command request to the interface without blocking the caller .
+	 * The returned future is completed by the command processor once the
+	 * command completes . Cancelling the future before the command is sent
+	 * will drop the command , Cancelling it while the command is in flight
+	 * will stop waiting for the device response
+	 * 
+	 * @param commandRequest
+	 *            The command request to execute
+	 * @return A future holding the command result
+	 */
+	public CompletableFuture<CommandResult> executeAsync(final CommandRequest commandRequest);
+
+	/**
+	 * Send an ordered list of commands to the interface . The commands are
+	 * executed back to back , No command from any other client is sent to the
+	 * device until the batch completes. Only send commands can be batched
+	 * 
+	 * @param commandRequests
+	 *            The command requests to execute , In order
+	 * @param stopOnFailure
+	 *            If true , The batch stops at the first command that does not
+	 *            succeed (ERROR or TIMEOUT)
+	 * @return The results of the executed commands , In order
+	 */
+	public List<CommandResult> executeBatch(final List<CommandRequest> commandRequests, final boolean stopOnFailure);
+
+	/**
+	 * The non blocking variant of
+	 * {@link #executeBatch(List, boolean)}
+	 * 
+	 * @param commandRequests
+	 *            The command requests to execute , In order
+	 * @param stopOnFailure
+	 *            If true , The batch stops at the first command that does not
+	 *            succeed (ERROR or TIMEOUT)
+	 * @return A future holding the results of the executed commands , In
+	 *         order
+	 */
+	public CompletableFuture<List<CommandResult>> executeBatchAsync(final List<CommandRequest> commandRequests,
+			final boolean stopOnFailure);
+
+	/**
+	 * Drop the cached results of the cacheable commands , The next request of
+	 * every cacheable command is sent to the device. To be called when the
+	 * device state is known to have changed (A device reset for example)
+	 */
+	public void invalidateCache();
 	
 	
 
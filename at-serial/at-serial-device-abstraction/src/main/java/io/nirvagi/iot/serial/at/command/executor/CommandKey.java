@@ -0,0 +1,76 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * Identifies the requests that the device answers the same way , Two requests
+ * of the same command with the same parameters (Or the same payload) have
+ * equal keys. A request asking for the raw output is answered differently
+ * from one that does not
+ * 
+ * The command is compared by identity , Not by its equals. A registered
+ * command equals the command its definition is reloaded into (see
+ * {@link io.nirvagi.iot.serial.at.command.registry.RegisteredCommand}) but is
+ * answered differently , So a request of a reloaded definition is neither
+ * served from the cache nor coalesced with a request of the old one
+ * 
+ * @author bharath
+ *
+ */
+final class CommandKey {
+	private final SerialCommand command;
+	private final List<String> commandParameters;
+	private final byte[] commandPayload;
+	private final boolean includeRawOutput;
+
+	CommandKey(final CommandRequest commandRequest) {
+		this.command = commandRequest.getCommand();
+		// The parameters are copied , The caller may reuse the request
+		this.commandParameters = commandRequest.getCommandParameters() == null ? Collections.<String>emptyList()
+				: new ArrayList<String>(commandRequest.getCommandParameters());
+		this.commandPayload = commandRequest.getCommandPayload() == null ? null
+				: commandRequest.getCommandPayload().clone();
+		this.includeRawOutput = commandRequest.isIncludeRawOutput();
+	}
+
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof CommandKey == false) {
+			return false;
+		}
+		final CommandKey otherKey = (CommandKey) other;
+		return this.command == otherKey.command && this.commandParameters.equals(otherKey.commandParameters)
+				&& Arrays.equals(this.commandPayload, otherKey.commandPayload)
+				&& this.includeRawOutput == otherKey.includeRawOutput;
+	}
+
+	public int hashCode() {
+		int hashCode = 31 * System.identityHashCode(this.command) + this.commandParameters.hashCode();
+		hashCode = 31 * hashCode + Arrays.hashCode(this.commandPayload);
+		return 31 * hashCode + (this.includeRawOutput ? 1 : 0);
+	}
+
+}
@@ -0,0 +1,50 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+/**
+ * Thrown when a command is not accepted because the device is too busy to
+ * serve it in time , Either the command queue is full or the command can not be
+ * sent before its deadline. The command was never sent to the device , So it
+ * is safe to retry it after the suggested delay
+ * 
+ * @author bharath
+ *
+ */
+public class CommandRejectedException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3538203719386377154L;
+	private final long retryAfterMillis;
+
+	public CommandRejectedException(final String message, final long retryAfterMillis) {
+		super(message);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * Get the time after which the device is expected to be able to serve the
+	 * command
+	 * 
+	 * @return The suggested delay before a retry in milliseconds
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+
+}
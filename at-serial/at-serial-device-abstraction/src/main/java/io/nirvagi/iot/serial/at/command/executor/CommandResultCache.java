@@ -0,0 +1,120 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.nirvagi.iot.serial.at.command.CacheStatus;
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+
+/**
+ * A bounded cache of the successful results of the cacheable commands , Keyed
+ * by the command and its parameters. Every entry lives for the cache TTL of its
+ * command , When the cache is full the least recently used entry is evicted.
+ * There is one cache per serial device
+ * 
+ * @author bharath
+ *
+ */
+class CommandResultCache {
+
+	/**
+	 * A cached result along with the time it expires
+	 */
+	private static class CacheEntry {
+		private final CommandResult commandResult;
+		private final long expiryNanos;
+
+		CacheEntry(final CommandResult commandResult, final long expiryNanos) {
+			this.commandResult = commandResult;
+			this.expiryNanos = expiryNanos;
+		}
+	}
+
+	private final Map<CommandKey, CacheEntry> cacheEntries;
+
+	/**
+	 * Build a cache
+	 * 
+	 * @param maxSize
+	 *            The maximum number of cached results
+	 */
+	CommandResultCache(final int maxSize) {
+		// An access ordered map evicts the least recently used entry
+		this.cacheEntries = new LinkedHashMap<CommandKey, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 8447621339150613421L;
+
+			protected boolean removeEldestEntry(Map.Entry<CommandKey, CacheEntry> eldest) {
+				return this.size() > maxSize;
+			}
+		};
+	}
+
+	static boolean isCacheable(final CommandRequest commandRequest) {
+		return commandRequest.getCommand().getCommandCacheTtlSeconds() > 0;
+	}
+
+	/**
+	 * Get the cached result of a command
+	 * 
+	 * @param commandRequest
+	 *            The command request
+	 * @return A copy of the cached result marked as a cache hit , or null if
+	 *         there is no live cached result
+	 */
+	synchronized CommandResult get(final CommandRequest commandRequest) {
+		final CommandKey cacheKey = new CommandKey(commandRequest);
+		final CacheEntry cacheEntry = this.cacheEntries.get(cacheKey);
+		if (cacheEntry == null) {
+			return null;
+		}
+		if (System.nanoTime() - cacheEntry.expiryNanos >= 0) {
+			this.cacheEntries.remove(cacheKey);
+			return null;
+		}
+		// The device was not involved , So the command took no time
+		final CommandResult cachedResult = new CommandResult();
+		cachedResult.setCommandStatus(cacheEntry.commandResult.getCommandStatus());
+		cachedResult.setCommandOutput(cacheEntry.commandResult.getCommandOutput());
+		cachedResult.setRawOutput(cacheEntry.commandResult.getRawOutput());
+		cachedResult.setCacheStatus(CacheStatus.HIT);
+		return cachedResult;
+	}
+
+	/**
+	 * Cache the result of a command for the cache TTL of the command
+	 * 
+	 * @param commandRequest
+	 *            The command request
+	 * @param commandResult
+	 *            The successful result of the command
+	 */
+	synchronized void put(final CommandRequest commandRequest, final CommandResult commandResult) {
+		final long ttlNanos = TimeUnit.SECONDS.toNanos(commandRequest.getCommand().getCommandCacheTtlSeconds());
+		this.cacheEntries.put(new CommandKey(commandRequest), new CacheEntry(commandResult, System.nanoTime() + ttlNanos));
+	}
+
+	/**
+	 * Drop all the cached results
+	 */
+	synchronized void invalidate() {
+		this.cacheEntries.clear();
+	}
+
+}
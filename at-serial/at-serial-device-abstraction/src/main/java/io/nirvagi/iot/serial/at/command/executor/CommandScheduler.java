@@ -0,0 +1,209 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * Orders the command batches waiting for a serial device , The batch with the
+ * highest priority is sent first , Then the one with the earliest deadline ,
+ * Then the one that was submitted first. An urgent control command does not
+ * wait behind the queued bulk polls
+ * 
+ * The scheduler keeps a moving average of the time every command holds the
+ * device. A batch with a deadline is rejected when it is submitted if the work
+ * queued ahead of it (and the batch itself) can not be done before the
+ * deadline , The client learns it at once rather than once the deadline has
+ * passed. The batches whose deadline passes while they are queued are dropped
+ * by the {@link SendCommandTask} before they reach the device
+ * 
+ * @author bharath
+ *
+ */
+public class CommandScheduler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CommandScheduler.class);
+	// The weight of the latest latency sample in the moving average
+	private static final double LATENCY_SMOOTHING_FACTOR = 0.2;
+	private static final int INITIAL_QUEUE_CAPACITY = 16;
+	private static final String QUEUE_FULL_ERROR_MESSAGE = "The command queue is full , Unable to accept the command";
+	private static final String DEADLINE_ERROR_MESSAGE = "The command can not be sent before its deadline , The estimated wait is %d ms";
+
+	private static final Comparator<PendingCommandBatch> BATCH_ORDER = new Comparator<PendingCommandBatch>() {
+		public int compare(PendingCommandBatch batch, PendingCommandBatch otherBatch) {
+			if (batch.getPriority() != otherBatch.getPriority()) {
+				return batch.getPriority() > otherBatch.getPriority() ? -1 : 1;
+			}
+			final int deadlineOrder = compareDeadlines(batch.getDeadlineNanos(), otherBatch.getDeadlineNanos());
+			if (deadlineOrder != 0) {
+				return deadlineOrder;
+			}
+			return Long.compare(batch.getSequenceNumber(), otherBatch.getSequenceNumber());
+		}
+	};
+
+	private final PriorityBlockingQueue<PendingCommandBatch> batchQueue;
+	private final int maxQueueSize;
+	// The moving average of the time every command holds the device
+	private final Map<SerialCommand, Long> latencyEstimates;
+	// Guarded by this
+	private long sequenceNumber;
+	private volatile PendingCommandBatch inFlightBatch;
+	private volatile long inFlightStartNanos;
+
+	/**
+	 * Build a scheduler
+	 * 
+	 * @param maxQueueSize
+	 *            The maximum number of batches waiting for the device
+	 */
+	public CommandScheduler(final int maxQueueSize) {
+		this.batchQueue = new PriorityBlockingQueue<PendingCommandBatch>(INITIAL_QUEUE_CAPACITY, BATCH_ORDER);
+		this.maxQueueSize = maxQueueSize;
+		this.latencyEstimates = new ConcurrentHashMap<SerialCommand, Long>();
+	}
+
+	/**
+	 * Deadlines are System.nanoTime values , Which can only be compared by
+	 * their difference. Long.MAX_VALUE means no deadline
+	 */
+	private static int compareDeadlines(final long deadlineNanos, final long otherDeadlineNanos) {
+		if (deadlineNanos == otherDeadlineNanos) {
+			return 0;
+		}
+		if (deadlineNanos == Long.MAX_VALUE) {
+			return 1;
+		}
+		if (otherDeadlineNanos == Long.MAX_VALUE) {
+			return -1;
+		}
+		return deadlineNanos - otherDeadlineNanos < 0 ? -1 : 1;
+	}
+
+	private long estimateLatency(final PendingCommandBatch commandBatch) {
+		long estimatedLatencyNanos = 0;
+		for (PendingCommand pendingCommand : commandBatch.getPendingCommands()) {
+			// A command never seen before is not held against the deadline
+			final Long latencyEstimate = this.latencyEstimates.get(pendingCommand.getCommandRequest().getCommand());
+			estimatedLatencyNanos += latencyEstimate == null ? 0 : latencyEstimate;
+		}
+		return estimatedLatencyNanos;
+	}
+
+	/**
+	 * Estimate the time until the device is free to serve a batch , The
+	 * remaining time of the batch in flight plus the time of the queued
+	 * batches that are served before it
+	 */
+	private long estimateWait(final PendingCommandBatch commandBatch) {
+		long estimatedWaitNanos = 0;
+		final PendingCommandBatch currentBatch = this.inFlightBatch;
+		if (currentBatch != null) {
+			final long elapsedNanos = System.nanoTime() - this.inFlightStartNanos;
+			estimatedWaitNanos += Math.max(0, currentBatch.getEstimatedLatencyNanos() - elapsedNanos);
+		}
+		for (PendingCommandBatch queuedBatch : this.batchQueue) {
+			if (BATCH_ORDER.compare(queuedBatch, commandBatch) < 0) {
+				estimatedWaitNanos += queuedBatch.getEstimatedLatencyNanos();
+			}
+		}
+		return estimatedWaitNanos;
+	}
+
+	/**
+	 * Queue a batch for the device
+	 * 
+	 * @param commandBatch
+	 *            The batch to queue
+	 * @throws CommandRejectedException
+	 *             If the queue is full , Or if the batch can not be done
+	 *             before its deadline
+	 */
+	public synchronized void submit(final PendingCommandBatch commandBatch) {
+		commandBatch.setSequenceNumber(this.sequenceNumber++);
+		commandBatch.setEstimatedLatencyNanos(this.estimateLatency(commandBatch));
+		if (this.batchQueue.size() >= this.maxQueueSize) {
+			// The whole queue has to drain before there is room
+			long queuedLatencyNanos = 0;
+			for (PendingCommandBatch queuedBatch : this.batchQueue) {
+				queuedLatencyNanos += queuedBatch.getEstimatedLatencyNanos();
+			}
+			throw new CommandRejectedException(QUEUE_FULL_ERROR_MESSAGE,
+					TimeUnit.NANOSECONDS.toMillis(queuedLatencyNanos));
+		}
+		if (commandBatch.getDeadlineNanos() != Long.MAX_VALUE) {
+			final long estimatedWaitNanos = this.estimateWait(commandBatch);
+			final long estimatedDoneNanos = System.nanoTime() + estimatedWaitNanos
+					+ commandBatch.getEstimatedLatencyNanos();
+			if (estimatedDoneNanos - commandBatch.getDeadlineNanos() > 0) {
+				final long estimatedWaitMillis = TimeUnit.NANOSECONDS.toMillis(estimatedWaitNanos);
+				LOGGER.debug("Rejecting a batch , The estimated wait is {} ms", estimatedWaitMillis);
+				throw new CommandRejectedException(String.format(DEADLINE_ERROR_MESSAGE, estimatedWaitMillis),
+						estimatedWaitMillis);
+			}
+		}
+		commandBatch.setSubmitTimeNanos(System.nanoTime());
+		this.batchQueue.offer(commandBatch);
+	}
+
+	/**
+	 * Wait for the next batch to send to the device , Called by the command
+	 * processor once it is done with the previous batch
+	 * 
+	 * @return The most urgent batch
+	 */
+	public PendingCommandBatch take() throws InterruptedException {
+		this.inFlightBatch = null;
+		final PendingCommandBatch commandBatch = this.batchQueue.take();
+		this.inFlightStartNanos = System.nanoTime();
+		this.inFlightBatch = commandBatch;
+		return commandBatch;
+	}
+
+	/**
+	 * Record the time a command held the device , Called by the command
+	 * processor after every command it sends
+	 * 
+	 * @param command
+	 *            The command sent
+	 * @param latencyNanos
+	 *            The time from sending the command to its result
+	 */
+	public void recordLatency(final SerialCommand command, final long latencyNanos) {
+		// There is a single command processor per device , So there is a single writer
+		final Long latencyEstimate = this.latencyEstimates.get(command);
+		this.latencyEstimates.put(command, latencyEstimate == null ? latencyNanos
+				: (long) (LATENCY_SMOOTHING_FACTOR * latencyNanos + (1 - LATENCY_SMOOTHING_FACTOR) * latencyEstimate));
+	}
+
+	/**
+	 * Get the number of batches waiting for the device
+	 * 
+	 * @return The queue depth
+	 */
+	public int getQueueSize() {
+		return this.batchQueue.size();
+	}
+
+}
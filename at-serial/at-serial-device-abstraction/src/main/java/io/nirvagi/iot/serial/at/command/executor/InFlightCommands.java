@@ -0,0 +1,145 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+
+/**
+ * Coalesces the identical requests of the coalescable commands , A request
+ * that arrives while an identical one is queued or in flight attaches to the
+ * pending command instead of being sent again. All the attached callers get
+ * the same command result.
+ * 
+ * A request only attaches to a pending command that serves it as well as its
+ * own would , The pending command must wait for the device as long as the
+ * request would (The same effective command timeout) and have a priority no
+ * lower. A request with a deadline is not coalesced , It would either wait
+ * past its deadline for the pending command or be rejected for the deadline
+ * of another caller
+ * 
+ * Every caller gets its own future , Cancelling it detaches only that caller.
+ * The pending command is dropped once all its callers have cancelled
+ * 
+ * @author bharath
+ *
+ */
+class InFlightCommands {
+
+	/**
+	 * A command sent to the device along with the number of callers waiting
+	 * for it
+	 */
+	private static class InFlightCommand {
+		private final CompletableFuture<CommandResult> commandResultFuture;
+		private final long commandTimeoutMillis;
+		private final int priority;
+		private int callerCount;
+
+		InFlightCommand(final CompletableFuture<CommandResult> commandResultFuture,
+				final CommandRequest commandRequest) {
+			this.commandResultFuture = commandResultFuture;
+			this.commandTimeoutMillis = commandRequest.getEffectiveCommandTimeout();
+			this.priority = commandRequest.getPriority();
+		}
+
+		/**
+		 * Check whether a request can wait for this command , Without waiting
+		 * for the device for less time or being queued behind more commands
+		 * than on its own
+		 */
+		boolean serves(final CommandRequest commandRequest) {
+			return this.commandResultFuture.isDone() == false
+					&& this.commandTimeoutMillis == commandRequest.getEffectiveCommandTimeout()
+					&& this.priority >= commandRequest.getPriority();
+		}
+	}
+
+	// Guarded by itself
+	private final Map<CommandKey, InFlightCommand> inFlightCommands = new HashMap<CommandKey, InFlightCommand>();
+
+	static boolean isCoalescable(final CommandRequest commandRequest) {
+		return commandRequest.getCommand().isCommandCoalescable() && commandRequest.getDeadlineMillis() <= 0;
+	}
+
+	/**
+	 * Attach to the identical pending command , Or send the command if there
+	 * is none
+	 * 
+	 * @param commandRequest
+	 *            The coalescable command request
+	 * @param commandSender
+	 *            Sends the command when there is no identical pending command
+	 * @return A future holding the shared command result
+	 */
+	CompletableFuture<CommandResult> attach(final CommandRequest commandRequest,
+			final Function<CommandRequest, CompletableFuture<CommandResult>> commandSender) {
+		final CommandKey commandKey = new CommandKey(commandRequest);
+		final InFlightCommand inFlightCommand;
+		synchronized (this.inFlightCommands) {
+			InFlightCommand pendingCommand = this.inFlightCommands.get(commandKey);
+			// A completed command is removed by its own callback , Which may
+			// not have run yet when the command completes on another thread.
+			// A pending command that does not serve the request keeps its
+			// callers but is no longer attached to
+			if (pendingCommand == null || pendingCommand.serves(commandRequest) == false) {
+				pendingCommand = new InFlightCommand(commandSender.apply(commandRequest), commandRequest);
+				this.inFlightCommands.put(commandKey, pendingCommand);
+				final InFlightCommand sentCommand = pendingCommand;
+				sentCommand.commandResultFuture.whenComplete((commandResult, err) -> this.remove(commandKey, sentCommand));
+			}
+			pendingCommand.callerCount++;
+			inFlightCommand = pendingCommand;
+		}
+		final CompletableFuture<CommandResult> callerFuture = new CompletableFuture<CommandResult>();
+		inFlightCommand.commandResultFuture.whenComplete((commandResult, err) -> {
+			if (err == null) {
+				callerFuture.complete(commandResult);
+			} else {
+				callerFuture.completeExceptionally(err);
+			}
+		});
+		callerFuture.whenComplete((commandResult, err) -> {
+			if (callerFuture.isCancelled()) {
+				this.detach(commandKey, inFlightCommand);
+			}
+		});
+		return callerFuture;
+	}
+
+	private void remove(final CommandKey commandKey, final InFlightCommand inFlightCommand) {
+		synchronized (this.inFlightCommands) {
+			this.inFlightCommands.remove(commandKey, inFlightCommand);
+		}
+	}
+
+	private void detach(final CommandKey commandKey, final InFlightCommand inFlightCommand) {
+		synchronized (this.inFlightCommands) {
+			if (--inFlightCommand.callerCount > 0) {
+				return;
+			}
+			this.inFlightCommands.remove(commandKey, inFlightCommand);
+		}
+		// No caller is left waiting , Drop the command
+		inFlightCommand.commandResultFuture.cancel(false);
+	}
+
+}
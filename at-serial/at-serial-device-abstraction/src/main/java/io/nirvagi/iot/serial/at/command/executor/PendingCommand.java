@@ -0,0 +1,79 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+
+/**
+ * A command request waiting to be processed by the {@link SendCommandTask} ,
+ * Along with the future that the task completes with the command result. If
+ * the future is completed by the caller (cancelled for example) before the
+ * command is sent , The command is never sent to the device. Neither is a
+ * command whose deadline passes while it is queued
+ * 
+ * @author bharath
+ *
+ */
+public class PendingCommand {
+	private final CommandRequest commandRequest;
+	private final CompletableFuture<CommandResult> commandResultFuture;
+	// The deadline as per System.nanoTime , Long.MAX_VALUE if there is none
+	private final long deadlineNanos;
+
+	public PendingCommand(final CommandRequest commandRequest) {
+		this.commandRequest = commandRequest;
+		this.commandResultFuture = new CompletableFuture<CommandResult>();
+		this.deadlineNanos = commandRequest.getDeadlineMillis() > 0
+				? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commandRequest.getDeadlineMillis())
+				: Long.MAX_VALUE;
+	}
+
+	public CommandRequest getCommandRequest() {
+		return commandRequest;
+	}
+
+	public CompletableFuture<CommandResult> getCommandResultFuture() {
+		return commandResultFuture;
+	}
+
+	public long getDeadlineNanos() {
+		return deadlineNanos;
+	}
+
+	/**
+	 * Check if the deadline of the command has passed
+	 * 
+	 * @return true if the client is no longer waiting for the command
+	 */
+	public boolean isExpired() {
+		return this.deadlineNanos != Long.MAX_VALUE && System.nanoTime() - this.deadlineNanos >= 0;
+	}
+
+	/**
+	 * Check if the caller has given up on the command
+	 * 
+	 * @return true if the future has been completed by anyone other than the
+	 *         command processor
+	 */
+	public boolean isAbandoned() {
+		return this.commandResultFuture.isDone();
+	}
+
+}
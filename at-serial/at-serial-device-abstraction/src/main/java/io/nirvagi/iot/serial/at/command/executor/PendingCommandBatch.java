@@ -0,0 +1,140 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+
+/**
+ * An ordered list of commands that the {@link SendCommandTask} executes under
+ * a single device lease , No command from any other batch is sent to the
+ * device until the whole batch is processed. A single command request is
+ * queued as a batch of one
+ * 
+ * The batch is scheduled with the highest priority and the earliest deadline
+ * of its commands
+ * 
+ * @author bharath
+ *
+ */
+public class PendingCommandBatch {
+	private final List<PendingCommand> pendingCommands;
+	private final boolean stopOnFailure;
+	private final CompletableFuture<List<CommandResult>> batchResultFuture;
+	private final int priority;
+	private final long deadlineNanos;
+	// Set by the scheduler , Orders the batches of the same priority and deadline
+	private long sequenceNumber;
+	// Set by the scheduler , The time the batch is expected to hold the device
+	private long estimatedLatencyNanos;
+	// Set by the scheduler , The time (as per System.nanoTime) the batch was queued
+	private long submitTimeNanos;
+
+	/**
+	 * Build a batch
+	 * 
+	 * @param commandRequests
+	 *            The commands to execute , In order
+	 * @param stopOnFailure
+	 *            If true , The commands following the first command that does
+	 *            not succeed are not executed
+	 */
+	public PendingCommandBatch(final List<CommandRequest> commandRequests, final boolean stopOnFailure) {
+		final List<PendingCommand> commands = new ArrayList<PendingCommand>(commandRequests.size());
+		int batchPriority = Integer.MIN_VALUE;
+		long batchDeadlineNanos = Long.MAX_VALUE;
+		for (CommandRequest commandRequest : commandRequests) {
+			final PendingCommand pendingCommand = new PendingCommand(commandRequest);
+			commands.add(pendingCommand);
+			batchPriority = Math.max(batchPriority, commandRequest.getPriority());
+			if (pendingCommand.getDeadlineNanos() != Long.MAX_VALUE
+					&& (batchDeadlineNanos == Long.MAX_VALUE || pendingCommand.getDeadlineNanos() - batchDeadlineNanos < 0)) {
+				batchDeadlineNanos = pendingCommand.getDeadlineNanos();
+			}
+		}
+		this.pendingCommands = Collections.unmodifiableList(commands);
+		this.priority = commands.isEmpty() ? 0 : batchPriority;
+		this.deadlineNanos = batchDeadlineNanos;
+		this.stopOnFailure = stopOnFailure;
+		this.batchResultFuture = new CompletableFuture<List<CommandResult>>();
+		// Abandoning the batch abandons all the commands that are not complete
+		this.batchResultFuture.whenComplete((results, error) -> {
+			for (PendingCommand pendingCommand : this.pendingCommands) {
+				pendingCommand.getCommandResultFuture().cancel(false);
+			}
+		});
+	}
+
+	public PendingCommandBatch(final CommandRequest commandRequest) {
+		this(Collections.singletonList(commandRequest), false);
+	}
+
+	public List<PendingCommand> getPendingCommands() {
+		return pendingCommands;
+	}
+
+	public boolean isStopOnFailure() {
+		return stopOnFailure;
+	}
+
+	public CompletableFuture<List<CommandResult>> getBatchResultFuture() {
+		return batchResultFuture;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Get the earliest deadline of the commands
+	 * 
+	 * @return The deadline as per System.nanoTime , Long.MAX_VALUE if no
+	 *         command has a deadline
+	 */
+	public long getDeadlineNanos() {
+		return deadlineNanos;
+	}
+
+	long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	void setSequenceNumber(long sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	long getEstimatedLatencyNanos() {
+		return estimatedLatencyNanos;
+	}
+
+	void setEstimatedLatencyNanos(long estimatedLatencyNanos) {
+		this.estimatedLatencyNanos = estimatedLatencyNanos;
+	}
+
+	long getSubmitTimeNanos() {
+		return submitTimeNanos;
+	}
+
+	void setSubmitTimeNanos(long submitTimeNanos) {
+		this.submitTimeNanos = submitTimeNanos;
+	}
+
+}
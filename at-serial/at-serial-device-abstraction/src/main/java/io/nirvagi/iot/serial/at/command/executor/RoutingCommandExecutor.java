@@ -0,0 +1,122 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.executor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+
+/**
+ * A command executor that routes every command request to the executor of the
+ * device named by the request device id . Each device has its own executor
+ * (and so its own command queue and command processor thread) , A slow device
+ * never holds up the commands of another device. The device id can be left
+ * out of the request when there is only one device
+ * 
+ * @author bharath
+ *
+ */
+public class RoutingCommandExecutor implements CommandExecutor {
+	private static final String UNKNOWN_DEVICE_ERROR_MESSAGE = "The device %s is not known , The available devices are %s";
+	private static final String DEVICE_NOT_SET_ERROR_MESSAGE = "The device id must be set when more than one device is attached , The available devices are %s";
+	private static final String MIXED_BATCH_ERROR_MESSAGE = "All the commands of a batch must be sent to the same device";
+	private final Map<String, CommandExecutor> deviceExecutors;
+
+	/**
+	 * Build a routing executor
+	 * 
+	 * @param deviceExecutors
+	 *            The command executors keyed by the device id
+	 */
+	public RoutingCommandExecutor(final Map<String, CommandExecutor> deviceExecutors) {
+		this.deviceExecutors = Collections.unmodifiableMap(new LinkedHashMap<String, CommandExecutor>(deviceExecutors));
+	}
+
+	/**
+	 * Get the executor of a device
+	 * 
+	 * @param deviceId
+	 *            The device id , Can be null if there is only one device
+	 * @return The device command executor
+	 */
+	public CommandExecutor getDeviceExecutor(final String deviceId) {
+		if (deviceId == null) {
+			if (this.deviceExecutors.size() != 1) {
+				throw new IllegalArgumentException(
+						String.format(DEVICE_NOT_SET_ERROR_MESSAGE, this.deviceExecutors.keySet()));
+			}
+			return this.deviceExecutors.values().iterator().next();
+		}
+		final CommandExecutor commandExecutor = this.deviceExecutors.get(deviceId);
+		if (commandExecutor == null) {
+			throw new IllegalArgumentException(
+					String.format(UNKNOWN_DEVICE_ERROR_MESSAGE, deviceId, this.deviceExecutors.keySet()));
+		}
+		return commandExecutor;
+	}
+
+	public Map<String, CommandExecutor> getDeviceExecutors() {
+		return this.deviceExecutors;
+	}
+
+	private CommandExecutor getBatchExecutor(final List<CommandRequest> commandRequests) {
+		if (commandRequests.isEmpty()) {
+			return this.getDeviceExecutor(null);
+		}
+		final String deviceId = commandRequests.get(0).getDeviceId();
+		for (CommandRequest commandRequest : commandRequests) {
+			final String commandDeviceId = commandRequest.getDeviceId();
+			if (deviceId == null ? commandDeviceId != null : deviceId.equals(commandDeviceId) == false) {
+				throw new IllegalArgumentException(MIXED_BATCH_ERROR_MESSAGE);
+			}
+		}
+		return this.getDeviceExecutor(deviceId);
+	}
+
+	public CommandResult execute(final CommandRequest commandRequest) {
+		return this.getDeviceExecutor(commandRequest.getDeviceId()).execute(commandRequest);
+	}
+
+	public CompletableFuture<CommandResult> executeAsync(final CommandRequest commandRequest) {
+		return this.getDeviceExecutor(commandRequest.getDeviceId()).executeAsync(commandRequest);
+	}
+
+	public List<CommandResult> executeBatch(final List<CommandRequest> commandRequests, final boolean stopOnFailure) {
+		return this.getBatchExecutor(commandRequests).executeBatch(commandRequests, stopOnFailure);
+	}
+
+	public CompletableFuture<List<CommandResult>> executeBatchAsync(final List<CommandRequest> commandRequests,
+			final boolean stopOnFailure) {
+		return this.getBatchExecutor(commandRequests).executeBatchAsync(commandRequests, stopOnFailure);
+	}
+
+	/**
+	 * Drop the cached results of all the devices , Use
+	 * {@link #getDeviceExecutor(String)} to drop the cached results of a
+	 * single device
+	 */
+	public void invalidateCache() {
+		for (CommandExecutor commandExecutor : this.deviceExecutors.values()) {
+			commandExecutor.invalidateCache();
+		}
+	}
+
+}
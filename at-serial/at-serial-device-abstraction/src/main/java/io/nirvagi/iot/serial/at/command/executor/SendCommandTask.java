@@ -15,26 +15,32 @@
  * \*-------------------------------------------------------------------------------------------------------------------*/
 package io.nirvagi.iot.serial.at.command.executor;
 
-import java.text.DecimalFormat;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.commons.collections.Buffer;
-import org.apache.commons.collections.BufferUnderflowException;
-import org.apache.commons.collections.BufferUtils;
 import org.apache.commons.collections.buffer.CircularFifoBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
 
+import io.nirvagi.iot.serial.SerialEvent;
 import io.nirvagi.iot.serial.SerialInterface;
+import io.nirvagi.iot.serial.SerialInterfaceException;
 import io.nirvagi.iot.serial.at.command.CommandRequest;
 import io.nirvagi.iot.serial.at.command.CommandResult;
 import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.at.command.matcher.ResponseMatcher;
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.iot.serial.metrics.DeviceMetrics;
+import io.nirvagi.iot.serial.util.ByteUtil;
 import io.nirvagi.iot.serial.util.StringUtil;
 import io.nirvagi.serial.command.SerialCommand;
 import io.nirvagi.serial.command.SerialCommand.CommandType;
@@ -44,8 +50,16 @@ import io.nirvagi.serial.command.SerialCommand.CommandType;
  * A task for handling send commands. Send commands are those that are sent to
  * the serial device and a response is expected. The task sends the command to
  * the device and waits on the observable to update , or the event to
- * timeout(whichever happens earlier) The response matching is done by using
- * regular expression
+ * timeout(whichever happens earlier) The response matching is done by the
+ * compiled expected output of the command (see {@link ResponseMatcher})
+ * 
+ * The task does not poll the rx buffer , The serial event thread signals a
+ * condition whenever data is added to the buffer and the task parks on that
+ * condition until the data arrives or the command deadline is reached
+ * 
+ * A raw command payload is written as is , When the request asks for the raw
+ * output the bytes received while the command is in flight are captured along
+ * with the lines
  * 
  * @author bharath
  *
@@ -53,38 +67,93 @@ import io.nirvagi.serial.command.SerialCommand.CommandType;
 public class SendCommandTask implements Runnable, Observer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SendCommandTask.class);
 	private static final int BUFFER_MAX_SIZE = 2000;
-	private final BlockingQueue<CommandRequest> commandRequestQueue;
-	private final BlockingQueue<CommandResult> commandResultQueue;
-	// circular Buffer to hold received serial events
-	private final Buffer rxBuffer;
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final String EXPIRED_ERROR_MESSAGE = "The deadline of the command %s passed before it could be sent";
+	private final CommandScheduler commandScheduler;
+	private final DeviceMetrics deviceMetrics;
+	// circular Buffer to hold received serial events , guarded by rxLock
+	private final CircularFifoBuffer rxBuffer;
+	private final Lock rxLock;
+	// Signalled by the serial event thread when data is added to the rx buffer
+	private final Condition rxDataAvailable;
+	// The raw bytes received for the command in flight , null when they are not asked for , guarded by rxLock
+	private ByteArrayOutputStream rawOutputCapture;
 	// Serial interface to send and receive commands
 	private final SerialInterface serialInterface;
+	// The commands of the port are encoded into the same buffer
+	private final CommandEncoder commandEncoder = new CommandEncoder();
 
 	
 
-	private CommandResult waitForCommandResultUntilTimeout(final String expectedCommandResponse,
-			final int commandTimeout) {
-		final long commandTimeoutDuration = System.currentTimeMillis() + commandTimeout * 1000;
+	/**
+	 * Wake up the command processor if it is waiting for a serial response
+	 */
+	private void signalRxWaiter() {
+		this.rxLock.lock();
+		try {
+			this.rxDataAvailable.signal();
+		} finally {
+			this.rxLock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for the next serial event in the rx buffer
+	 * 
+	 * @param deadlineNanos
+	 *            The deadline(as per System.nanoTime) until which to wait
+	 * @param pendingCommand
+	 *            The command in flight , The wait ends if the caller abandons
+	 *            it
+	 * @return The next serial event , or null if the deadline was reached or
+	 *         the command was abandoned
+	 */
+	@SuppressWarnings("unchecked")
+	private List<String> awaitSerialResponse(final long deadlineNanos, final PendingCommand pendingCommand)
+			throws InterruptedException {
+		this.rxLock.lock();
+		try {
+			while (this.rxBuffer.isEmpty()) {
+				if (pendingCommand.isAbandoned()) {
+					return null;
+				}
+				final long remainingNanos = deadlineNanos - System.nanoTime();
+				if (remainingNanos <= 0) {
+					return null;
+				}
+				this.rxDataAvailable.awaitNanos(remainingNanos);
+			}
+			return (List<String>) this.rxBuffer.remove();
+		} finally {
+			this.rxLock.unlock();
+		}
+	}
+
+	private CommandResult waitForCommandResultUntilTimeout(final PendingCommand pendingCommand,
+			final ResponseMatcher responseMatcher, final long commandTimeout) {
+		final long commandDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commandTimeout);
 		final CommandResult commandResult = new CommandResult();
-		while (System.currentTimeMillis() < commandTimeoutDuration) {
-			try {
-				@SuppressWarnings("unchecked")
-				final List<String> serialResponse = (List<String>) this.rxBuffer.remove();
+		try {
+			List<String> serialResponse = null;
+			while ((serialResponse = this.awaitSerialResponse(commandDeadline, pendingCommand)) != null) {
 				if (StringUtil.hasCommandErred(serialResponse) == true) {
 					commandResult.setCommandOutput(serialResponse);
 					commandResult.setCommandStatus(CommandStatus.ERROR);
 					return commandResult;
 				}
-				final List<String> matchingOutputString = StringUtil.getMatchingString(serialResponse,
-						expectedCommandResponse);
+				final List<String> matchingOutputString = responseMatcher.getMatchingLines(serialResponse);
 				if (matchingOutputString.isEmpty() == false) {
 					commandResult.setCommandOutput(matchingOutputString);
 					commandResult.setCommandStatus(CommandStatus.SUCCESS);
 					return commandResult;
 				}
-			} catch (BufferUnderflowException err) {
-				continue;
 			}
+		} catch (InterruptedException e) {
+			/*
+			 * Restore the interrupt status , The run loop will terminate the
+			 * task the next time it waits on the request queue
+			 */
+			Thread.currentThread().interrupt();
 		}
 		// If the control flow reaches here it implies that the command has
 		// timed out
@@ -97,58 +166,157 @@ public class SendCommandTask implements Runnable, Observer {
 	 * Handle a send command . This method is synchronized because at any given
 	 * time the system can handle only one command in-flight
 	 * 
-	 * @param serialCommand
-	 *            The serial command to send
+	 * @param pendingCommand
+	 *            The command being sent
 	 * @param commandPayload
-	 *            The actual command payload in bytes
+	 *            The buffer holding the actual command payload in bytes
+	 * @param commandLength
+	 *            The length of the command payload
 	 * @return A command result representing the status of the command
 	 */
-	private synchronized CommandResult sendCommandData(final SerialCommand serialCommand, final byte[] commandPayload) {
+	private synchronized CommandResult sendCommandData(final PendingCommand pendingCommand,
+			final byte[] commandPayload, final int commandLength) {
+		final SerialCommand serialCommand = pendingCommand.getCommandRequest().getCommand();
 		/*
 		 * Clear the RX buffer before sending any command , This is to ensure
 		 * that we don't parse any stale command output that are left in the
 		 * RxQueue
 		 */
-		this.rxBuffer.clear();
-		// Mark the starting time of the command
-		final long commandStartTime = System.currentTimeMillis();
-		this.serialInterface.write(commandPayload);
-		final CommandResult cr = this.waitForCommandResultUntilTimeout(serialCommand.getCommandExpectedOutout(),
-				serialCommand.getCommandTimeout());
-		// set the command duration
-		final double commandDuration = (System.currentTimeMillis() - commandStartTime) / 1000f;
-		cr.setCommandDuration(Double.parseDouble(new DecimalFormat(".##").format(commandDuration)));
+		this.rxLock.lock();
+		try {
+			this.rxBuffer.clear();
+			this.rawOutputCapture = pendingCommand.getCommandRequest().isIncludeRawOutput() ? new ByteArrayOutputStream()
+					: null;
+		} finally {
+			this.rxLock.unlock();
+		}
+		// Mark the starting time of the command , The monotonic clock is not moved by clock adjustments
+		final long commandStartTime = System.nanoTime();
+		final CommandResult cr;
+		byte[] rawOutput = null;
+		try {
+			this.serialInterface.write(commandPayload, commandLength);
+			cr = this.waitForCommandResultUntilTimeout(pendingCommand, CommandRegistry.getResponseMatcher(serialCommand),
+					pendingCommand.getCommandRequest().getEffectiveCommandTimeout());
+		} finally {
+			rawOutput = this.stopRawOutputCapture();
+		}
+		cr.setRawOutput(rawOutput);
+		// set the command duration in seconds
+		cr.setCommandDuration((System.nanoTime() - commandStartTime) / NANOS_PER_SECOND);
 		return cr;
 
 	}
 
-	private CommandResult sendCommandRequest(final CommandRequest commandRequest) {
-		final SerialCommand serialCommand = commandRequest.getCommand();
-		final String commandString = StringUtil.buildCommandString(commandRequest);
-		LOGGER.debug("Built the command String {}", commandString);
-		final byte[] commandPayload = commandString.getBytes();
-		LOGGER.debug("Sending the command {}", commandString);
-		return this.sendCommandData(serialCommand, commandPayload);
+	private CommandResult sendCommandRequest(final PendingCommand pendingCommand) {
+		final CommandRequest commandRequest = pendingCommand.getCommandRequest();
+		if (commandRequest.getCommandPayload() != null) {
+			LOGGER.debug("Sending the raw payload {}", ByteUtil.encodeHex(commandRequest.getCommandPayload()));
+			return this.sendCommandData(pendingCommand, commandRequest.getCommandPayload(),
+					commandRequest.getCommandPayload().length);
+		}
+		final int commandLength = this.commandEncoder.encode(commandRequest);
+		if (LOGGER.isDebugEnabled()) {
+			// Without the terminator
+			LOGGER.debug("Sending the command {}",
+					new String(this.commandEncoder.getBuffer(), 0, commandLength - 1, StandardCharsets.US_ASCII));
+		}
+		return this.sendCommandData(pendingCommand, this.commandEncoder.getBuffer(), commandLength);
 	}
 
-	public SendCommandTask(final SerialInterface serialInterface,
-			final BlockingQueue<CommandRequest> commandRequestQueue,
-			final BlockingQueue<CommandResult> commandResultQueue) {
+	public SendCommandTask(final SerialInterface serialInterface, final CommandScheduler commandScheduler,
+			final DeviceMetrics deviceMetrics) {
 		LOGGER.debug("Starting the command Processor task...");
-		this.rxBuffer = BufferUtils.synchronizedBuffer(new CircularFifoBuffer(BUFFER_MAX_SIZE));
+		this.rxBuffer = new CircularFifoBuffer(BUFFER_MAX_SIZE);
+		this.rxLock = new ReentrantLock();
+		this.rxDataAvailable = this.rxLock.newCondition();
 		this.serialInterface = serialInterface;
 		// Add this task as an observer
 		this.serialInterface.addObserver(this);
-		this.commandRequestQueue = commandRequestQueue;
-		this.commandResultQueue = commandResultQueue;
+		this.commandScheduler = commandScheduler;
+		this.deviceMetrics = deviceMetrics;
+	}
+
+	/**
+	 * Send a single command and complete its future
+	 * 
+	 * @param pendingCommand
+	 *            The command to send
+	 * @return The command result , or null if the command was not executed
+	 */
+	private CommandResult processCommand(final PendingCommand pendingCommand,
+			final PendingCommandBatch commandBatch) {
+		final CommandRequest commandRequest = pendingCommand.getCommandRequest();
+		if (commandRequest.getCommand().getCommandType() == CommandType.LISTEN) {
+			LOGGER.warn("Cannot handle a listen command , Ignoring");
+			return null;
+		}
+		if (pendingCommand.isAbandoned()) {
+			LOGGER.debug("The command {} was abandoned before it was sent , Ignoring",
+					commandRequest.getCommand().getCommandName());
+			return null;
+		}
+		if (pendingCommand.isExpired()) {
+			final String commandName = commandRequest.getCommand().getCommandName();
+			LOGGER.debug("The deadline of the command {} passed while it was queued , Dropping", commandName);
+			final CommandRejectedException err = new CommandRejectedException(
+					String.format(EXPIRED_ERROR_MESSAGE, commandName), 0);
+			pendingCommand.getCommandResultFuture().completeExceptionally(err);
+			commandBatch.getBatchResultFuture().completeExceptionally(err);
+			return null;
+		}
+		// Stop waiting for the device response as soon as the caller gives up
+		pendingCommand.getCommandResultFuture().whenComplete((result, error) -> this.signalRxWaiter());
+		CommandResult commandResult = null;
+		final long sendStartNanos = System.nanoTime();
+		try {
+			commandResult = this.sendCommandRequest(pendingCommand);
+		} catch (SerialInterfaceException err) {
+			// The rest of the batch is not sent , The batch fails rather than
+			// returning fewer results than commands
+			pendingCommand.getCommandResultFuture().completeExceptionally(err);
+			commandBatch.getBatchResultFuture().completeExceptionally(err);
+			return null;
+		}
+		final long commandLatencyNanos = System.nanoTime() - sendStartNanos;
+		this.commandScheduler.recordLatency(commandRequest.getCommand(), commandLatencyNanos);
+		this.deviceMetrics.recordCommand(commandRequest.getCommand(), commandResult.getCommandStatus(),
+				commandLatencyNanos);
+		LOGGER.debug("The result is {} {}", commandResult.getCommandStatus(), commandResult.getCommandOutput());
+		pendingCommand.getCommandResultFuture().complete(commandResult);
+		return commandResult;
+	}
+
+	/**
+	 * Send all the commands of a batch in order , No other command is sent to
+	 * the device while the batch is processed
+	 * 
+	 * @param commandBatch
+	 *            The batch to process
+	 */
+	private void processBatch(final PendingCommandBatch commandBatch) {
+		final List<CommandResult> commandResults = new ArrayList<CommandResult>();
+		for (PendingCommand pendingCommand : commandBatch.getPendingCommands()) {
+			final CommandResult commandResult = this.processCommand(pendingCommand, commandBatch);
+			if (commandResult == null) {
+				break;
+			}
+			commandResults.add(commandResult);
+			if (commandBatch.isStopOnFailure() && commandResult.getCommandStatus() != CommandStatus.SUCCESS) {
+				LOGGER.debug("The command {} did not succeed , Skipping the rest of the batch",
+						pendingCommand.getCommandRequest().getCommand().getCommandName());
+				break;
+			}
+		}
+		commandBatch.getBatchResultFuture().complete(commandResults);
 	}
 
 	public void run() {
 		while (true) {
-			CommandRequest commandRequest = null;
-			CommandResult commandResult = null;
+			PendingCommandBatch commandBatch = null;
 			try {
-				commandRequest = this.commandRequestQueue.take();
+				commandBatch = this.commandScheduler.take();
+				this.deviceMetrics.recordQueueWait(System.nanoTime() - commandBatch.getSubmitTimeNanos());
 			} catch (InterruptedException e) {
 				/*
 				 * bit of a bad design, For this we just handle the exception
@@ -160,23 +328,69 @@ public class SendCommandTask implements Runnable, Observer {
 				 */
 				throw new RuntimeException(e);
 			}
-			if (commandRequest.getCommand().getCommandType() == CommandType.LISTEN) {
-				LOGGER.warn("Cannot handle a listen command , Ignoring");
-				continue;
+			try {
+				this.processBatch(commandBatch);
+			} catch (RuntimeException err) {
+				// This is the only command thread of the device , Only the
+				// batch is lost and the queued commands are still sent
+				LOGGER.error("Unable to process the command batch , Failing it", err);
+				for (PendingCommand pendingCommand : commandBatch.getPendingCommands()) {
+					pendingCommand.getCommandResultFuture().completeExceptionally(err);
+				}
+				commandBatch.getBatchResultFuture().completeExceptionally(err);
+			}
+		}
+
+	}
+
+	/**
+	 * Capture the raw bytes if the command in flight asks for them
+	 */
+	private void captureRawOutput(final byte[] data) {
+		this.rxLock.lock();
+		try {
+			if (this.rawOutputCapture != null) {
+				this.rawOutputCapture.write(data, 0, data.length);
 			}
-			commandResult = this.sendCommandRequest(commandRequest);
-			LOGGER.debug("The result is {}", new Gson().toJson(commandResult, CommandResult.class));
-			this.commandResultQueue.offer(commandResult);
+		} finally {
+			this.rxLock.unlock();
 		}
+	}
 
+	/**
+	 * Stop capturing the raw bytes
+	 * 
+	 * @return The captured bytes , or null if they were not asked for
+	 */
+	private byte[] stopRawOutputCapture() {
+		this.rxLock.lock();
+		try {
+			final byte[] rawOutput = this.rawOutputCapture == null ? null : this.rawOutputCapture.toByteArray();
+			this.rawOutputCapture = null;
+			return rawOutput;
+		} finally {
+			this.rxLock.unlock();
+		}
 	}
 
 	@SuppressWarnings("unchecked")
 	public void update(Observable o, Object arg) {
-		final List<String> outputData = StringUtil.convertDataBytesToString((byte[]) arg);
+		final SerialEvent serialEvent = (SerialEvent) arg;
+		this.captureRawOutput(serialEvent.getData());
+		final List<String> outputData = serialEvent.getLines();
 		if (outputData.isEmpty() == false) {
 			LOGGER.debug("Serial event recieved {}", outputData);
-			this.rxBuffer.add(outputData);
+			this.rxLock.lock();
+			try {
+				if (this.rxBuffer.isFull()) {
+					// The oldest response is evicted to make room
+					this.deviceMetrics.recordRxBufferEviction();
+				}
+				this.rxBuffer.add(outputData);
+				this.rxDataAvailable.signal();
+			} finally {
+				this.rxLock.unlock();
+			}
 		}
 
 	}
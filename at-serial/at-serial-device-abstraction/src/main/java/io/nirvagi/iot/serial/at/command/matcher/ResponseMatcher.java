@@ -0,0 +1,141 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.matcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.nirvagi.serial.command.SerialCommand;
+import io.nirvagi.serial.command.SerialCommand.MatchType;
+
+/**
+ * A compiled command expected output . The expected output of a command is
+ * compiled once and cached , Matching a line against it does not allocate.
+ * The literal match types are matched with plain string comparisons , Only
+ * the REGEX match type goes through a regular expression (with a matcher that
+ * is reused per thread)
+ * 
+ * The device output lines are upper cased by the serial interface , So the
+ * literal expected outputs are upper cased when they are compiled and the
+ * regular expressions are compiled case insensitive
+ * 
+ * @author bharath
+ *
+ */
+public final class ResponseMatcher {
+	private static final ConcurrentMap<SerialCommand, ResponseMatcher> COMMAND_MATCHERS = new ConcurrentHashMap<SerialCommand, ResponseMatcher>();
+	private final MatchType matchType;
+	private final String literal;
+	private final ThreadLocal<Matcher> regexMatcher;
+
+	private ResponseMatcher(final String expectedOutput, final MatchType matchType) {
+		this.matchType = matchType;
+		if (matchType == MatchType.REGEX) {
+			final Pattern pattern = Pattern.compile(expectedOutput, Pattern.CASE_INSENSITIVE);
+			this.literal = null;
+			this.regexMatcher = ThreadLocal.withInitial(() -> pattern.matcher(""));
+		} else {
+			this.literal = expectedOutput.toUpperCase();
+			this.regexMatcher = null;
+		}
+	}
+
+	/**
+	 * Compile an expected output
+	 * 
+	 * @param expectedOutput
+	 *            The expected output
+	 * @param matchType
+	 *            How the expected output is matched
+	 * @return The compiled matcher
+	 */
+	public static ResponseMatcher compile(final String expectedOutput, final MatchType matchType) {
+		return new ResponseMatcher(expectedOutput, matchType);
+	}
+
+	/**
+	 * Get the compiled expected output of a command , The matcher is compiled
+	 * the first time and cached. A command whose expected output can change
+	 * (A command loaded from the definitions file) should carry its own
+	 * compiled matcher instead
+	 * 
+	 * @param serialCommand
+	 *            The serial command
+	 * @return The compiled matcher
+	 */
+	public static ResponseMatcher forCommand(final SerialCommand serialCommand) {
+		ResponseMatcher responseMatcher = COMMAND_MATCHERS.get(serialCommand);
+		if (responseMatcher == null) {
+			responseMatcher = compile(serialCommand.getCommandExpectedOutout(), serialCommand.getCommandMatchType());
+			final ResponseMatcher cachedMatcher = COMMAND_MATCHERS.putIfAbsent(serialCommand, responseMatcher);
+			if (cachedMatcher != null) {
+				responseMatcher = cachedMatcher;
+			}
+		}
+		return responseMatcher;
+	}
+
+	/**
+	 * Find the expected output in a line
+	 * 
+	 * @param line
+	 *            The upper cased line
+	 * @return The index the match starts at , or -1 if the line does not match
+	 */
+	public int indexIn(final String line) {
+		switch (this.matchType) {
+		case PREFIX:
+			return line.startsWith(this.literal) ? 0 : -1;
+		case CONTAINS:
+			return line.indexOf(this.literal);
+		default:
+			final Matcher matcher = this.regexMatcher.get().reset(line);
+			return matcher.find() ? matcher.start() : -1;
+		}
+	}
+
+	public boolean matches(final String line) {
+		return this.indexIn(line) >= 0;
+	}
+
+	/**
+	 * Get the matching output from a list of lines . The matching output
+	 * starts at the first match and runs till the last line
+	 * 
+	 * @param lines
+	 *            The upper cased lines
+	 * @return The matching output , or an empty list if none of the lines match
+	 */
+	public List<String> getMatchingLines(final List<String> lines) {
+		for (int i = 0; i < lines.size(); i++) {
+			final String line = lines.get(i);
+			final int matchIndex = this.indexIn(line);
+			if (matchIndex >= 0) {
+				final List<String> matchingLines = new ArrayList<String>(lines.size() - i);
+				matchingLines.add(matchIndex == 0 ? line : line.substring(matchIndex));
+				matchingLines.addAll(lines.subList(i + 1, lines.size()));
+				return matchingLines;
+			}
+		}
+		return Collections.emptyList();
+	}
+
+}
@@ -0,0 +1,188 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.observer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nirvagi.iot.serial.SerialEvent;
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.metrics.DeviceMetrics;
+import io.nirvagi.iot.serial.util.StringUtil;
+
+/**
+ * Dispatcher for listen commands , Certain types of AT commands are
+ * asynchronous ,Which could be triggered at any given time , For example an
+ * image query (in zigbee world).
+ * 
+ * The dispatcher is the only observer registered for the listen commands .
+ * Every serial event is framed into lines once and each line is scanned once
+ * by an Aho-Corasick automaton built over the expected output of all the
+ * subscriptions , So the cost of dispatching does not grow with the number of
+ * waiting clients. Clients waiting for the same output share one subscription
+ * and get their result through a future that is completed as soon as the
+ * output arrives , or when the command times out.
+ * 
+ * The automaton is rebuilt only when the set of expected outputs changes , And
+ * at most once per serial event no matter how many subscriptions came and went
+ * in between. The serial event thread scans the lines without holding the
+ * dispatcher lock
+ * 
+ * @author bharath
+ *
+ */
+public class ListenCommandDispatcher implements Observer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ListenCommandDispatcher.class);
+	private static final String TIMEOUT_THREAD_NAME = "listen-command-timeout";
+	// The subscriptions keyed by the expected output , guarded by this
+	private final Map<String, ListenSubscription> subscriptions;
+	private final ScheduledThreadPoolExecutor timeoutExecutor;
+	private volatile PatternAutomaton<ListenSubscription> subscriptionAutomaton;
+	// Set when the subscriptions changed after the automaton was built
+	private volatile boolean isAutomatonStale;
+	private final DeviceMetrics deviceMetrics;
+
+	public ListenCommandDispatcher(final DeviceMetrics deviceMetrics) {
+		this.deviceMetrics = deviceMetrics;
+		this.subscriptions = new HashMap<String, ListenSubscription>();
+		this.subscriptionAutomaton = PatternAutomaton.build(this.subscriptions);
+		this.isAutomatonStale = false;
+		this.timeoutExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, TIMEOUT_THREAD_NAME);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Completed listen commands should not leave their timeouts behind
+		this.timeoutExecutor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Subscribe for the expected output of a listen command
+	 * 
+	 * @param commandRequest
+	 *            The listen command request
+	 * @return A future that is completed with the command result once the
+	 *         expected output arrives or the command times out
+	 */
+	public CompletableFuture<CommandResult> subscribe(final CommandRequest commandRequest) {
+		final String commandExpectedOutput = StringUtil.buildCommandString(commandRequest).toUpperCase().trim();
+		final long commandTimeout = commandRequest.getEffectiveCommandTimeout();
+		final ListenSubscription.Waiter waiter = new ListenSubscription.Waiter();
+		// The timeout is set before the waiter can be matched , So completing
+		// the waiter always cancels it
+		waiter.setTimeoutTask(this.timeoutExecutor.schedule(waiter::timeout, commandTimeout, TimeUnit.MILLISECONDS));
+		synchronized (this) {
+			ListenSubscription subscription = this.subscriptions.get(commandExpectedOutput);
+			if (subscription == null) {
+				LOGGER.debug("Adding subscription for the expected output {}", commandExpectedOutput);
+				subscription = new ListenSubscription(commandExpectedOutput);
+				this.subscriptions.put(commandExpectedOutput, subscription);
+				this.isAutomatonStale = true;
+			}
+			subscription.getWaiters().add(waiter);
+			final ListenSubscription waiterSubscription = subscription;
+			waiter.getFuture().whenComplete((result, error) -> {
+				this.removeWaiter(waiterSubscription, waiter);
+				if (result != null) {
+					this.deviceMetrics.recordCommand(commandRequest.getCommand(), result.getCommandStatus(),
+							waiter.getElapsedNanos());
+				}
+			});
+		}
+		return waiter.getFuture();
+	}
+
+	private synchronized void removeWaiter(final ListenSubscription subscription,
+			final ListenSubscription.Waiter waiter) {
+		waiter.cancelTimeout();
+		final List<ListenSubscription.Waiter> waiters = subscription.getWaiters();
+		if (waiters.remove(waiter) && waiters.isEmpty()
+				&& this.subscriptions.get(subscription.getCommandExpectedOutput()) == subscription) {
+			LOGGER.debug("Deleting subscription for the expected output {}", subscription.getCommandExpectedOutput());
+			this.subscriptions.remove(subscription.getCommandExpectedOutput());
+			this.isAutomatonStale = true;
+		}
+	}
+
+	/**
+	 * Get the number of clients waiting for a listen command output
+	 * 
+	 * @return The waiter count
+	 */
+	public synchronized int getWaiterCount() {
+		int waiterCount = 0;
+		for (ListenSubscription subscription : this.subscriptions.values()) {
+			waiterCount += subscription.getWaiters().size();
+		}
+		return waiterCount;
+	}
+
+	private PatternAutomaton<ListenSubscription> getSubscriptionAutomaton() {
+		if (this.isAutomatonStale) {
+			synchronized (this) {
+				if (this.isAutomatonStale) {
+					this.subscriptionAutomaton = PatternAutomaton.build(this.subscriptions);
+					this.isAutomatonStale = false;
+				}
+			}
+		}
+		return this.subscriptionAutomaton;
+	}
+
+	public void update(Observable o, Object arg) {
+		final List<String> commandResponse = ((SerialEvent) arg).getLines();
+		if (commandResponse.isEmpty()) {
+			return;
+		}
+		final PatternAutomaton<ListenSubscription> automaton = this.getSubscriptionAutomaton();
+		final Set<ListenSubscription> matchedSubscriptions = new LinkedHashSet<ListenSubscription>();
+		for (String line : commandResponse) {
+			automaton.collectMatches(line, matchedSubscriptions);
+		}
+		if (matchedSubscriptions.isEmpty()) {
+			return;
+		}
+		LOGGER.debug("Got the matched command output {}", commandResponse);
+		final List<ListenSubscription.Waiter> matchedWaiters = new ArrayList<ListenSubscription.Waiter>();
+		synchronized (this) {
+			for (ListenSubscription subscription : matchedSubscriptions) {
+				matchedWaiters.addAll(subscription.getWaiters());
+			}
+		}
+		// Completing a waiter removes it from its subscription
+		for (ListenSubscription.Waiter waiter : matchedWaiters) {
+			waiter.complete(commandResponse);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.observer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+
+/**
+ * A subscription for an expected listen command output . All the clients that
+ * are waiting for the same output share a single subscription , Each client is
+ * represented by a waiter that holds its own future and timeout
+ * 
+ * @author bharath
+ *
+ */
+class ListenSubscription {
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	static class Waiter {
+		private final CompletableFuture<CommandResult> future;
+		private final long startTimeNanos;
+		private volatile ScheduledFuture<?> timeoutTask;
+
+		Waiter() {
+			this.future = new CompletableFuture<CommandResult>();
+			this.startTimeNanos = System.nanoTime();
+		}
+
+		long getElapsedNanos() {
+			return System.nanoTime() - this.startTimeNanos;
+		}
+
+		private double getElapsedSeconds() {
+			return this.getElapsedNanos() / NANOS_PER_SECOND;
+		}
+
+		CompletableFuture<CommandResult> getFuture() {
+			return this.future;
+		}
+
+		void setTimeoutTask(final ScheduledFuture<?> timeoutTask) {
+			this.timeoutTask = timeoutTask;
+			// The waiter may have completed before its timeout was set
+			if (this.future.isDone()) {
+				timeoutTask.cancel(false);
+			}
+		}
+
+		void complete(final List<String> commandOutput) {
+			final CommandResult cr = new CommandResult();
+			cr.setCommandDuration(this.getElapsedSeconds());
+			cr.setCommandOutput(commandOutput);
+			cr.setCommandStatus(CommandStatus.SUCCESS);
+			this.future.complete(cr);
+		}
+
+		void timeout() {
+			final CommandResult cr = new CommandResult();
+			cr.setCommandDuration(this.getElapsedSeconds());
+			cr.setCommandOutput(new ArrayList<String>());
+			cr.setCommandStatus(CommandStatus.TIMEOUT);
+			this.future.complete(cr);
+		}
+
+		void cancelTimeout() {
+			if (this.timeoutTask != null) {
+				this.timeoutTask.cancel(false);
+			}
+		}
+	}
+
+	private final String commandExpectedOutput;
+	private final List<Waiter> waiters;
+
+	ListenSubscription(final String commandExpectedOutput) {
+		this.commandExpectedOutput = commandExpectedOutput;
+		this.waiters = new ArrayList<Waiter>();
+	}
+
+	String getCommandExpectedOutput() {
+		return this.commandExpectedOutput;
+	}
+
+	List<Waiter> getWaiters() {
+		return this.waiters;
+	}
+
+}
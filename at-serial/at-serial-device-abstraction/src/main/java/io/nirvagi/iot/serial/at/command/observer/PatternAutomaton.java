@@ -0,0 +1,170 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.observer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * An Aho-Corasick automaton built over a set of patterns . A line is scanned
+ * once and every pattern found anywhere in the line is reported , The cost of
+ * the scan depends on the length of the line (and the number of matches) and
+ * not on the number of patterns.
+ * 
+ * The automaton is immutable once built , So it can be shared by threads
+ * without any locking. The transitions of every state are held in a sorted
+ * array to keep the memory proportional to the total length of the patterns
+ * 
+ * @author bharath
+ *
+ * @param <V>
+ *            The value reported when a pattern is found
+ */
+class PatternAutomaton<V> {
+	private static final int ROOT = 0;
+	private static final int NO_STATE = -1;
+	// Transitions of every state , The characters are sorted
+	private final char[][] transitionChars;
+	private final int[][] transitionStates;
+	// The longest proper suffix of a state that is also a state
+	private final int[] failureStates;
+	// The nearest state on the failure chain that ends a pattern
+	private final int[] outputStates;
+	// The value of the pattern ending at a state , if any
+	private final Object[] stateValues;
+
+	private PatternAutomaton(final List<Map<Character, Integer>> trie, final List<V> values) {
+		final int stateCount = trie.size();
+		this.transitionChars = new char[stateCount][];
+		this.transitionStates = new int[stateCount][];
+		this.failureStates = new int[stateCount];
+		this.outputStates = new int[stateCount];
+		this.stateValues = values.toArray();
+		for (int state = 0; state < stateCount; state++) {
+			final Map<Character, Integer> transitions = trie.get(state);
+			final char[] chars = new char[transitions.size()];
+			int i = 0;
+			for (Character c : transitions.keySet()) {
+				chars[i++] = c;
+			}
+			Arrays.sort(chars);
+			final int[] states = new int[chars.length];
+			for (i = 0; i < chars.length; i++) {
+				states[i] = transitions.get(chars[i]);
+			}
+			this.transitionChars[state] = chars;
+			this.transitionStates[state] = states;
+		}
+		this.buildFailureStates();
+	}
+
+	/**
+	 * Build an automaton
+	 * 
+	 * @param patterns
+	 *            The values keyed by the patterns to find
+	 * @return The automaton
+	 */
+	public static <V> PatternAutomaton<V> build(final Map<String, V> patterns) {
+		final List<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+		final List<V> values = new ArrayList<V>();
+		trie.add(new HashMap<Character, Integer>());
+		values.add(null);
+		for (Map.Entry<String, V> pattern : patterns.entrySet()) {
+			int state = ROOT;
+			final String key = pattern.getKey();
+			for (int i = 0; i < key.length(); i++) {
+				Integer nextState = trie.get(state).get(key.charAt(i));
+				if (nextState == null) {
+					nextState = trie.size();
+					trie.add(new HashMap<Character, Integer>());
+					values.add(null);
+					trie.get(state).put(key.charAt(i), nextState);
+				}
+				state = nextState;
+			}
+			values.set(state, pattern.getValue());
+		}
+		return new PatternAutomaton<V>(trie, values);
+	}
+
+	private int transition(final int state, final char c) {
+		final int index = Arrays.binarySearch(this.transitionChars[state], c);
+		return index < 0 ? NO_STATE : this.transitionStates[state][index];
+	}
+
+	/**
+	 * Compute the failure and output states breadth first , The failure state
+	 * of a state is always closer to the root so it is already computed
+	 */
+	private void buildFailureStates() {
+		final Queue<Integer> states = new ArrayDeque<Integer>();
+		this.failureStates[ROOT] = ROOT;
+		this.outputStates[ROOT] = NO_STATE;
+		states.add(ROOT);
+		while (states.isEmpty() == false) {
+			final int state = states.remove();
+			final char[] chars = this.transitionChars[state];
+			for (int i = 0; i < chars.length; i++) {
+				final int nextState = this.transitionStates[state][i];
+				int failureState = NO_STATE;
+				if (state != ROOT) {
+					int fallback = this.failureStates[state];
+					while ((failureState = this.transition(fallback, chars[i])) == NO_STATE && fallback != ROOT) {
+						fallback = this.failureStates[fallback];
+					}
+				}
+				this.failureStates[nextState] = failureState == NO_STATE ? ROOT : failureState;
+				final int nextFailureState = this.failureStates[nextState];
+				this.outputStates[nextState] = this.stateValues[nextFailureState] != null ? nextFailureState
+						: this.outputStates[nextFailureState];
+				states.add(nextState);
+			}
+		}
+	}
+
+	/**
+	 * Find all the patterns in a line
+	 * 
+	 * @param line
+	 *            The line to scan
+	 * @param matchedValues
+	 *            The collection the values of the patterns found are added to
+	 */
+	@SuppressWarnings("unchecked")
+	public void collectMatches(final String line, final Collection<V> matchedValues) {
+		int state = ROOT;
+		for (int i = 0; i < line.length(); i++) {
+			final char c = line.charAt(i);
+			int nextState;
+			while ((nextState = this.transition(state, c)) == NO_STATE && state != ROOT) {
+				state = this.failureStates[state];
+			}
+			state = nextState == NO_STATE ? ROOT : nextState;
+			for (int output = this.stateValues[state] != null ? state
+					: this.outputStates[state]; output != NO_STATE; output = this.outputStates[output]) {
+				matchedValues.add((V) this.stateValues[output]);
+			}
+		}
+	}
+
+}
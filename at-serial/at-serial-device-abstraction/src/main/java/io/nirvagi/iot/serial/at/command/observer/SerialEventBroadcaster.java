@@ -0,0 +1,72 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.observer;
+
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nirvagi.iot.serial.SerialEvent;
+
+/**
+ * Streams every line received from a serial device to the subscribers (A
+ * streaming client for example) . Unlike a listen command the subscription
+ * does not end with the first match , The subscriber sees all the lines (that
+ * pass its prefix filter) for as long as it is subscribed
+ * 
+ * @author bharath
+ *
+ */
+public class SerialEventBroadcaster implements Observer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SerialEventBroadcaster.class);
+	private final List<SerialEventSubscriber> subscribers;
+
+	public SerialEventBroadcaster() {
+		this.subscribers = new CopyOnWriteArrayList<SerialEventSubscriber>();
+	}
+
+	public void subscribe(final SerialEventSubscriber subscriber) {
+		LOGGER.debug("Adding a serial event subscriber");
+		this.subscribers.add(subscriber);
+	}
+
+	public void unsubscribe(final SerialEventSubscriber subscriber) {
+		LOGGER.debug("Removing a serial event subscriber");
+		this.subscribers.remove(subscriber);
+	}
+
+	public int getSubscriberCount() {
+		return this.subscribers.size();
+	}
+
+	public void update(Observable o, Object arg) {
+		if (this.subscribers.isEmpty()) {
+			return;
+		}
+		for (String line : ((SerialEvent) arg).getLines()) {
+			for (SerialEventSubscriber subscriber : this.subscribers) {
+				if (subscriber.accepts(line)) {
+					subscriber.offer(line);
+				}
+			}
+		}
+	}
+
+}
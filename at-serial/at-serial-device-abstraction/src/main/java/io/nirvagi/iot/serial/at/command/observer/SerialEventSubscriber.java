@@ -0,0 +1,148 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.observer;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A consumer of the serial lines streamed by the
+ * {@link SerialEventBroadcaster} . Every subscriber has its own bounded
+ * buffer , When a slow subscriber lets its buffer fill up the lines are
+ * dropped as per its drop policy , The serial event thread never waits for a
+ * subscriber
+ * 
+ * A subscriber is either polled by a thread that waits for the lines , Or
+ * given a line listener that is told every time a line is buffered so that
+ * the lines can be drained without parking a thread on the subscriber
+ * 
+ * @author bharath
+ *
+ */
+public class SerialEventSubscriber {
+
+	/**
+	 * Enum representing what is dropped when the buffer of a subscriber is
+	 * full
+	 *
+	 */
+	public enum DropPolicy {
+		// Drop the oldest buffered line to make room for the new line
+		DROP_OLDEST,
+		// Drop the new line
+		DROP_NEWEST;
+	}
+
+	private final List<String> prefixes;
+	private final DropPolicy dropPolicy;
+	private final BlockingQueue<String> lineBuffer;
+	private final AtomicLong droppedLineCount;
+	private volatile Runnable lineListener;
+
+	/**
+	 * Build a subscriber
+	 * 
+	 * @param prefixes
+	 *            Only the lines starting with one of the prefixes are
+	 *            streamed to the subscriber , All the lines are streamed if
+	 *            empty
+	 * @param bufferSize
+	 *            The maximum number of lines buffered for the subscriber
+	 * @param dropPolicy
+	 *            What is dropped when the buffer is full
+	 */
+	public SerialEventSubscriber(final List<String> prefixes, final int bufferSize, final DropPolicy dropPolicy) {
+		this.prefixes = prefixes;
+		this.dropPolicy = dropPolicy;
+		this.lineBuffer = new ArrayBlockingQueue<String>(bufferSize);
+		this.droppedLineCount = new AtomicLong();
+	}
+
+	boolean accepts(final String line) {
+		if (this.prefixes.isEmpty()) {
+			return true;
+		}
+		for (String prefix : this.prefixes) {
+			if (line.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Buffer a line without waiting , Called from the serial event thread
+	 */
+	void offer(final String line) {
+		while (this.lineBuffer.offer(line) == false) {
+			if (this.dropPolicy == DropPolicy.DROP_NEWEST || this.lineBuffer.poll() == null) {
+				this.droppedLineCount.incrementAndGet();
+				return;
+			}
+			this.droppedLineCount.incrementAndGet();
+		}
+		final Runnable listener = this.lineListener;
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Set the listener that is run every time a line is buffered , The
+	 * listener is run on the serial event thread and must not block
+	 * 
+	 * @param lineListener
+	 *            The listener , or null to remove it
+	 */
+	public void setLineListener(final Runnable lineListener) {
+		this.lineListener = lineListener;
+	}
+
+	/**
+	 * Get the next line without waiting
+	 * 
+	 * @return The next line , or null if no line is buffered
+	 */
+	public String poll() {
+		return this.lineBuffer.poll();
+	}
+
+	/**
+	 * Wait for the next line
+	 * 
+	 * @param timeout
+	 *            The maximum time to wait
+	 * @param unit
+	 *            The unit of the timeout
+	 * @return The next line , or null if no line arrived within the timeout
+	 */
+	public String poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return this.lineBuffer.poll(timeout, unit);
+	}
+
+	/**
+	 * Get and reset the number of lines dropped
+	 * 
+	 * @return The number of lines dropped since the last call
+	 */
+	public long drainDroppedLineCount() {
+		return this.droppedLineCount.getAndSet(0);
+	}
+
+}
@@ -0,0 +1,123 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.ota;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Zigbee OTA upgrade image , Memory mapped from its file. The image is not
+ * read into the heap , The blocks are copied straight out of the mapping
+ * (backed by the page cache) as the nodes request them.
+ * 
+ * The manufacturer code , The image type and the file version are read from
+ * the OTA header at the start of the file (see the Zigbee OTA upgrade cluster
+ * specification , The header fields are little endian)
+ * 
+ * @author bharath
+ *
+ */
+public class OtaImage {
+	private static final int OTA_FILE_IDENTIFIER = 0x0BEEF11E;
+	private static final int MANUFACTURER_CODE_OFFSET = 10;
+	private static final int IMAGE_TYPE_OFFSET = 12;
+	private static final int FILE_VERSION_OFFSET = 14;
+	private static final int MIN_HEADER_LENGTH = 56;
+	private static final String NOT_AN_OTA_IMAGE_ERROR_MESSAGE = "The file %s is not a Zigbee OTA image";
+	private static final String IMAGE_TOO_LARGE_ERROR_MESSAGE = "The OTA image %s is too large";
+	private final String imagePath;
+	private final MappedByteBuffer imageBuffer;
+	private final int manufacturerCode;
+	private final int imageType;
+	private final long fileVersion;
+
+	private OtaImage(final String imagePath, final MappedByteBuffer imageBuffer) {
+		this.imagePath = imagePath;
+		this.imageBuffer = imageBuffer;
+		final ByteBuffer headerBuffer = imageBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (imageBuffer.capacity() < MIN_HEADER_LENGTH || headerBuffer.getInt(0) != OTA_FILE_IDENTIFIER) {
+			throw new IllegalArgumentException(String.format(NOT_AN_OTA_IMAGE_ERROR_MESSAGE, imagePath));
+		}
+		this.manufacturerCode = headerBuffer.getShort(MANUFACTURER_CODE_OFFSET) & 0xFFFF;
+		this.imageType = headerBuffer.getShort(IMAGE_TYPE_OFFSET) & 0xFFFF;
+		this.fileVersion = headerBuffer.getInt(FILE_VERSION_OFFSET) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Map an OTA image file
+	 * 
+	 * @param imagePath
+	 *            The path of the image file
+	 * @return The mapped image
+	 * @throws IOException
+	 *             If the file cannot be read
+	 */
+	public static OtaImage open(final String imagePath) throws IOException {
+		// The mapping stays valid once the channel is closed
+		try (FileChannel imageChannel = FileChannel.open(Paths.get(imagePath), StandardOpenOption.READ)) {
+			if (imageChannel.size() > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException(String.format(IMAGE_TOO_LARGE_ERROR_MESSAGE, imagePath));
+			}
+			return new OtaImage(imagePath, imageChannel.map(MapMode.READ_ONLY, 0, imageChannel.size()));
+		}
+	}
+
+	/**
+	 * Copy a block of the image
+	 * 
+	 * @param offset
+	 *            The offset of the block in the image
+	 * @param block
+	 *            The array the block is copied to
+	 * @param blockOffset
+	 *            The offset in the array
+	 * @param length
+	 *            The length of the block
+	 */
+	public void readBlock(final int offset, final byte[] block, final int blockOffset, final int length) {
+		// A duplicate has its own position , The image is shared by the device threads
+		final ByteBuffer blockBuffer = this.imageBuffer.duplicate();
+		blockBuffer.position(offset);
+		blockBuffer.get(block, blockOffset, length);
+	}
+
+	public String getImagePath() {
+		return imagePath;
+	}
+
+	public int getImageSize() {
+		return this.imageBuffer.capacity();
+	}
+
+	public int getManufacturerCode() {
+		return manufacturerCode;
+	}
+
+	public int getImageType() {
+		return imageType;
+	}
+
+	public long getFileVersion() {
+		return fileVersion;
+	}
+
+}
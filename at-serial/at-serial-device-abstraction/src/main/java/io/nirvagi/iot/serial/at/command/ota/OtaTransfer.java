@@ -0,0 +1,251 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.ota;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nirvagi.iot.serial.SerialEvent;
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.at.command.executor.CommandExecutor;
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.serial.command.ATSerialCommand;
+
+/**
+ * Serves an OTA image to the nodes of a device without a client round trip per
+ * block. The transfer observes the serial interface of the device , An image
+ * query (IMGQUERY) for the manufacturer code and the image type of the image
+ * is answered with the image (ZB_QIMGRSP) and every image block request
+ * (IMGBREQ) is answered with the requested block (ZB_IMGBRSP).
+ * 
+ * A block response is written as a raw command payload , The AT+IMGBRSP header
+ * (terminated with CR , It carries the block size) followed by the raw block.
+ * The block is copied straight from the memory mapped image into the payload ,
+ * Which is written to the port as is. The port takes a byte array , So this one
+ * copy out of the page cache is the only one.
+ * 
+ * The block responses go through the command queue of the device with a high
+ * priority and a deadline , So they are interleaved with the other commands.
+ * The window bounds the number of block responses queued or in flight , A
+ * block request arriving when the window is full is dropped (The node asks
+ * again once its request times out) so a burst of nodes does not flood the
+ * queue
+ * 
+ * @author bharath
+ *
+ */
+public class OtaTransfer implements Observer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(OtaTransfer.class);
+	private static final String IMAGE_QUERY_PREFIX = "IMGQUERY:";
+	private static final String BLOCK_REQUEST_PREFIX = "IMGBREQ:";
+	private static final String FIELD_SEPERATOR = ",";
+	private static final String BLOCK_RESPONSE_HEADER_FORMAT = "AT+IMGBRSP:%s,%s,%s,%04X,%04X,%08X,%08X,%02X\r";
+	private static final String STATUS_SUCCESS = "00";
+	private static final String STATUS_NO_IMAGE_AVAILABLE = "98";
+	// The block size is sent as a single byte
+	private static final int MAX_BLOCK_SIZE = 0xFF;
+	private static final int OTA_PRIORITY = 100;
+	// A node times out a block request within a few seconds
+	private static final long BLOCK_DEADLINE_MILLIS = 2000;
+	private static final double NANOS_PER_SECOND = 1e9;
+	private final OtaImage otaImage;
+	private final CommandExecutor commandExecutor;
+	private final Semaphore window;
+	private final LongAdder blocksServed = new LongAdder();
+	private final LongAdder bytesServed = new LongAdder();
+	private final LongAdder droppedBlockRequests = new LongAdder();
+	private final LongAdder failedBlocks = new LongAdder();
+	// The bytes of the image served to each node , That is the end of the furthest block
+	private final ConcurrentMap<String, Long> nodeBytesServed = new ConcurrentHashMap<String, Long>();
+	private final long startTimeNanos;
+
+	/**
+	 * Build a transfer , It starts serving once it observes the serial
+	 * interface of the device
+	 * 
+	 * @param otaImage
+	 *            The image to serve
+	 * @param commandExecutor
+	 *            The executor of the device
+	 * @param windowSize
+	 *            The maximum number of block responses queued or in flight
+	 */
+	public OtaTransfer(final OtaImage otaImage, final CommandExecutor commandExecutor, final int windowSize) {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("The OTA window size must be positive");
+		}
+		this.otaImage = otaImage;
+		this.commandExecutor = commandExecutor;
+		this.window = new Semaphore(windowSize);
+		this.startTimeNanos = System.nanoTime();
+	}
+
+	private CommandRequest buildCommandRequest(final ATSerialCommand command) {
+		final CommandRequest commandRequest = new CommandRequest();
+		// The definition of the command may have been replaced
+		commandRequest.setCommand(CommandRegistry.getDefault().getCommand(command.name()));
+		commandRequest.setPriority(OTA_PRIORITY);
+		commandRequest.setDeadlineMillis(BLOCK_DEADLINE_MILLIS);
+		return commandRequest;
+	}
+
+	private boolean isImageOffered(final String[] fields) {
+		return Integer.parseInt(fields[3], 16) == this.otaImage.getManufacturerCode()
+				&& Integer.parseInt(fields[4], 16) == this.otaImage.getImageType();
+	}
+
+	/**
+	 * Answer an image query of the form
+	 * IMGQUERY:&lt;NodeId&gt;,&lt;EP&gt;,&lt;FieldControl&gt;,&lt;ManufCode&gt;,&lt;ImageType&gt;,&lt;FileVersion&gt;
+	 */
+	private void handleImageQuery(final String[] fields) {
+		final CommandRequest commandRequest = this.buildCommandRequest(ATSerialCommand.ZB_QIMGRSP);
+		if (this.isImageOffered(fields) && Long.parseLong(fields[5], 16) != this.otaImage.getFileVersion()) {
+			LOGGER.debug("Offering the image {} to the node {}", this.otaImage.getImagePath(), fields[0]);
+			commandRequest.setCommandParameters(Arrays.asList(fields[0], fields[1], STATUS_SUCCESS,
+					String.format("%04X", this.otaImage.getManufacturerCode()),
+					String.format("%04X", this.otaImage.getImageType()),
+					String.format("%08X", this.otaImage.getFileVersion()),
+					String.format("%08X", this.otaImage.getImageSize())));
+		} else {
+			commandRequest.setCommandParameters(Arrays.asList(fields[0], fields[1], STATUS_NO_IMAGE_AVAILABLE));
+		}
+		this.commandExecutor.executeAsync(commandRequest);
+	}
+
+	/**
+	 * Answer an image block request of the form
+	 * IMGBREQ:&lt;NodeId&gt;,&lt;EP&gt;,&lt;FieldControl&gt;,&lt;ManufCode&gt;,&lt;ImageType&gt;,&lt;FileVersion&gt;,&lt;FileOffset&gt;,&lt;MaxDataSize&gt;
+	 */
+	private void handleBlockRequest(final String[] fields) {
+		final int offset = Integer.parseInt(fields[6], 16);
+		if (this.isImageOffered(fields) == false || Long.parseLong(fields[5], 16) != this.otaImage.getFileVersion()
+				|| offset < 0 || offset >= this.otaImage.getImageSize()) {
+			LOGGER.debug("Ignoring the block request of the node {} for another image", fields[0]);
+			return;
+		}
+		if (this.window.tryAcquire() == false) {
+			this.droppedBlockRequests.increment();
+			return;
+		}
+		final String nodeId = fields[0];
+		final int blockSize = Math.min(Math.min(Integer.parseInt(fields[7], 16), MAX_BLOCK_SIZE),
+				this.otaImage.getImageSize() - offset);
+		final byte[] header = String.format(BLOCK_RESPONSE_HEADER_FORMAT, nodeId, fields[1], STATUS_SUCCESS,
+				this.otaImage.getManufacturerCode(), this.otaImage.getImageType(), this.otaImage.getFileVersion(),
+				offset, blockSize).getBytes(StandardCharsets.US_ASCII);
+		final byte[] commandPayload = Arrays.copyOf(header, header.length + blockSize);
+		this.otaImage.readBlock(offset, commandPayload, header.length, blockSize);
+		final CommandRequest commandRequest = this.buildCommandRequest(ATSerialCommand.ZB_IMGBRSP);
+		commandRequest.setCommandPayload(commandPayload);
+		this.commandExecutor.executeAsync(commandRequest)
+				.whenComplete((commandResult, err) -> this.blockCompleted(nodeId, offset, blockSize, commandResult, err));
+	}
+
+	private void blockCompleted(final String nodeId, final int offset, final int blockSize,
+			final CommandResult commandResult, final Throwable err) {
+		this.window.release();
+		if (err != null || commandResult.getCommandStatus() != CommandStatus.SUCCESS) {
+			this.failedBlocks.increment();
+			return;
+		}
+		this.blocksServed.increment();
+		this.bytesServed.add(blockSize);
+		this.nodeBytesServed.merge(nodeId, (long) offset + blockSize, Math::max);
+	}
+
+	public void update(Observable o, Object arg) {
+		final List<String> lines = ((SerialEvent) arg).getLines();
+		for (String line : lines) {
+			final boolean isBlockRequest = line.startsWith(BLOCK_REQUEST_PREFIX);
+			if (isBlockRequest == false && line.startsWith(IMAGE_QUERY_PREFIX) == false) {
+				continue;
+			}
+			final String[] fields = line.substring(line.indexOf(':') + 1).split(FIELD_SEPERATOR);
+			try {
+				if (isBlockRequest && fields.length >= 8) {
+					this.handleBlockRequest(fields);
+				} else if (isBlockRequest == false && fields.length >= 6) {
+					this.handleImageQuery(fields);
+				}
+			} catch (NumberFormatException err) {
+				LOGGER.debug("Ignoring the malformed OTA request {}", line);
+			}
+		}
+	}
+
+	public OtaImage getOtaImage() {
+		return otaImage;
+	}
+
+	public long getBlocksServed() {
+		return this.blocksServed.sum();
+	}
+
+	public long getBytesServed() {
+		return this.bytesServed.sum();
+	}
+
+	public long getDroppedBlockRequests() {
+		return this.droppedBlockRequests.sum();
+	}
+
+	public long getFailedBlocks() {
+		return this.failedBlocks.sum();
+	}
+
+	/**
+	 * Get a snapshot of the progress of the transfer
+	 * 
+	 * @return The progress
+	 */
+	public OtaTransferProgress getProgress() {
+		final OtaTransferProgress progress = new OtaTransferProgress();
+		progress.setImagePath(this.otaImage.getImagePath());
+		progress.setImageSize(this.otaImage.getImageSize());
+		progress.setBlocksServed(this.getBlocksServed());
+		progress.setBytesServed(this.getBytesServed());
+		progress.setDroppedBlockRequests(this.getDroppedBlockRequests());
+		progress.setFailedBlocks(this.getFailedBlocks());
+		progress.setBytesPerSecond(progress.getBytesServed() * NANOS_PER_SECOND
+				/ Math.max(1, System.nanoTime() - this.startTimeNanos));
+		final Map<String, Long> nodeBytesServed = new TreeMap<String, Long>(this.nodeBytesServed);
+		int completedNodes = 0;
+		for (Long nodeBytes : nodeBytesServed.values()) {
+			if (nodeBytes.longValue() == this.otaImage.getImageSize()) {
+				completedNodes++;
+			}
+		}
+		progress.setCompletedNodes(completedNodes);
+		progress.setNodeBytesServed(nodeBytesServed);
+		return progress;
+	}
+
+}
@@ -0,0 +1,94 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.ota;
+
+import java.util.Map;
+
+/**
+ * A holder representing the progress of an OTA transfer , The bytes served to
+ * each node are keyed by the node id
+ * 
+ * @author bharath
+ *
+ */
+public class OtaTransferProgress {
+	private String imagePath;
+	private int imageSize;
+	private long blocksServed;
+	private long bytesServed;
+	// Block requests dropped because the window was full
+	private long droppedBlockRequests;
+	private long failedBlocks;
+	private double bytesPerSecond;
+	private int completedNodes;
+	private Map<String, Long> nodeBytesServed;
+
+	public String getImagePath() {
+		return imagePath;
+	}
+	public void setImagePath(String imagePath) {
+		this.imagePath = imagePath;
+	}
+	public int getImageSize() {
+		return imageSize;
+	}
+	public void setImageSize(int imageSize) {
+		this.imageSize = imageSize;
+	}
+	public long getBlocksServed() {
+		return blocksServed;
+	}
+	public void setBlocksServed(long blocksServed) {
+		this.blocksServed = blocksServed;
+	}
+	public long getBytesServed() {
+		return bytesServed;
+	}
+	public void setBytesServed(long bytesServed) {
+		this.bytesServed = bytesServed;
+	}
+	public long getDroppedBlockRequests() {
+		return droppedBlockRequests;
+	}
+	public void setDroppedBlockRequests(long droppedBlockRequests) {
+		this.droppedBlockRequests = droppedBlockRequests;
+	}
+	public long getFailedBlocks() {
+		return failedBlocks;
+	}
+	public void setFailedBlocks(long failedBlocks) {
+		this.failedBlocks = failedBlocks;
+	}
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+	public void setBytesPerSecond(double bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+	public int getCompletedNodes() {
+		return completedNodes;
+	}
+	public void setCompletedNodes(int completedNodes) {
+		this.completedNodes = completedNodes;
+	}
+	public Map<String, Long> getNodeBytesServed() {
+		return nodeBytesServed;
+	}
+	public void setNodeBytesServed(Map<String, Long> nodeBytesServed) {
+		this.nodeBytesServed = nodeBytesServed;
+	}
+
+}
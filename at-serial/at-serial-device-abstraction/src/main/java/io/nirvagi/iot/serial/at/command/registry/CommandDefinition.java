@@ -0,0 +1,117 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.registry;
+
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * A holder representing a command defined in the command definitions file
+ * (see {@link CommandRegistry}) , The fields that are left out take the
+ * defaults of the built in commands
+ * 
+ * @author bharath
+ *
+ */
+public class CommandDefinition implements SerialCommand {
+	// The Telegesis module answers a query within tens of milliseconds
+	private static final int DEFAULT_TIMEOUT_IN_MILLIS = 500;
+	private static final String DEFAULT_SEPARATOR = ":";
+	// The name the command is requested with (ZB_ATI for example)
+	private String name;
+	// The command written to the device (ATI for example)
+	private String commandName;
+	private CommandType commandType = CommandType.SEND;
+	private int commandTimeoutMillis = DEFAULT_TIMEOUT_IN_MILLIS;
+	private String commandExpectedOutput;
+	private String commandSeparator = DEFAULT_SEPARATOR;
+	private MatchType commandMatchType = MatchType.CONTAINS;
+	// 0 if the results are never cached
+	private int commandCacheTtlSeconds;
+	private boolean commandCoalescable;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getCommandName() {
+		return commandName;
+	}
+
+	public void setCommandName(String commandName) {
+		this.commandName = commandName;
+	}
+
+	public CommandType getCommandType() {
+		return commandType;
+	}
+
+	public void setCommandType(CommandType commandType) {
+		this.commandType = commandType;
+	}
+
+	public int getCommandTimeoutMillis() {
+		return commandTimeoutMillis;
+	}
+
+	public void setCommandTimeoutMillis(int commandTimeoutMillis) {
+		this.commandTimeoutMillis = commandTimeoutMillis;
+	}
+
+	public String getCommandExpectedOutout() {
+		return commandExpectedOutput;
+	}
+
+	public void setCommandExpectedOutput(String commandExpectedOutput) {
+		this.commandExpectedOutput = commandExpectedOutput;
+	}
+
+	public String getCommandSeperator() {
+		return commandSeparator;
+	}
+
+	public void setCommandSeparator(String commandSeparator) {
+		this.commandSeparator = commandSeparator;
+	}
+
+	public MatchType getCommandMatchType() {
+		return commandMatchType;
+	}
+
+	public void setCommandMatchType(MatchType commandMatchType) {
+		this.commandMatchType = commandMatchType;
+	}
+
+	public int getCommandCacheTtlSeconds() {
+		return commandCacheTtlSeconds;
+	}
+
+	public void setCommandCacheTtlSeconds(int commandCacheTtlSeconds) {
+		this.commandCacheTtlSeconds = commandCacheTtlSeconds;
+	}
+
+	public boolean isCommandCoalescable() {
+		return commandCoalescable;
+	}
+
+	public void setCommandCoalescable(boolean commandCoalescable) {
+		this.commandCoalescable = commandCoalescable;
+	}
+
+}
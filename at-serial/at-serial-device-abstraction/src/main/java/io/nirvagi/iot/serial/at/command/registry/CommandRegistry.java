@@ -0,0 +1,406 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.registry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import io.nirvagi.iot.serial.at.command.matcher.ResponseMatcher;
+import io.nirvagi.serial.command.ATSerialCommand;
+import io.nirvagi.serial.command.SerialCommand;
+import io.nirvagi.serial.command.SerialCommand.CommandType;
+
+/**
+ * The commands the agent can send , Looked up by name in constant time. The
+ * registry holds the built in commands of {@link ATSerialCommand} and the
+ * commands of a definitions file , A definition of the file replaces the
+ * built in command of the same name. The definitions file is a JSON array of
+ * {@link CommandDefinition} , For example
+ * 
+ * <pre>
+ * [{"name": "ZB_PANSCAN", "commandName": "AT+PANSCAN", "commandTimeoutMillis": 8000,
+ *   "commandExpectedOutput": "+PANSCAN", "commandMatchType": "PREFIX"}]
+ * </pre>
+ * 
+ * Every definition is compiled into a {@link RegisteredCommand} when it is
+ * loaded. The definitions file can be reloaded while the agent runs (And is
+ * reloaded whenever it changes once the registry watches it) , The commands
+ * in flight and the parked listen commands keep the definition they were
+ * requested with. A file that cannot be read or holds an invalid definition
+ * is rejected as a whole , The registry keeps the commands it had
+ * 
+ * Every name gets an id the first time it is registered (The built in
+ * commands get their ordinals) , The id of a name does not change while the
+ * agent runs and is not given to another name
+ * 
+ * @author bharath
+ *
+ */
+public final class CommandRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CommandRegistry.class);
+	private static final String WATCHER_THREAD_NAME = "command-registry-watcher";
+	// The writes of an editor saving the file are reloaded once
+	private static final long RELOAD_SETTLE_MILLIS = 100;
+	private static final String MALFORMED_FILE_ERROR_MESSAGE = "The command definitions file %s is malformed , %s";
+	private static final String INVALID_DEFINITION_ERROR_MESSAGE = "The definition of the command %s is invalid , %s";
+	private static final String NAME_NOT_SET_ERROR_MESSAGE = "A command definition has no name";
+	private static final String DUPLICATE_NAME_ERROR_MESSAGE = "The command %s is defined more than once";
+	private static final String NO_DEFINITIONS_FILE_ERROR_MESSAGE = "No command definitions file is loaded";
+	private static final CommandRegistry DEFAULT_REGISTRY = new CommandRegistry();
+	private final Gson gson = new Gson();
+	// Guarded by this
+	private final Map<String, Integer> commandIds = new HashMap<String, Integer>();
+	private Path definitionsFile;
+	private WatchService watchService;
+	private volatile Commands commands;
+
+	/**
+	 * The compiled commands , Replaced as a whole by a reload
+	 */
+	private static final class Commands {
+		private final Map<String, RegisteredCommand> commandsByName;
+		private final RegisteredCommand[] commandsById;
+		// Longest command name first
+		private final RegisteredCommand[] sendCommands;
+
+		Commands(final Map<String, RegisteredCommand> commandsByName, final int commandIdCount) {
+			this.commandsByName = Collections.unmodifiableMap(commandsByName);
+			this.commandsById = new RegisteredCommand[commandIdCount];
+			final List<RegisteredCommand> sendCommands = new ArrayList<RegisteredCommand>();
+			for (RegisteredCommand command : commandsByName.values()) {
+				this.commandsById[command.getCommandId()] = command;
+				if (command.getCommandType() == CommandType.SEND) {
+					sendCommands.add(command);
+				}
+			}
+			this.sendCommands = sendCommands.toArray(new RegisteredCommand[sendCommands.size()]);
+			Arrays.sort(this.sendCommands, (command, otherCommand) -> Integer
+					.compare(otherCommand.getCommandName().length(), command.getCommandName().length()));
+		}
+	}
+
+	/**
+	 * Build a registry of the built in commands
+	 */
+	public CommandRegistry() {
+		for (ATSerialCommand command : ATSerialCommand.values()) {
+			this.commandIds.put(command.name(), command.ordinal());
+		}
+		this.commands = this.compile(Collections.<CommandDefinition>emptyList());
+	}
+
+	/**
+	 * @return The registry the agent resolves the command names with
+	 */
+	public static CommandRegistry getDefault() {
+		return DEFAULT_REGISTRY;
+	}
+
+	private static void validate(final CommandDefinition definition) {
+		String error = null;
+		if (definition.getCommandName() == null || definition.getCommandName().isEmpty()) {
+			error = "The command name is not set";
+		} else if (definition.getCommandType() == null) {
+			error = "The command type must be SEND or LISTEN";
+		} else if (definition.getCommandMatchType() == null) {
+			error = "The match type must be PREFIX , CONTAINS or REGEX";
+		} else if (definition.getCommandExpectedOutout() == null) {
+			error = "The expected output is not set";
+		} else if (definition.getCommandSeperator() == null) {
+			error = "The separator cannot be null";
+		} else if (definition.getCommandTimeoutMillis() <= 0) {
+			error = "The timeout must be positive";
+		} else if (definition.getCommandCacheTtlSeconds() < 0) {
+			error = "The cache ttl cannot be negative";
+		}
+		if (error != null) {
+			throw new IllegalArgumentException(String.format(INVALID_DEFINITION_ERROR_MESSAGE, definition.getName(), error));
+		}
+	}
+
+	/**
+	 * Compile the built in commands and the definitions , The commands whose
+	 * definition did not change are kept as they are
+	 */
+	private synchronized Commands compile(final List<CommandDefinition> definitions) {
+		final Map<String, SerialCommand> definitionsByName = new LinkedHashMap<String, SerialCommand>();
+		for (ATSerialCommand command : ATSerialCommand.values()) {
+			definitionsByName.put(command.name(), command);
+		}
+		final Map<String, SerialCommand> fileDefinitions = new HashMap<String, SerialCommand>();
+		for (CommandDefinition definition : definitions) {
+			if (definition == null || definition.getName() == null || definition.getName().isEmpty()) {
+				throw new IllegalArgumentException(NAME_NOT_SET_ERROR_MESSAGE);
+			}
+			if (fileDefinitions.put(definition.getName(), definition) != null) {
+				throw new IllegalArgumentException(String.format(DUPLICATE_NAME_ERROR_MESSAGE, definition.getName()));
+			}
+			validate(definition);
+			definitionsByName.put(definition.getName(), definition);
+		}
+		final Map<String, RegisteredCommand> previousCommands = this.commands == null
+				? Collections.<String, RegisteredCommand>emptyMap()
+				: this.commands.commandsByName;
+		final Map<String, RegisteredCommand> commandsByName = new HashMap<String, RegisteredCommand>();
+		int nextCommandId = this.commandIds.size();
+		for (Map.Entry<String, SerialCommand> definition : definitionsByName.entrySet()) {
+			final RegisteredCommand previousCommand = previousCommands.get(definition.getKey());
+			if (previousCommand != null && previousCommand.isDefinedAs(definition.getValue())) {
+				commandsByName.put(definition.getKey(), previousCommand);
+				continue;
+			}
+			Integer commandId = this.commandIds.get(definition.getKey());
+			if (commandId == null) {
+				commandId = nextCommandId++;
+			}
+			try {
+				commandsByName.put(definition.getKey(),
+						new RegisteredCommand(commandId, definition.getKey(), definition.getValue()));
+			} catch (IllegalArgumentException err) {
+				// An expected output that is not a valid regular expression
+				throw new IllegalArgumentException(
+						String.format(INVALID_DEFINITION_ERROR_MESSAGE, definition.getKey(), err.getMessage()));
+			}
+		}
+		// The ids are given once every definition compiled
+		for (String name : commandsByName.keySet()) {
+			if (this.commandIds.containsKey(name) == false) {
+				this.commandIds.put(name, commandsByName.get(name).getCommandId());
+			}
+		}
+		return new Commands(commandsByName, this.commandIds.size());
+	}
+
+	private List<CommandDefinition> readDefinitions(final Path definitionsFile) throws IOException {
+		try (Reader reader = Files.newBufferedReader(definitionsFile, StandardCharsets.UTF_8)) {
+			final CommandDefinition[] definitions = this.gson.fromJson(reader, CommandDefinition[].class);
+			return definitions == null ? Collections.<CommandDefinition>emptyList() : Arrays.asList(definitions);
+		} catch (JsonParseException err) {
+			throw new IllegalArgumentException(String.format(MALFORMED_FILE_ERROR_MESSAGE, definitionsFile,
+					err.getMessage()));
+		}
+	}
+
+	/**
+	 * Load the commands of a definitions file , In place of the commands of
+	 * the file loaded before
+	 * 
+	 * @param definitionsFile
+	 *            The definitions file
+	 * @throws IOException
+	 *             If the file cannot be read
+	 * @throws IllegalArgumentException
+	 *             If the file is malformed or holds an invalid definition , The
+	 *             registry is left as it was
+	 */
+	public synchronized void load(final Path definitionsFile) throws IOException {
+		final Commands loadedCommands = this.compile(this.readDefinitions(definitionsFile));
+		this.commands = loadedCommands;
+		this.definitionsFile = definitionsFile;
+		LOGGER.info("Loaded {} commands from {}", loadedCommands.commandsByName.size(), definitionsFile);
+	}
+
+	/**
+	 * Load the definitions file again
+	 * 
+	 * @throws IOException
+	 *             If the file cannot be read
+	 * @throws IllegalArgumentException
+	 *             If the file is malformed or holds an invalid definition , The
+	 *             registry is left as it was
+	 */
+	public synchronized void reload() throws IOException {
+		if (this.definitionsFile == null) {
+			throw new IllegalStateException(NO_DEFINITIONS_FILE_ERROR_MESSAGE);
+		}
+		this.load(this.definitionsFile);
+	}
+
+	private void reloadChangedFile() {
+		try {
+			this.reload();
+		} catch (IOException | IllegalArgumentException err) {
+			LOGGER.error("Unable to reload the command definitions , Keeping the current commands : {}",
+					err.getMessage());
+		}
+	}
+
+	private void watch(final WatchService watchService, final Path fileName) {
+		try {
+			while (true) {
+				WatchKey watchKey = watchService.take();
+				boolean changed = false;
+				// Wait for the writes of the file to settle before reading it
+				while (watchKey != null) {
+					for (WatchEvent<?> event : watchKey.pollEvents()) {
+						changed |= fileName.equals(event.context());
+					}
+					watchKey.reset();
+					watchKey = changed ? watchService.poll(RELOAD_SETTLE_MILLIS, TimeUnit.MILLISECONDS) : null;
+				}
+				if (changed) {
+					this.reloadChangedFile();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException err) {
+			LOGGER.debug("Stopped watching the command definitions");
+		}
+	}
+
+	/**
+	 * Reload the definitions file whenever it changes , Until
+	 * {@link #stopWatching()} is called
+	 * 
+	 * @throws IOException
+	 *             If the directory of the file cannot be watched
+	 */
+	public synchronized void startWatching() throws IOException {
+		if (this.definitionsFile == null) {
+			throw new IllegalStateException(NO_DEFINITIONS_FILE_ERROR_MESSAGE);
+		}
+		if (this.watchService != null) {
+			return;
+		}
+		final Path definitionsFile = this.definitionsFile.toAbsolutePath();
+		final WatchService watchService = definitionsFile.getFileSystem().newWatchService();
+		definitionsFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		final Thread watcherThread = new Thread(() -> this.watch(watchService, definitionsFile.getFileName()),
+				WATCHER_THREAD_NAME);
+		watcherThread.setDaemon(true);
+		watcherThread.start();
+		this.watchService = watchService;
+	}
+
+	/**
+	 * Stop reloading the definitions file when it changes
+	 */
+	public synchronized void stopWatching() {
+		if (this.watchService == null) {
+			return;
+		}
+		try {
+			this.watchService.close();
+		} catch (IOException err) {
+			LOGGER.warn("Unable to close the watch service of the command definitions", err);
+		}
+		this.watchService = null;
+	}
+
+	/**
+	 * Find a command by its name
+	 * 
+	 * @param name
+	 *            The name of the command (ZB_ATI for example)
+	 * @return The command , or null if no command has the name
+	 */
+	public RegisteredCommand getCommand(final String name) {
+		return this.commands.commandsByName.get(name);
+	}
+
+	/**
+	 * Find a command by its id
+	 * 
+	 * @param commandId
+	 *            The id of the command
+	 * @return The command , or null if no command has the id
+	 */
+	public RegisteredCommand getCommand(final int commandId) {
+		final RegisteredCommand[] commandsById = this.commands.commandsById;
+		return commandId < 0 || commandId >= commandsById.length ? null : commandsById[commandId];
+	}
+
+	/**
+	 * Find the id of a command , A built in command has the id of its ordinal
+	 * 
+	 * @param command
+	 *            The command
+	 * @return The command id , or -1 if the command is not registered
+	 */
+	public int getCommandId(final SerialCommand command) {
+		if (command instanceof RegisteredCommand) {
+			return ((RegisteredCommand) command).getCommandId();
+		}
+		if (command instanceof ATSerialCommand) {
+			return ((ATSerialCommand) command).ordinal();
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the compiled expected output of a command , A registered command
+	 * carries the matcher compiled when it was registered (So a reloaded
+	 * definition is never matched with a stale matcher). Any other command is
+	 * compiled once and cached by {@link ResponseMatcher#forCommand}
+	 * 
+	 * @param command
+	 *            The command
+	 * @return The compiled matcher
+	 */
+	public static ResponseMatcher getResponseMatcher(final SerialCommand command) {
+		if (command instanceof RegisteredCommand) {
+			return ((RegisteredCommand) command).getResponseMatcher();
+		}
+		return ResponseMatcher.forCommand(command);
+	}
+
+	/**
+	 * Find the send command a write to the device starts with
+	 * 
+	 * @param data
+	 *            The written bytes
+	 * @return The command with the longest matching command name , or null
+	 */
+	public RegisteredCommand findSendCommand(final byte[] data) {
+		for (RegisteredCommand command : this.commands.sendCommands) {
+			if (command.isWrittenIn(data)) {
+				return command;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The registered commands
+	 */
+	public Collection<RegisteredCommand> getCommands() {
+		return this.commands.commandsByName.values();
+	}
+
+}
@@ -0,0 +1,185 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.at.command.registry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+import io.nirvagi.iot.serial.at.command.matcher.ResponseMatcher;
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * A command of the {@link CommandRegistry} , Compiled once when it is
+ * registered. The command prefix (The command name and the separator written
+ * ahead of the parameters) is encoded and the expected output is compiled
+ * into a {@link ResponseMatcher} , Nothing is derived from the definition
+ * when the command is sent
+ * 
+ * A registered command is identified by its name , A definition that is
+ * changed by a reload is the same command (The metrics and the latency
+ * estimates of the command carry over). The cached results and the coalesced
+ * requests are kept per definition
+ * 
+ * @author bharath
+ *
+ */
+public final class RegisteredCommand implements SerialCommand {
+	private final int commandId;
+	private final String name;
+	private final String commandName;
+	private final CommandType commandType;
+	private final int commandTimeoutMillis;
+	private final String commandExpectedOutput;
+	private final String commandSeperator;
+	private final MatchType commandMatchType;
+	private final int commandCacheTtlSeconds;
+	private final boolean commandCoalescable;
+	private final byte[] commandPrefix;
+	private final int commandNameLength;
+	private final ResponseMatcher responseMatcher;
+
+	RegisteredCommand(final int commandId, final String name, final SerialCommand definition) {
+		this.commandId = commandId;
+		this.name = name;
+		this.commandName = definition.getCommandName();
+		this.commandType = definition.getCommandType();
+		this.commandTimeoutMillis = definition.getCommandTimeoutMillis();
+		this.commandExpectedOutput = definition.getCommandExpectedOutout();
+		this.commandSeperator = definition.getCommandSeperator();
+		this.commandMatchType = definition.getCommandMatchType();
+		this.commandCacheTtlSeconds = definition.getCommandCacheTtlSeconds();
+		this.commandCoalescable = definition.isCommandCoalescable();
+		final byte[] commandNameBytes = this.commandName.getBytes(StandardCharsets.US_ASCII);
+		final byte[] commandSeperatorBytes = this.commandSeperator.trim().getBytes(StandardCharsets.US_ASCII);
+		this.commandPrefix = Arrays.copyOf(commandNameBytes, commandNameBytes.length + commandSeperatorBytes.length);
+		System.arraycopy(commandSeperatorBytes, 0, this.commandPrefix, commandNameBytes.length,
+				commandSeperatorBytes.length);
+		this.commandNameLength = commandNameBytes.length;
+		this.responseMatcher = ResponseMatcher.compile(this.commandExpectedOutput, this.commandMatchType);
+	}
+
+	/**
+	 * Check whether a definition would compile to this command
+	 */
+	boolean isDefinedAs(final SerialCommand definition) {
+		return this.commandName.equals(definition.getCommandName())
+				&& this.commandType == definition.getCommandType()
+				&& this.commandTimeoutMillis == definition.getCommandTimeoutMillis()
+				&& this.commandExpectedOutput.equals(definition.getCommandExpectedOutout())
+				&& this.commandSeperator.equals(definition.getCommandSeperator())
+				&& this.commandMatchType == definition.getCommandMatchType()
+				&& this.commandCacheTtlSeconds == definition.getCommandCacheTtlSeconds()
+				&& this.commandCoalescable == definition.isCommandCoalescable();
+	}
+
+	/**
+	 * @return The id of the command , The id of a name never changes while the
+	 *         agent runs and the built in commands have the ids of their
+	 *         ordinals
+	 */
+	public int getCommandId() {
+		return commandId;
+	}
+
+	/**
+	 * @return The name the command is requested with (ZB_ATI for example)
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public String getCommandName() {
+		return commandName;
+	}
+
+	public int getCommandTimeoutMillis() {
+		return commandTimeoutMillis;
+	}
+
+	public String getCommandExpectedOutout() {
+		return commandExpectedOutput;
+	}
+
+	public String getCommandSeperator() {
+		return commandSeperator;
+	}
+
+	public CommandType getCommandType() {
+		return commandType;
+	}
+
+	public MatchType getCommandMatchType() {
+		return commandMatchType;
+	}
+
+	public int getCommandCacheTtlSeconds() {
+		return commandCacheTtlSeconds;
+	}
+
+	public boolean isCommandCoalescable() {
+		return commandCoalescable;
+	}
+
+	public byte[] getCommandPrefix() {
+		return commandPrefix;
+	}
+
+	/**
+	 * @return The compiled expected output
+	 */
+	public ResponseMatcher getResponseMatcher() {
+		return responseMatcher;
+	}
+
+	/**
+	 * Check whether a write to the device starts with the command name
+	 * 
+	 * @param data
+	 *            The written bytes
+	 * @return true if the data starts with the command name
+	 */
+	public boolean isWrittenIn(final byte[] data) {
+		if (data.length < this.commandNameLength) {
+			return false;
+		}
+		for (int i = 0; i < this.commandNameLength; i++) {
+			if (data[i] != this.commandPrefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof RegisteredCommand == false) {
+			return false;
+		}
+		return this.name.equals(((RegisteredCommand) other).name);
+	}
+
+	public int hashCode() {
+		return Objects.hashCode(this.name);
+	}
+
+	public String toString() {
+		return this.name;
+	}
+
+}
@@ -0,0 +1,80 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.journal;
+
+import io.nirvagi.iot.serial.journal.TrafficJournal.Direction;
+
+/**
+ * A holder representing a chunk of traffic read from a journal
+ * 
+ * @author bharath
+ *
+ */
+public class JournalRecord {
+	private final String portId;
+	private final long recordingEpochMillis;
+	private final Direction direction;
+	private final long timestampNanos;
+	private final long timestampEpochMillis;
+	private final byte[] data;
+
+	public JournalRecord(final String portId, final long recordingEpochMillis, final Direction direction,
+			final long timestampNanos, final long timestampEpochMillis, final byte[] data) {
+		this.portId = portId;
+		this.recordingEpochMillis = recordingEpochMillis;
+		this.direction = direction;
+		this.timestampNanos = timestampNanos;
+		this.timestampEpochMillis = timestampEpochMillis;
+		this.data = data;
+	}
+
+	public String getPortId() {
+		return portId;
+	}
+
+	/**
+	 * @return The wall clock time the recording started at , The records of
+	 *         a recording share it
+	 */
+	public long getRecordingEpochMillis() {
+		return recordingEpochMillis;
+	}
+
+	public Direction getDirection() {
+		return direction;
+	}
+
+	/**
+	 * @return The monotonic time (System.nanoTime of the recording agent) the
+	 *         chunk crossed the wire , Only comparable within a recording
+	 */
+	public long getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	/**
+	 * @return The wall clock time the chunk crossed the wire , Derived from
+	 *         the clocks recorded at the start of its segment
+	 */
+	public long getTimestampEpochMillis() {
+		return timestampEpochMillis;
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+}
@@ -0,0 +1,185 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.journal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.executor.CommandExecutor;
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.iot.serial.simulator.SimulatedSerialInterface;
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * Replays a recorded journal (see {@link TrafficJournal}) through a simulated
+ * device , To reproduce the load seen in the field. The records are replayed
+ * with their recorded spacing divided by the speed factor (1 for the original
+ * speed , Infinity for as fast as possible).
+ * 
+ * The recorded RX chunks are injected as the output of the simulated device ,
+ * So every observer of the device sees the recorded traffic. When an executor
+ * is given the recorded TX writes are sent again through it , As raw command
+ * payloads of the send command they start with , While the simulated device
+ * stays silent and the recorded responses answer them. The cacheable commands
+ * are served from the cache as they would be live , TX writes that do not
+ * start with a known send command are skipped
+ * 
+ * @author bharath
+ *
+ */
+public class JournalReplay {
+	private static final Logger LOGGER = LoggerFactory.getLogger(JournalReplay.class);
+	private static final String REPLAY_THREAD_NAME = "journal-replay-%s";
+	private final Path journalDirectory;
+	private final String portId;
+	private final SimulatedSerialInterface serialInterface;
+	private final CommandExecutor commandExecutor;
+	private final double speedFactor;
+	private final LongAdder replayedRecords = new LongAdder();
+	private final LongAdder skippedRecords = new LongAdder();
+	private volatile boolean stopped;
+
+	/**
+	 * Build a replay
+	 * 
+	 * @param journalDirectory
+	 *            The directory of the journal segments
+	 * @param portId
+	 *            The id of the recorded port
+	 * @param serialInterface
+	 *            The simulated device the RX chunks are injected into
+	 * @param commandExecutor
+	 *            The executor the TX writes are sent through , null to replay
+	 *            only the RX chunks
+	 * @param speedFactor
+	 *            The replay speed relative to the recording
+	 */
+	public JournalReplay(final Path journalDirectory, final String portId,
+			final SimulatedSerialInterface serialInterface, final CommandExecutor commandExecutor,
+			final double speedFactor) {
+		if (speedFactor <= 0) {
+			throw new IllegalArgumentException("The replay speed factor must be positive");
+		}
+		this.journalDirectory = journalDirectory;
+		this.portId = portId;
+		this.serialInterface = serialInterface;
+		this.commandExecutor = commandExecutor;
+		this.speedFactor = speedFactor;
+	}
+
+	private void replayRecord(final JournalRecord record) {
+		switch (record.getDirection()) {
+		case RX:
+			this.serialInterface.injectUnsolicited(record.getData());
+			break;
+		case TX:
+			final SerialCommand command = this.commandExecutor == null ? null
+					: CommandRegistry.getDefault().findSendCommand(record.getData());
+			if (command == null) {
+				this.skippedRecords.increment();
+				return;
+			}
+			final CommandRequest commandRequest = new CommandRequest();
+			commandRequest.setCommand(command);
+			commandRequest.setCommandPayload(record.getData());
+			this.commandExecutor.executeAsync(commandRequest);
+			break;
+		}
+		this.replayedRecords.increment();
+	}
+
+	private void replay(final TrafficJournalReader journalReader) throws IOException {
+		JournalRecord record = journalReader.next();
+		if (record == null) {
+			return;
+		}
+		long recordingEpochMillis = record.getRecordingEpochMillis();
+		long firstTimestampNanos = record.getTimestampNanos();
+		long startNanos = System.nanoTime();
+		do {
+			// The clocks of different recordings are not comparable , The next
+			// recording starts right away
+			if (record.getRecordingEpochMillis() != recordingEpochMillis) {
+				recordingEpochMillis = record.getRecordingEpochMillis();
+				firstTimestampNanos = record.getTimestampNanos();
+				startNanos = System.nanoTime();
+			}
+			final long dueNanos = startNanos
+					+ (long) ((record.getTimestampNanos() - firstTimestampNanos) / this.speedFactor);
+			long waitNanos;
+			while ((waitNanos = dueNanos - System.nanoTime()) > 0 && this.stopped == false) {
+				LockSupport.parkNanos(waitNanos);
+			}
+			if (this.stopped) {
+				return;
+			}
+			this.replayRecord(record);
+		} while ((record = journalReader.next()) != null);
+	}
+
+	/**
+	 * Start the replay on a thread of its own , When an executor is given the
+	 * simulated device is made to answer the unknown commands with nothing
+	 * 
+	 * @return A future completed once the last record is replayed
+	 * @throws IOException
+	 *             If the journal cannot be opened
+	 */
+	public CompletableFuture<Void> start() throws IOException {
+		final TrafficJournalReader journalReader = new TrafficJournalReader(this.journalDirectory, this.portId);
+		if (this.commandExecutor != null) {
+			this.serialInterface.setUnknownCommandResponse("");
+		}
+		final CompletableFuture<Void> replayFuture = new CompletableFuture<Void>();
+		final Thread replayThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					replay(journalReader);
+					LOGGER.debug("Replayed {} records of the journal of {}", getReplayedRecords(), portId);
+					replayFuture.complete(null);
+				} catch (IOException | RuntimeException err) {
+					replayFuture.completeExceptionally(err);
+				}
+			}
+		}, String.format(REPLAY_THREAD_NAME, this.portId));
+		replayThread.setDaemon(true);
+		replayThread.start();
+		return replayFuture;
+	}
+
+	/**
+	 * Stop the replay , The records not yet replayed are dropped
+	 */
+	public void stop() {
+		this.stopped = true;
+	}
+
+	public long getReplayedRecords() {
+		return this.replayedRecords.sum();
+	}
+
+	public long getSkippedRecords() {
+		return this.skippedRecords.sum();
+	}
+
+}
@@ -0,0 +1,282 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.journal;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of the traffic of a serial port , Every chunk of
+ * data written to (TX) or received from (RX) the device is recorded with the
+ * monotonic time it crossed the wire. The journal is cheap enough to be left
+ * on , A record is a few puts into a memory mapped segment under a lock and
+ * nothing is allocated. The mapped pages are written back by the operating
+ * system , So the traffic up to a crash of the agent is kept.
+ * 
+ * The journal is a series of segment files of a fixed size , A new segment is
+ * started when a record does not fit in the current one and the oldest
+ * segments are deleted so that at most the configured number of segments are
+ * kept. Only the current segment is mapped , A segment is unmapped when the
+ * next one starts (So a deleted segment frees its disk space right away) and
+ * the mapping is only forced to disk when the journal is closed. A segment
+ * starts with a header
+ * 
+ * <pre>
+ * int magic , short format version , long wall clock (epoch millis) the
+ * journal was opened at (identifies the recording) , long wall clock (epoch
+ * millis) and long monotonic clock (nanos) at the start of the segment ,
+ * short port id length , port id (UTF-8)
+ * </pre>
+ * 
+ * followed by the records
+ * 
+ * <pre>
+ * int data length , byte direction (0 RX , 1 TX) , long monotonic clock
+ * (nanos) , data
+ * </pre>
+ * 
+ * A data length of 0 marks the end of the records. See
+ * {@link TrafficJournalReader} to read a journal
+ * 
+ * @author bharath
+ *
+ */
+public class TrafficJournal {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TrafficJournal.class);
+	static final int SEGMENT_MAGIC = 0x41544A31;
+	static final short FORMAT_VERSION = 1;
+	static final int RECORD_HEADER_LENGTH = 4 + 1 + 8;
+	private static final int END_MARKER_LENGTH = 4;
+	// Release a mapping without waiting for its buffer to be collected , Unsafe
+	// invokeCleaner (Java 9 and later) or the cleaner of the buffer (Java 8)
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER_METHOD;
+	private static final Method CLEANER_METHOD;
+	private static final Method CLEAN_METHOD;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleanerMethod = null;
+		Method cleanerMethod = null;
+		Method cleanMethod = null;
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+			unsafeField.setAccessible(true);
+			unsafe = unsafeField.get(null);
+		} catch (ReflectiveOperationException | RuntimeException err) {
+			invokeCleanerMethod = null;
+			try {
+				cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			} catch (ReflectiveOperationException | RuntimeException cleanerErr) {
+				LOGGER.debug("Unable to unmap the journal segments , They are unmapped when collected", cleanerErr);
+				cleanerMethod = null;
+				cleanMethod = null;
+			}
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER_METHOD = invokeCleanerMethod;
+		CLEANER_METHOD = cleanerMethod;
+		CLEAN_METHOD = cleanMethod;
+	}
+
+	/**
+	 * The direction of the traffic
+	 */
+	public enum Direction {
+		RX, TX
+	}
+
+	private final Path journalDirectory;
+	private final String portId;
+	private final byte[] portIdBytes;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final long recordingEpochMillis = System.currentTimeMillis();
+	// The segments on disk , Oldest first
+	private final Deque<Path> segments = new ArrayDeque<Path>();
+	// All the fields below are guarded by this
+	private MappedByteBuffer segmentBuffer;
+	private long segmentSequence;
+	private boolean closed;
+
+	/**
+	 * Open a journal , The segments already in the directory for the port are
+	 * kept and new records go to a new segment
+	 * 
+	 * @param journalDirectory
+	 *            The directory of the segment files
+	 * @param portId
+	 *            The id of the port (The device id for example) , Recorded in
+	 *            every segment and used to name the segment files
+	 * @param segmentSize
+	 *            The size of a segment in bytes
+	 * @param maxSegments
+	 *            The maximum number of segments kept
+	 * @throws IOException
+	 *             If the first segment cannot be created
+	 */
+	public TrafficJournal(final Path journalDirectory, final String portId, final int segmentSize,
+			final int maxSegments) throws IOException {
+		if (maxSegments < 1) {
+			throw new IllegalArgumentException("At least one journal segment must be kept");
+		}
+		this.journalDirectory = journalDirectory;
+		this.portId = portId;
+		this.portIdBytes = portId.getBytes(StandardCharsets.UTF_8);
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		if (segmentSize < this.getSegmentHeaderLength() + RECORD_HEADER_LENGTH + END_MARKER_LENGTH) {
+			throw new IllegalArgumentException("The journal segment size is too small");
+		}
+		Files.createDirectories(journalDirectory);
+		final List<Path> existingSegments = TrafficJournalReader.findSegments(journalDirectory, portId);
+		this.segments.addAll(existingSegments);
+		this.segmentSequence = existingSegments.isEmpty() ? 0
+				: TrafficJournalReader.getSegmentSequence(existingSegments.get(existingSegments.size() - 1));
+		this.startSegment(0);
+	}
+
+	private int getSegmentHeaderLength() {
+		return 4 + 2 + 8 + 8 + 8 + 2 + this.portIdBytes.length;
+	}
+
+	/**
+	 * Start a new segment large enough for a record , Deleting the oldest
+	 * segments beyond the maximum
+	 */
+	private void startSegment(final int recordLength) throws IOException {
+		// The operating system still writes back the pages of the unmapped segment
+		this.unmapSegment();
+		this.segmentSequence++;
+		final Path segment = this.journalDirectory
+				.resolve(TrafficJournalReader.getSegmentFileName(this.portId, this.segmentSequence));
+		// A record larger than a segment gets a segment of its own
+		final int size = Math.max(this.segmentSize,
+				this.getSegmentHeaderLength() + RECORD_HEADER_LENGTH + recordLength + END_MARKER_LENGTH);
+		try (FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			this.segmentBuffer = segmentChannel.map(MapMode.READ_WRITE, 0, size);
+		}
+		this.segmentBuffer.putInt(SEGMENT_MAGIC);
+		this.segmentBuffer.putShort(FORMAT_VERSION);
+		this.segmentBuffer.putLong(this.recordingEpochMillis);
+		this.segmentBuffer.putLong(System.currentTimeMillis());
+		this.segmentBuffer.putLong(System.nanoTime());
+		this.segmentBuffer.putShort((short) this.portIdBytes.length);
+		this.segmentBuffer.put(this.portIdBytes);
+		this.segmentBuffer.putInt(this.segmentBuffer.position(), 0);
+		this.segments.addLast(segment);
+		while (this.segments.size() > this.maxSegments) {
+			Files.deleteIfExists(this.segments.removeFirst());
+		}
+		LOGGER.debug("Started the journal segment {}", segment);
+	}
+
+	/**
+	 * Unmap the current segment , The buffer must not be used afterwards
+	 */
+	private void unmapSegment() {
+		final MappedByteBuffer segmentBuffer = this.segmentBuffer;
+		this.segmentBuffer = null;
+		if (segmentBuffer == null) {
+			return;
+		}
+		try {
+			if (INVOKE_CLEANER_METHOD != null) {
+				INVOKE_CLEANER_METHOD.invoke(UNSAFE, segmentBuffer);
+			} else if (CLEAN_METHOD != null) {
+				CLEAN_METHOD.invoke(CLEANER_METHOD.invoke(segmentBuffer));
+			}
+		} catch (ReflectiveOperationException | RuntimeException err) {
+			LOGGER.debug("Unable to unmap the journal segment , It is unmapped when collected", err);
+		}
+	}
+
+	/**
+	 * Record a chunk of traffic
+	 * 
+	 * @param direction
+	 *            The direction of the traffic
+	 * @param data
+	 *            The data
+	 * @param offset
+	 *            The offset of the chunk in the data
+	 * @param length
+	 *            The length of the chunk
+	 */
+	public synchronized void append(final Direction direction, final byte[] data, final int offset,
+			final int length) {
+		if (this.closed || length == 0) {
+			return;
+		}
+		final long timestampNanos = System.nanoTime();
+		try {
+			if (this.segmentBuffer.remaining() < RECORD_HEADER_LENGTH + length + END_MARKER_LENGTH) {
+				this.startSegment(length);
+			}
+		} catch (IOException err) {
+			// The device must keep working without its journal
+			LOGGER.error("Unable to start a journal segment , The journal of {} is closed", this.portId, err);
+			this.closed = true;
+			return;
+		}
+		this.segmentBuffer.putInt(length);
+		this.segmentBuffer.put((byte) direction.ordinal());
+		this.segmentBuffer.putLong(timestampNanos);
+		this.segmentBuffer.put(data, offset, length);
+		this.segmentBuffer.putInt(this.segmentBuffer.position(), 0);
+	}
+
+	public void append(final Direction direction, final byte[] data) {
+		this.append(direction, data, 0, data.length);
+	}
+
+	/**
+	 * Flush the current segment and stop recording
+	 */
+	public synchronized void close() {
+		if (this.closed == false) {
+			this.closed = true;
+			if (this.segmentBuffer != null) {
+				this.segmentBuffer.force();
+				this.unmapSegment();
+			}
+		}
+	}
+
+	public String getPortId() {
+		return portId;
+	}
+
+}
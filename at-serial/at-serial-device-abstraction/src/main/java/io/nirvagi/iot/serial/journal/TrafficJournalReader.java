@@ -0,0 +1,159 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import io.nirvagi.iot.serial.journal.TrafficJournal.Direction;
+
+/**
+ * Reads the records of a journal (see {@link TrafficJournal}) in the order
+ * they were recorded , Segment by segment. A segment is memory mapped while it
+ * is read. This class is not thread safe
+ * 
+ * @author bharath
+ *
+ */
+public class TrafficJournalReader {
+	private static final String SEGMENT_FILE_FORMAT = "%s-%08d.journal";
+	private static final String SEGMENT_FILE_SUFFIX = ".journal";
+	private static final String MALFORMED_SEGMENT_ERROR_MESSAGE = "The file %s is not a journal segment";
+	private final Iterator<Path> segmentIterator;
+	private ByteBuffer segmentBuffer;
+	private String segmentPortId;
+	private long recordingEpochMillis;
+	private long segmentEpochMillis;
+	private long segmentNanos;
+
+	/**
+	 * Open the journal of a port
+	 * 
+	 * @param journalDirectory
+	 *            The directory of the segment files
+	 * @param portId
+	 *            The id of the port
+	 * @throws IOException
+	 *             If the directory cannot be listed
+	 */
+	public TrafficJournalReader(final Path journalDirectory, final String portId) throws IOException {
+		this.segmentIterator = findSegments(journalDirectory, portId).iterator();
+	}
+
+	/**
+	 * The port id is part of the segment file names , The characters that
+	 * are not safe in a file name are replaced
+	 */
+	private static String getFileNamePrefix(final String portId) {
+		return portId.replaceAll("[^A-Za-z0-9_.-]", "_");
+	}
+
+	static String getSegmentFileName(final String portId, final long segmentSequence) {
+		return String.format(SEGMENT_FILE_FORMAT, getFileNamePrefix(portId), segmentSequence);
+	}
+
+	static long getSegmentSequence(final Path segment) {
+		final String fileName = segment.getFileName().toString();
+		return Long.parseLong(fileName.substring(fileName.lastIndexOf('-') + 1,
+				fileName.length() - SEGMENT_FILE_SUFFIX.length()));
+	}
+
+	/**
+	 * Find the segments of a port
+	 * 
+	 * @return The segment files , Oldest first
+	 */
+	static List<Path> findSegments(final Path journalDirectory, final String portId) throws IOException {
+		final List<Path> segments = new ArrayList<Path>();
+		if (Files.isDirectory(journalDirectory) == false) {
+			return segments;
+		}
+		final Pattern segmentPattern = Pattern
+				.compile(Pattern.quote(getFileNamePrefix(portId)) + "-\\d+" + Pattern.quote(SEGMENT_FILE_SUFFIX));
+		try (DirectoryStream<Path> segmentStream = Files.newDirectoryStream(journalDirectory,
+				segment -> segmentPattern.matcher(segment.getFileName().toString()).matches())) {
+			for (Path segment : segmentStream) {
+				segments.add(segment);
+			}
+		}
+		Collections.sort(segments, new Comparator<Path>() {
+			public int compare(Path segment, Path otherSegment) {
+				return Long.compare(getSegmentSequence(segment), getSegmentSequence(otherSegment));
+			}
+		});
+		return segments;
+	}
+
+	private void openSegment(final Path segment) throws IOException {
+		try (FileChannel segmentChannel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			this.segmentBuffer = segmentChannel.map(MapMode.READ_ONLY, 0, segmentChannel.size());
+		}
+		if (this.segmentBuffer.remaining() < 24 || this.segmentBuffer.getInt() != TrafficJournal.SEGMENT_MAGIC
+				|| this.segmentBuffer.getShort() != TrafficJournal.FORMAT_VERSION) {
+			throw new IOException(String.format(MALFORMED_SEGMENT_ERROR_MESSAGE, segment));
+		}
+		this.recordingEpochMillis = this.segmentBuffer.getLong();
+		this.segmentEpochMillis = this.segmentBuffer.getLong();
+		this.segmentNanos = this.segmentBuffer.getLong();
+		final byte[] portIdBytes = new byte[this.segmentBuffer.getShort()];
+		this.segmentBuffer.get(portIdBytes);
+		this.segmentPortId = new String(portIdBytes, StandardCharsets.UTF_8);
+	}
+
+	private boolean hasRecord() {
+		return this.segmentBuffer.remaining() >= TrafficJournal.RECORD_HEADER_LENGTH
+				&& this.segmentBuffer.getInt(this.segmentBuffer.position()) > 0;
+	}
+
+	/**
+	 * Read the next record
+	 * 
+	 * @return The next record , or null at the end of the journal
+	 * @throws IOException
+	 *             If a segment cannot be read
+	 */
+	public JournalRecord next() throws IOException {
+		while (this.segmentBuffer == null || this.hasRecord() == false) {
+			if (this.segmentIterator.hasNext() == false) {
+				return null;
+			}
+			this.openSegment(this.segmentIterator.next());
+		}
+		final byte[] data = new byte[this.segmentBuffer.getInt()];
+		final Direction direction = Direction.values()[this.segmentBuffer.get()];
+		final long timestampNanos = this.segmentBuffer.getLong();
+		this.segmentBuffer.get(data);
+		final long timestampEpochMillis = this.segmentEpochMillis
+				+ TimeUnit.NANOSECONDS.toMillis(timestampNanos - this.segmentNanos);
+		return new JournalRecord(this.segmentPortId, this.recordingEpochMillis, direction, timestampNanos,
+				timestampEpochMillis, data);
+	}
+
+}
@@ -1,5 +1,11 @@
 package io.nirvagi.iot.serial.main;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import javax.inject.Inject;
 
 import com.github.rvesse.airline.HelpOption;
@@ -7,12 +13,48 @@ import com.github.rvesse.airline.SingleCommand;
 import com.github.rvesse.airline.annotations.Command;
 import com.github.rvesse.airline.annotations.Option;
 
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.iot.serial.server.DeviceDescriptor;
 import io.nirvagi.iot.serial.server.ServerLauncher;
 
 /**
  * The main launcher class , Which launches the server process . Airline is used
  * to parse commandline args
  * 
+ * A single device is attached with the -pd and -baud parameters , Many devices
+ * are attached by repeating the -device parameter (for example -device
+ * zb1,/dev/ttyUSB0,19200 -device zb2,/dev/ttyUSB1,19200) , Every device gets
+ * its own command executor
+ * 
+ * A port descriptor of the form sim:&lt;scriptPath&gt; attaches a simulated
+ * device scripted by the file instead of a serial port (for example -device
+ * zb1,sim:telegesis.sim,19200) , The output of the simulated device is
+ * throttled to the baud rate (0 for no throttling)
+ * 
+ * The rx and tx traffic of every device is recorded in a memory mapped journal
+ * when the -journal parameter names a directory , A port descriptor of the
+ * form replay:&lt;journalDirectory&gt; replays the journal recorded for the
+ * device id through a simulated device (for example -device
+ * zb1,replay:/var/at-journal,0 -replaySpeed 10) , At the speed set with the
+ * -replaySpeed parameter (1 for the original speed)
+ * 
+ * The -binaryPort parameter starts a listener for the compact binary command
+ * protocol next to the HTTP server , For the local clients that need the
+ * lowest latency
+ * 
+ * The -mqttBroker parameter bridges the devices to an MQTT broker (for
+ * example -mqttBroker tcp://localhost:1883) , The commands are taken from and
+ * the results and the serial lines published to the topics under the
+ * -mqttTopicPrefix (at-agent by default). The lines are published in batches
+ * collected over -mqttBatchMillis , Only the lines starting with one of the
+ * -mqttEventPrefix parameters (for example -mqttEventPrefix IMGQUERY:
+ * -mqttEventPrefix RX:) if any are given
+ * 
+ * The -commands parameter names a JSON file of command definitions (see
+ * {@link CommandRegistry}) , The commands defined in the file are added to the
+ * built in commands without recompiling the agent. The file is reloaded
+ * whenever it changes , The parked listen commands are kept
+ * 
  * @author bharath
  *
  */
@@ -20,9 +62,15 @@ import io.nirvagi.iot.serial.server.ServerLauncher;
 public class Main {
 	
 	private static final String BAUD_RATE_NOT_SET_ERROR_MESSAGE = "The baud rate is not set , It must be set with the -baud parameter";
-	private static final String PD_NOT_SET_ERROR_MESSAGE = "The port descriptor is not set , It must be set with the -pd parameter";
+	private static final String PD_NOT_SET_ERROR_MESSAGE = "The port descriptor is not set , It must be set with the -pd parameter (or the devices with the -device parameter)";
+	private static final String DEVICE_AND_PD_SET_ERROR_MESSAGE = "The -pd and -device parameters cannot be used together";
 	private static final String PORT_NOT_SPECIFIED_INFO_MESSAGE = "The server port is not specifed, Attempting to use the default port %s";
 	private static final int DEFAULT_PORT = 4444;
+	private static final double DEFAULT_REPLAY_SPEED = 1;
+	private static final String REPLAY_SPEED_ERROR_MESSAGE = "The replay speed must be positive";
+	private static final String DEFAULT_MQTT_TOPIC_PREFIX = "at-agent";
+	private static final long DEFAULT_MQTT_BATCH_MILLIS = 20;
+	private static final String COMMAND_DEFINITIONS_ERROR_MESSAGE = "Unable to load the command definitions , %s";
 	
 	
 	@Option(title="portDescriptor", name={"-pd"}, description="The port descriptor of the serial device")  
@@ -31,6 +79,24 @@ public class Main {
 	private int serverPort;
 	@Option(title="baudRate", name={"-baud"}, description="The baud Rate of the serial device")
 	private int baudRate;
+	@Option(title="device", name={"-device"}, description="A serial device of the form <deviceId>,<portDescriptor>,<baudRate> , Can be repeated")
+	private List<String> devices;
+	@Option(title="journalDirectory", name={"-journal"}, description="The directory the rx and tx traffic of every device is recorded in")
+	private String journalDirectory;
+	@Option(title="replaySpeed", name={"-replaySpeed"}, description="The speed the replayed journals run at relative to the recording , 1 by default")
+	private double replaySpeed = DEFAULT_REPLAY_SPEED;
+	@Option(title="binaryPort", name={"-binaryPort"}, description="The port of the binary command listener , Not started by default")
+	private int binaryPort;
+	@Option(title="mqttBroker", name={"-mqttBroker"}, description="The URI of the MQTT broker the devices are bridged to , Not bridged by default")
+	private String mqttBroker;
+	@Option(title="mqttTopicPrefix", name={"-mqttTopicPrefix"}, description="The prefix of the MQTT topics of the devices , at-agent by default")
+	private String mqttTopicPrefix = DEFAULT_MQTT_TOPIC_PREFIX;
+	@Option(title="mqttBatchMillis", name={"-mqttBatchMillis"}, description="The time the serial lines are collected for before they are published , 20 by default")
+	private long mqttBatchMillis = DEFAULT_MQTT_BATCH_MILLIS;
+	@Option(title="mqttEventPrefix", name={"-mqttEventPrefix"}, description="Only the serial lines starting with the prefix are published , Can be repeated")
+	private List<String> mqttEventPrefixes;
+	@Option(title="commandDefinitions", name={"-commands"}, description="The JSON file of the command definitions added to the built in commands , Reloaded whenever it changes")
+	private String commandDefinitions;
 	
 	
 	
@@ -52,24 +118,58 @@ public class Main {
 			return;
 		}
 		
-		if(main.baudRate == 0){
-			System.err.println(BAUD_RATE_NOT_SET_ERROR_MESSAGE);
-			return;
-		}
-		
 		if(main.serverPort == 0){
 			System.out.println(String.format(PORT_NOT_SPECIFIED_INFO_MESSAGE, DEFAULT_PORT));
 			main.serverPort = DEFAULT_PORT;
 		}
 		
-		if(main.portDescriptor == null || main.portDescriptor.isEmpty()){
-			System.err.println(PD_NOT_SET_ERROR_MESSAGE);
-			return;
+		final List<DeviceDescriptor> deviceDescriptors = new ArrayList<DeviceDescriptor>();
+		if(main.devices != null && main.devices.isEmpty() == false){
+			if(main.portDescriptor != null){
+				System.err.println(DEVICE_AND_PD_SET_ERROR_MESSAGE);
+				return;
+			}
+			for(String device : main.devices){
+				try{
+					deviceDescriptors.add(DeviceDescriptor.parse(device));
+				}catch(IllegalArgumentException err){
+					System.err.println(err.getMessage());
+					return;
+				}
+			}
+		}else{
+			if(main.baudRate == 0){
+				System.err.println(BAUD_RATE_NOT_SET_ERROR_MESSAGE);
+				return;
+			}
+			if(main.portDescriptor == null || main.portDescriptor.isEmpty()){
+				System.err.println(PD_NOT_SET_ERROR_MESSAGE);
+				return;
+			}
+			deviceDescriptors.add(new DeviceDescriptor(main.portDescriptor, main.portDescriptor, main.baudRate));
 		}
 		
+		if(main.replaySpeed <= 0){
+			System.err.println(REPLAY_SPEED_ERROR_MESSAGE);
+			return;
+		}
 		
-		
-		final ServerLauncher serverLauncher = new ServerLauncher(main.serverPort, main.portDescriptor, main.baudRate);
+		final ServerLauncher serverLauncher = new ServerLauncher(main.serverPort, deviceDescriptors,
+				main.journalDirectory == null ? null : Paths.get(main.journalDirectory), main.replaySpeed,
+				main.binaryPort);
+		if(main.commandDefinitions != null){
+			try{
+				serverLauncher.loadCommandDefinitions(Paths.get(main.commandDefinitions));
+			}catch(IOException | IllegalArgumentException err){
+				System.err.println(String.format(COMMAND_DEFINITIONS_ERROR_MESSAGE, err.getMessage()));
+				return;
+			}
+		}
+		if(main.mqttBroker != null){
+			serverLauncher.enableMqttBridge(main.mqttBroker, main.mqttTopicPrefix,
+					main.mqttEventPrefixes == null ? Collections.<String>emptyList() : main.mqttEventPrefixes,
+					main.mqttBatchMillis);
+		}
 		serverLauncher.launch();	
 	}
 	
@@ -0,0 +1,190 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.metrics;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * The metrics of a single serial device . The command latencies and the queue
+ * wait are recorded by the command processing code , The rest of the metrics
+ * (queue depth , byte counters , observer counts ..) are read from the
+ * components that already keep them when the metrics are scraped , They cost
+ * nothing on the hot path
+ * 
+ * @author bharath
+ *
+ */
+public class DeviceMetrics {
+
+	/**
+	 * The type of a metric that is read when the metrics are scraped
+	 */
+	enum MetricType {
+		// Can go up and down (A queue depth for example)
+		GAUGE,
+		// Only goes up (A byte count for example)
+		COUNTER;
+	}
+
+	/**
+	 * A metric that is read when the metrics are scraped
+	 */
+	static class ScrapedMetric {
+		private final String name;
+		private final String help;
+		private final MetricType metricType;
+		private final LongSupplier valueSupplier;
+
+		ScrapedMetric(final String name, final String help, final MetricType metricType,
+				final LongSupplier valueSupplier) {
+			this.name = name;
+			this.help = help;
+			this.metricType = metricType;
+			this.valueSupplier = valueSupplier;
+		}
+
+		String getName() {
+			return this.name;
+		}
+
+		String getHelp() {
+			return this.help;
+		}
+
+		MetricType getMetricType() {
+			return this.metricType;
+		}
+
+		long getValue() {
+			return this.valueSupplier.getAsLong();
+		}
+	}
+
+	private static final CommandStatus[] COMMAND_STATUSES = CommandStatus.values();
+	private static final String RX_BUFFER_EVICTIONS_METRIC = "at_serial_rx_buffer_evictions_total";
+	private static final String RX_BUFFER_EVICTIONS_HELP = "Serial responses evicted from the full rx buffer before the command processor read them";
+
+	// Histograms indexed by the command status ordinal , Per command
+	private final ConcurrentMap<SerialCommand, LatencyHistogram[]> commandLatencies;
+	private final LatencyHistogram queueWait;
+	private final LongAdder rxBufferEvictions;
+	private final List<ScrapedMetric> scrapedMetrics;
+
+	public DeviceMetrics() {
+		this.commandLatencies = new ConcurrentHashMap<SerialCommand, LatencyHistogram[]>();
+		this.queueWait = new LatencyHistogram();
+		this.rxBufferEvictions = new LongAdder();
+		this.scrapedMetrics = new CopyOnWriteArrayList<ScrapedMetric>();
+		this.registerCounter(RX_BUFFER_EVICTIONS_METRIC, RX_BUFFER_EVICTIONS_HELP, this.rxBufferEvictions::sum);
+	}
+
+	/**
+	 * Record the latency of a completed command
+	 * 
+	 * @param command
+	 *            The command
+	 * @param commandStatus
+	 *            The status the command completed with
+	 * @param latencyNanos
+	 *            The time the command took in nanoseconds
+	 */
+	public void recordCommand(final SerialCommand command, final CommandStatus commandStatus,
+			final long latencyNanos) {
+		LatencyHistogram[] statusLatencies = this.commandLatencies.get(command);
+		if (statusLatencies == null) {
+			final LatencyHistogram[] newStatusLatencies = new LatencyHistogram[COMMAND_STATUSES.length];
+			for (int i = 0; i < newStatusLatencies.length; i++) {
+				newStatusLatencies[i] = new LatencyHistogram();
+			}
+			statusLatencies = this.commandLatencies.putIfAbsent(command, newStatusLatencies);
+			if (statusLatencies == null) {
+				statusLatencies = newStatusLatencies;
+			}
+		}
+		statusLatencies[commandStatus.ordinal()].record(latencyNanos);
+	}
+
+	/**
+	 * Record the time a command batch waited in the queue before it was sent
+	 * 
+	 * @param waitNanos
+	 *            The queue wait in nanoseconds
+	 */
+	public void recordQueueWait(final long waitNanos) {
+		this.queueWait.record(waitNanos);
+	}
+
+	/**
+	 * Record a serial response that was evicted from the rx buffer before it
+	 * was read
+	 */
+	public void recordRxBufferEviction() {
+		this.rxBufferEvictions.increment();
+	}
+
+	/**
+	 * Register a gauge that is read when the metrics are scraped
+	 * 
+	 * @param name
+	 *            The metric name
+	 * @param help
+	 *            The metric description
+	 * @param valueSupplier
+	 *            Reads the current value
+	 */
+	public void registerGauge(final String name, final String help, final LongSupplier valueSupplier) {
+		this.scrapedMetrics.add(new ScrapedMetric(name, help, MetricType.GAUGE, valueSupplier));
+	}
+
+	/**
+	 * Register a counter that is read when the metrics are scraped
+	 * 
+	 * @param name
+	 *            The metric name , By convention ending with _total
+	 * @param help
+	 *            The metric description
+	 * @param valueSupplier
+	 *            Reads the current count
+	 */
+	public void registerCounter(final String name, final String help, final LongSupplier valueSupplier) {
+		this.scrapedMetrics.add(new ScrapedMetric(name, help, MetricType.COUNTER, valueSupplier));
+	}
+
+	ConcurrentMap<SerialCommand, LatencyHistogram[]> getCommandLatencies() {
+		return this.commandLatencies;
+	}
+
+	LatencyHistogram getQueueWait() {
+		return this.queueWait;
+	}
+
+	List<ScrapedMetric> getScrapedMetrics() {
+		return this.scrapedMetrics;
+	}
+
+	static CommandStatus[] getCommandStatuses() {
+		return COMMAND_STATUSES;
+	}
+
+}
@@ -0,0 +1,81 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets , Recording a latency is lock free
+ * (A bucket lookup , An atomic increment and an adder) so it can be done on
+ * the command processor thread for every command. The buckets span a
+ * millisecond (A local echo) to five minutes (A listen command)
+ * 
+ * @author bharath
+ *
+ */
+public class LatencyHistogram {
+	private static final double[] BUCKET_BOUNDS_IN_SECONDS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25,
+			0.5, 1, 2.5, 5, 10, 30, 60, 300 };
+	private static final long[] BUCKET_BOUNDS_IN_NANOS = new long[BUCKET_BOUNDS_IN_SECONDS.length];
+
+	static {
+		for (int i = 0; i < BUCKET_BOUNDS_IN_SECONDS.length; i++) {
+			BUCKET_BOUNDS_IN_NANOS[i] = (long) (BUCKET_BOUNDS_IN_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+		}
+	}
+
+	// The last bucket holds the latencies above the largest bound
+	private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS_IN_NANOS.length + 1);
+	private final LongAdder latencySumNanos = new LongAdder();
+
+	/**
+	 * Record a latency
+	 * 
+	 * @param latencyNanos
+	 *            The latency in nanoseconds
+	 */
+	public void record(final long latencyNanos) {
+		int bucket = 0;
+		while (bucket < BUCKET_BOUNDS_IN_NANOS.length && latencyNanos > BUCKET_BOUNDS_IN_NANOS[bucket]) {
+			bucket++;
+		}
+		this.bucketCounts.incrementAndGet(bucket);
+		this.latencySumNanos.add(latencyNanos);
+	}
+
+	static double[] getBucketBoundsInSeconds() {
+		return BUCKET_BOUNDS_IN_SECONDS;
+	}
+
+	/**
+	 * Get the number of latencies recorded in a bucket
+	 * 
+	 * @param bucket
+	 *            The bucket index , The index past the last bound is the
+	 *            overflow bucket
+	 * @return The number of latencies in the bucket (Not cumulative)
+	 */
+	long getBucketCount(final int bucket) {
+		return this.bucketCounts.get(bucket);
+	}
+
+	long getLatencySumNanos() {
+		return this.latencySumNanos.sum();
+	}
+
+}
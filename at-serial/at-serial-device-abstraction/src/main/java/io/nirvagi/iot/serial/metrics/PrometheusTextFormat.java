@@ -0,0 +1,129 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.metrics.DeviceMetrics.ScrapedMetric;
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * Writes the device metrics in the Prometheus text exposition format , Every
+ * sample carries a device label
+ * 
+ * @see <a href=
+ *      "https://prometheus.io/docs/instrumenting/exposition_formats/">Exposition
+ *      formats</a>
+ * 
+ * @author bharath
+ *
+ */
+public final class PrometheusTextFormat {
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final String COMMAND_DURATION_METRIC = "at_serial_command_duration_seconds";
+	private static final String COMMAND_DURATION_HELP = "Time from sending a command (or subscribing for a listen command) to its result";
+	private static final String QUEUE_WAIT_METRIC = "at_serial_queue_wait_seconds";
+	private static final String QUEUE_WAIT_HELP = "Time a command batch waited for the device before it was sent";
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private PrometheusTextFormat() {
+	}
+
+	private static String escapeLabelValue(final String labelValue) {
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static void writeHeader(final StringBuilder out, final String name, final String help,
+			final String type) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void writeHistogram(final StringBuilder out, final String name, final String labels,
+			final LatencyHistogram histogram) {
+		final double[] bucketBounds = LatencyHistogram.getBucketBoundsInSeconds();
+		long cumulativeCount = 0;
+		for (int i = 0; i < bucketBounds.length; i++) {
+			cumulativeCount += histogram.getBucketCount(i);
+			out.append(name).append("_bucket{").append(labels).append(",le=\"").append(bucketBounds[i])
+					.append("\"} ").append(cumulativeCount).append('\n');
+		}
+		cumulativeCount += histogram.getBucketCount(bucketBounds.length);
+		out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulativeCount)
+				.append('\n');
+		out.append(name).append("_sum{").append(labels).append("} ")
+				.append(histogram.getLatencySumNanos() / NANOS_PER_SECOND).append('\n');
+		out.append(name).append("_count{").append(labels).append("} ").append(cumulativeCount).append('\n');
+	}
+
+	/**
+	 * Write the metrics of all the devices
+	 * 
+	 * @param deviceMetrics
+	 *            The device metrics keyed by the device id
+	 * @param out
+	 *            The builder the metrics are written to
+	 */
+	public static void write(final Map<String, DeviceMetrics> deviceMetrics, final StringBuilder out) {
+		writeHeader(out, COMMAND_DURATION_METRIC, COMMAND_DURATION_HELP, "histogram");
+		for (Map.Entry<String, DeviceMetrics> device : deviceMetrics.entrySet()) {
+			final String deviceLabel = "device=\"" + escapeLabelValue(device.getKey()) + "\"";
+			for (Map.Entry<SerialCommand, LatencyHistogram[]> command : device.getValue().getCommandLatencies()
+					.entrySet()) {
+				for (CommandStatus commandStatus : DeviceMetrics.getCommandStatuses()) {
+					final String labels = deviceLabel + ",command=\""
+							+ escapeLabelValue(command.getKey().getCommandName()) + "\",status=\"" + commandStatus
+							+ "\"";
+					writeHistogram(out, COMMAND_DURATION_METRIC, labels, command.getValue()[commandStatus.ordinal()]);
+				}
+			}
+		}
+		writeHeader(out, QUEUE_WAIT_METRIC, QUEUE_WAIT_HELP, "histogram");
+		for (Map.Entry<String, DeviceMetrics> device : deviceMetrics.entrySet()) {
+			final String deviceLabel = "device=\"" + escapeLabelValue(device.getKey()) + "\"";
+			writeHistogram(out, QUEUE_WAIT_METRIC, deviceLabel, device.getValue().getQueueWait());
+		}
+		// Group the scraped metrics of all the devices by name , A metric has a single header
+		final Map<String, List<String>> samplesByName = new LinkedHashMap<String, List<String>>();
+		final Map<String, ScrapedMetric> metricsByName = new LinkedHashMap<String, ScrapedMetric>();
+		for (Map.Entry<String, DeviceMetrics> device : deviceMetrics.entrySet()) {
+			final String deviceLabel = "device=\"" + escapeLabelValue(device.getKey()) + "\"";
+			for (ScrapedMetric scrapedMetric : device.getValue().getScrapedMetrics()) {
+				List<String> samples = samplesByName.get(scrapedMetric.getName());
+				if (samples == null) {
+					samples = new ArrayList<String>();
+					samplesByName.put(scrapedMetric.getName(), samples);
+					metricsByName.put(scrapedMetric.getName(), scrapedMetric);
+				}
+				samples.add(scrapedMetric.getName() + "{" + deviceLabel + "} " + scrapedMetric.getValue());
+			}
+		}
+		for (Map.Entry<String, List<String>> metric : samplesByName.entrySet()) {
+			final ScrapedMetric scrapedMetric = metricsByName.get(metric.getKey());
+			writeHeader(out, scrapedMetric.getName(), scrapedMetric.getHelp(),
+					scrapedMetric.getMetricType().name().toLowerCase());
+			for (String sample : metric.getValue()) {
+				out.append(sample).append('\n');
+			}
+		}
+	}
+
+}
@@ -0,0 +1,364 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.mqtt;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.paho.client.mqttv3.DisconnectedBufferOptions;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.executor.CommandExecutor;
+import io.nirvagi.iot.serial.at.command.executor.CommandRejectedException;
+import io.nirvagi.iot.serial.at.command.observer.SerialEventBroadcaster;
+import io.nirvagi.iot.serial.at.command.observer.SerialEventSubscriber;
+import io.nirvagi.iot.serial.at.command.observer.SerialEventSubscriber.DropPolicy;
+import io.nirvagi.iot.serial.server.CommandCodec;
+
+/**
+ * Bridges the devices to an MQTT broker , So that the commands can be sent
+ * and the serial lines received without polling the HTTP interface. Every
+ * device has the topics
+ * 
+ * <pre>
+ * &lt;prefix&gt;/&lt;deviceId&gt;/command/&lt;requestId&gt; The commands , A command request or a batch of them (JSON as for the HTTP interface)
+ * &lt;prefix&gt;/&lt;deviceId&gt;/result/&lt;requestId&gt;  The result of the command (or the batch) published with the request id
+ * &lt;prefix&gt;/&lt;deviceId&gt;/events              The lines received from the device
+ * </pre>
+ * 
+ * The commands are sent to the device of the topic , Whatever the device id
+ * of the request. A batch is executed in order to the end. A request that
+ * cannot be executed is answered on its result topic with an object holding
+ * the error (And the retryAfterMillis of a rejected command).
+ * 
+ * The lines received from a device (Those starting with one of the event
+ * prefixes , All of them if there are none) are published in batches , The
+ * first line starts a window and all the lines received within the window go
+ * in a single message {"lines":[..],"droppedLines":n}. A larger window means
+ * fewer messages (And broker round trips) at the cost of latency. The lines
+ * are buffered without blocking the device , The lines dropped when the broker
+ * cannot keep up are counted in the next message.
+ * 
+ * The bridge reconnects by itself , The messages published while the broker is
+ * unreachable are buffered up to a limit. Any broker can be used , An
+ * embedded broker listening on localhost for a test for example
+ * 
+ * @author bharath
+ *
+ */
+public class MqttBridge {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MqttBridge.class);
+	private static final String COMMAND_TOPIC_FORMAT = "%s/%s/command/+";
+	private static final String RESULT_TOPIC_FORMAT = "%s/%s/result/%s";
+	private static final String EVENT_TOPIC_FORMAT = "%s/%s/events";
+	private static final String COMMAND_LEVEL = "command";
+	private static final String BATCHER_THREAD_NAME = "mqtt-event-batcher";
+	private static final int QOS = 1;
+	private static final int EVENT_BUFFER_SIZE = 10000;
+	private static final int MAX_LINES_PER_MESSAGE = 500;
+	private static final int MAX_INFLIGHT_MESSAGES = 1000;
+	private static final int DISCONNECTED_BUFFER_SIZE = 10000;
+	private static final String MALFORMED_REQUEST_ERROR_MESSAGE = "Bad Request , Please check the request data";
+	private static final String GENERIC_ERROR_MESSAGE = "An error has occurred while processing your request";
+	private final MqttAsyncClient mqttClient;
+	private final String topicPrefix;
+	private final CommandExecutor commandExecutor;
+	private final long batchWindowMillis;
+	private final CommandCodec commandCodec = new CommandCodec();
+	private final Map<String, DeviceEvents> deviceEvents = new LinkedHashMap<String, DeviceEvents>();
+	private final ScheduledExecutorService eventBatcher;
+
+	/**
+	 * The lines of a device waiting to be published
+	 */
+	private final class DeviceEvents {
+		private final SerialEventBroadcaster broadcaster;
+		private final SerialEventSubscriber subscriber;
+		private final String eventTopic;
+		private final AtomicBoolean isFlushScheduled = new AtomicBoolean();
+
+		DeviceEvents(final String deviceId, final SerialEventBroadcaster broadcaster, final List<String> eventPrefixes) {
+			this.broadcaster = broadcaster;
+			this.subscriber = new SerialEventSubscriber(eventPrefixes, EVENT_BUFFER_SIZE, DropPolicy.DROP_OLDEST);
+			this.eventTopic = String.format(EVENT_TOPIC_FORMAT, topicPrefix, deviceId);
+		}
+
+		/**
+		 * Called on the serial event thread for every line , The first line
+		 * of a window schedules the flush
+		 */
+		void lineBuffered() {
+			if (this.isFlushScheduled.compareAndSet(false, true)) {
+				eventBatcher.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		void flush() {
+			// A line buffered from now on starts a new window
+			this.isFlushScheduled.set(false);
+			final List<String> lines = new ArrayList<String>();
+			String line;
+			while ((line = this.subscriber.poll()) != null) {
+				lines.add(line);
+				if (lines.size() == MAX_LINES_PER_MESSAGE) {
+					this.publish(lines);
+					lines.clear();
+				}
+			}
+			if (lines.isEmpty() == false) {
+				this.publish(lines);
+			}
+		}
+
+		private void publish(final List<String> lines) {
+			final StringWriter message = new StringWriter();
+			try {
+				final JsonWriter jsonWriter = new JsonWriter(message);
+				jsonWriter.beginObject().name("lines").beginArray();
+				for (String line : lines) {
+					jsonWriter.value(line);
+				}
+				jsonWriter.endArray().name("droppedLines").value(this.subscriber.drainDroppedLineCount()).endObject();
+			} catch (IOException err) {
+				throw new UncheckedIOException(err);
+			}
+			MqttBridge.this.publish(this.eventTopic, message.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Build a bridge , It does not connect until started
+	 * 
+	 * @param brokerUri
+	 *            The URI of the broker (tcp://localhost:1883 for example)
+	 * @param topicPrefix
+	 *            The prefix of the topics
+	 * @param commandExecutor
+	 *            The executor the commands are sent to (Routing by the device
+	 *            id)
+	 * @param deviceBroadcasters
+	 *            The broadcasters of the serial lines keyed by the device id ,
+	 *            One set of topics is used per device
+	 * @param eventPrefixes
+	 *            Only the lines starting with one of the prefixes are
+	 *            published , All the lines are published if empty
+	 * @param batchWindowMillis
+	 *            The time the lines are collected for before they are
+	 *            published
+	 * @throws MqttException
+	 *             If the broker URI is not valid
+	 */
+	public MqttBridge(final String brokerUri, final String topicPrefix, final CommandExecutor commandExecutor,
+			final Map<String, SerialEventBroadcaster> deviceBroadcasters, final List<String> eventPrefixes,
+			final long batchWindowMillis) throws MqttException {
+		this.mqttClient = new MqttAsyncClient(brokerUri, MqttAsyncClient.generateClientId(), new MemoryPersistence());
+		this.topicPrefix = topicPrefix;
+		this.commandExecutor = commandExecutor;
+		this.batchWindowMillis = batchWindowMillis;
+		for (Map.Entry<String, SerialEventBroadcaster> device : deviceBroadcasters.entrySet()) {
+			this.deviceEvents.put(device.getKey(), new DeviceEvents(device.getKey(), device.getValue(), eventPrefixes));
+		}
+		this.eventBatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, BATCHER_THREAD_NAME);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private void publish(final String topic, final byte[] payload) {
+		try {
+			this.mqttClient.publish(topic, payload, QOS, false);
+		} catch (MqttException err) {
+			// The broker is gone and the buffer is full , Or too many messages are in flight
+			LOGGER.warn("Unable to publish to {} , {}", topic, err.getMessage());
+		}
+	}
+
+	private void publishError(final String resultTopic, final String message, final Long retryAfterMillis) {
+		final StringWriter error = new StringWriter();
+		try {
+			final JsonWriter jsonWriter = new JsonWriter(error);
+			jsonWriter.beginObject().name("error").value(message);
+			if (retryAfterMillis != null) {
+				jsonWriter.name("retryAfterMillis").value(retryAfterMillis);
+			}
+			jsonWriter.endObject();
+		} catch (IOException err) {
+			throw new UncheckedIOException(err);
+		}
+		this.publish(resultTopic, error.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Publish the result of a command (or a batch) once it completes , Called
+	 * from the thread that completes the command
+	 */
+	private void publishResult(final String resultTopic, final CommandResult result, final List<CommandResult> results,
+			Throwable err) {
+		if (err == null) {
+			this.publish(resultTopic,
+					results == null ? this.commandCodec.encodeResult(result) : this.commandCodec.encodeResults(results));
+			return;
+		}
+		if (err instanceof CompletionException && err.getCause() != null) {
+			err = err.getCause();
+		}
+		if (err instanceof IllegalArgumentException) {
+			this.publishError(resultTopic, err.getMessage(), null);
+		} else if (err instanceof CommandRejectedException) {
+			this.publishError(resultTopic, err.getMessage(), ((CommandRejectedException) err).getRetryAfterMillis());
+		} else {
+			LOGGER.debug("The command of {} failed", resultTopic, err);
+			this.publishError(resultTopic, GENERIC_ERROR_MESSAGE, null);
+		}
+	}
+
+	/**
+	 * Execute a command message , Called from the MQTT client thread which must
+	 * not be blocked
+	 */
+	private void executeCommand(final String topic, final MqttMessage message) {
+		// <prefix>/<deviceId>/command/<requestId>
+		final String[] levels = topic.substring(this.topicPrefix.length() + 1).split("/");
+		if (levels.length != 3 || COMMAND_LEVEL.equals(levels[1]) == false) {
+			LOGGER.debug("Ignoring the message of {}", topic);
+			return;
+		}
+		final String deviceId = levels[0];
+		final String resultTopic = String.format(RESULT_TOPIC_FORMAT, this.topicPrefix, deviceId, levels[2]);
+		final byte[] payload = message.getPayload();
+		try {
+			final JsonReader jsonReader = CommandCodec.newJsonReader(payload, 0, payload.length);
+			if (jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+				final List<CommandRequest> batch = this.commandCodec.readBatch(jsonReader);
+				for (CommandRequest commandRequest : batch) {
+					commandRequest.setDeviceId(deviceId);
+				}
+				this.commandExecutor.executeBatchAsync(batch, false)
+						.whenComplete((results, err) -> this.publishResult(resultTopic, null, results, err));
+				return;
+			}
+			final CommandRequest commandRequest = this.commandCodec.readRequest(jsonReader);
+			commandRequest.setDeviceId(deviceId);
+			this.commandExecutor.executeAsync(commandRequest)
+					.whenComplete((result, err) -> this.publishResult(resultTopic, result, null, err));
+		} catch (IOException | IllegalStateException err) {
+			this.publishError(resultTopic, MALFORMED_REQUEST_ERROR_MESSAGE, null);
+		} catch (JsonParseException | IllegalArgumentException err) {
+			this.publishError(resultTopic, err.getMessage(), null);
+		} catch (RuntimeException err) {
+			this.publishResult(resultTopic, null, null, err);
+		}
+	}
+
+	private void subscribeCommandTopics() {
+		for (String deviceId : this.deviceEvents.keySet()) {
+			final String commandTopic = String.format(COMMAND_TOPIC_FORMAT, this.topicPrefix, deviceId);
+			try {
+				this.mqttClient.subscribe(commandTopic, QOS);
+				LOGGER.debug("Subscribed to {}", commandTopic);
+			} catch (MqttException err) {
+				LOGGER.error("Unable to subscribe to {}", commandTopic, err);
+			}
+		}
+	}
+
+	/**
+	 * Connect to the broker , Subscribe to the command topics and start
+	 * publishing the serial lines
+	 * 
+	 * @throws MqttException
+	 *             If the broker cannot be reached
+	 */
+	public void start() throws MqttException {
+		this.mqttClient.setCallback(new MqttCallbackExtended() {
+			public void connectComplete(boolean reconnect, String serverURI) {
+				LOGGER.debug("Connected to the broker {}", serverURI);
+				// The subscriptions of a clean session do not survive a reconnect
+				subscribeCommandTopics();
+			}
+
+			public void connectionLost(Throwable cause) {
+				LOGGER.warn("Lost the connection to the broker , Reconnecting", cause);
+			}
+
+			public void messageArrived(String topic, MqttMessage message) {
+				executeCommand(topic, message);
+			}
+
+			public void deliveryComplete(IMqttDeliveryToken token) {
+			}
+		});
+		final MqttConnectOptions connectOptions = new MqttConnectOptions();
+		connectOptions.setAutomaticReconnect(true);
+		connectOptions.setCleanSession(true);
+		connectOptions.setMaxInflight(MAX_INFLIGHT_MESSAGES);
+		this.mqttClient.connect(connectOptions).waitForCompletion();
+		final DisconnectedBufferOptions bufferOptions = new DisconnectedBufferOptions();
+		bufferOptions.setBufferEnabled(true);
+		bufferOptions.setBufferSize(DISCONNECTED_BUFFER_SIZE);
+		bufferOptions.setDeleteOldestMessages(true);
+		this.mqttClient.setBufferOpts(bufferOptions);
+		for (DeviceEvents events : this.deviceEvents.values()) {
+			events.subscriber.setLineListener(events::lineBuffered);
+			events.broadcaster.subscribe(events.subscriber);
+		}
+	}
+
+	/**
+	 * Stop publishing and disconnect , The commands in flight are not
+	 * cancelled but their results are not published
+	 */
+	public void stop() {
+		for (DeviceEvents events : this.deviceEvents.values()) {
+			events.broadcaster.unsubscribe(events.subscriber);
+		}
+		this.eventBatcher.shutdown();
+		try {
+			this.mqttClient.disconnect().waitForCompletion();
+			this.mqttClient.close();
+		} catch (MqttException err) {
+			LOGGER.debug("Unable to disconnect from the broker", err);
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the response of an asynchronous request without blocking the calling
+ * thread , The response is written by the container as the client reads it and
+ * the request is completed once the whole response is written. This lets the
+ * response be committed from the completion callback of a command (The
+ * command processor thread for example) without the thread waiting on a slow
+ * client
+ * 
+ * @author bharath
+ *
+ */
+final class AsyncResponseWriter implements WriteListener {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncResponseWriter.class);
+	private final AsyncContext asyncContext;
+	private final ServletOutputStream out;
+	private final byte[] body;
+	private boolean isWritten;
+
+	private AsyncResponseWriter(final AsyncContext asyncContext, final ServletOutputStream out, final byte[] body) {
+		this.asyncContext = asyncContext;
+		this.out = out;
+		this.body = body;
+	}
+
+	/**
+	 * Commit the response of an asynchronous request
+	 * 
+	 * @param asyncContext
+	 *            The context of the request
+	 * @param statusCode
+	 *            The response status code
+	 * @param message
+	 *            The response body
+	 */
+	static void commit(final AsyncContext asyncContext, final int statusCode, final String message) {
+		commit(asyncContext, statusCode, message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Commit the response of an asynchronous request
+	 * 
+	 * @param asyncContext
+	 *            The context of the request
+	 * @param statusCode
+	 *            The response status code
+	 * @param body
+	 *            The encoded response body
+	 */
+	static void commit(final AsyncContext asyncContext, final int statusCode, final byte[] body) {
+		final HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+		response.setStatus(statusCode);
+		response.setContentLength(body.length);
+		try {
+			final ServletOutputStream out = response.getOutputStream();
+			out.setWriteListener(new AsyncResponseWriter(asyncContext, out, body));
+		} catch (IOException | IllegalStateException err) {
+			LOGGER.debug("Unable to write the response", err);
+			asyncContext.complete();
+		}
+	}
+
+	public void onWritePossible() throws IOException {
+		if (this.isWritten == false) {
+			this.isWritten = true;
+			this.out.write(this.body);
+		}
+		// Complete once the container has written the whole body
+		if (this.out.isReady()) {
+			this.asyncContext.complete();
+		}
+	}
+
+	public void onError(Throwable err) {
+		LOGGER.debug("Unable to write the response , The client has gone away", err);
+		this.asyncContext.complete();
+	}
+
+}
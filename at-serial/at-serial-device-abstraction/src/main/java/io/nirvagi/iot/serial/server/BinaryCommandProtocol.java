@@ -0,0 +1,340 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.nirvagi.iot.serial.at.command.CacheStatus;
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.CommandStatus;
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * The frames of the binary command protocol (see {@link BinaryCommandServer})
+ * , All the numbers are big endian and a string is an unsigned short length
+ * followed by the UTF-8 bytes. Every frame starts with an int holding the
+ * length of the rest of the frame and a long correlation id , The response to
+ * a request carries the correlation id of the request
+ * 
+ * A request frame
+ * 
+ * <pre>
+ * int length , long correlation id , short command id (The id of the command
+ * in the {@link CommandRegistry}) , byte flags (1 include the raw output , 2 a raw
+ * payload follows in place of the parameters) , int priority , int deadline
+ * millis , int command timeout millis , string device id (empty for the only
+ * device) , Then either int payload length and the payload , or unsigned byte
+ * parameter count and the parameters
+ * </pre>
+ * 
+ * A response frame
+ * 
+ * <pre>
+ * int length , long correlation id , byte response type , Then for a result
+ * (0) byte command status , byte cache status (0 none , 1 hit , 2 miss) ,
+ * double duration in seconds , unsigned short line count and the lines , int
+ * raw output length (-1 none) and the raw output. For a rejected request (1)
+ * long retry after millis and a string message , For an invalid request (2)
+ * or an error (3) a string message
+ * </pre>
+ * 
+ * @author bharath
+ *
+ */
+public final class BinaryCommandProtocol {
+	public static final int LENGTH_FIELD_SIZE = 4;
+	public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+	public static final byte RESULT = 0;
+	public static final byte REJECTED = 1;
+	public static final byte INVALID = 2;
+	public static final byte ERROR = 3;
+	private static final byte INCLUDE_RAW_OUTPUT_FLAG = 1;
+	private static final byte PAYLOAD_FLAG = 2;
+	private static final int NO_RAW_OUTPUT = -1;
+	private static final int MAX_STRING_LENGTH = 0xFFFF;
+	private static final int MAX_PARAMETERS = 0xFF;
+	private static final CommandStatus[] COMMAND_STATUSES = CommandStatus.values();
+	private static final CacheStatus[] CACHE_STATUSES = CacheStatus.values();
+	private static final String UNKNOWN_COMMAND_ERROR_MESSAGE = "The command id %s is not registered";
+	private static final String STRING_TOO_LONG_ERROR_MESSAGE = "A string of the binary protocol is limited to 65535 bytes";
+	private static final String MALFORMED_LENGTH_ERROR_MESSAGE = "The length %s does not fit in the rest of the frame";
+	private static final String TOO_MANY_PARAMETERS_ERROR_MESSAGE = "A binary command request is limited to 255 parameters";
+
+	private BinaryCommandProtocol() {
+	}
+
+	private static byte[] encodeString(final String value) {
+		final byte[] data = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+		if (data.length > MAX_STRING_LENGTH) {
+			throw new IllegalArgumentException(STRING_TOO_LONG_ERROR_MESSAGE);
+		}
+		return data;
+	}
+
+	private static void putString(final ByteBuffer frame, final byte[] data) {
+		frame.putShort((short) data.length);
+		frame.put(data);
+	}
+
+	/**
+	 * Check a length read from a frame before anything is allocated for it ,
+	 * A length that runs past the frame is rejected
+	 */
+	private static int checkLength(final ByteBuffer frame, final int length) {
+		if (length < 0 || length > frame.remaining()) {
+			throw new IllegalArgumentException(String.format(MALFORMED_LENGTH_ERROR_MESSAGE, length));
+		}
+		return length;
+	}
+
+	private static String getString(final ByteBuffer frame) {
+		final int length = checkLength(frame, frame.getShort() & MAX_STRING_LENGTH);
+		final String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length,
+				StandardCharsets.UTF_8);
+		frame.position(frame.position() + length);
+		return value;
+	}
+
+	private static ByteBuffer allocateFrame(final int bodyLength, final long correlationId) {
+		final ByteBuffer frame = ByteBuffer.allocate(LENGTH_FIELD_SIZE + 8 + bodyLength);
+		frame.putInt(8 + bodyLength);
+		frame.putLong(correlationId);
+		return frame;
+	}
+
+	/**
+	 * Find the id of a command
+	 * 
+	 * @return The command id , or -1 if the command is not registered
+	 */
+	public static int getCommandId(final SerialCommand command) {
+		return CommandRegistry.getDefault().getCommandId(command);
+	}
+
+	/**
+	 * Encode a request frame
+	 * 
+	 * @param correlationId
+	 *            The correlation id of the request
+	 * @param commandRequest
+	 *            The command request
+	 * @return The frame , Ready to be written
+	 */
+	public static ByteBuffer encodeRequest(final long correlationId, final CommandRequest commandRequest) {
+		final int commandId = getCommandId(commandRequest.getCommand());
+		if (commandId < 0) {
+			throw new IllegalArgumentException(String.format(UNKNOWN_COMMAND_ERROR_MESSAGE, commandRequest.getCommand()));
+		}
+		final byte[] deviceId = encodeString(commandRequest.getDeviceId());
+		final byte[] payload = commandRequest.getCommandPayload();
+		final List<byte[]> parameters = new ArrayList<byte[]>();
+		int bodyLength = 2 + 1 + 4 + 4 + 4 + 2 + deviceId.length;
+		if (payload != null) {
+			bodyLength += 4 + payload.length;
+		} else {
+			if (commandRequest.getCommandParameters() != null) {
+				for (String parameter : commandRequest.getCommandParameters()) {
+					parameters.add(encodeString(parameter));
+				}
+			}
+			if (parameters.size() > MAX_PARAMETERS) {
+				throw new IllegalArgumentException(TOO_MANY_PARAMETERS_ERROR_MESSAGE);
+			}
+			bodyLength += 1;
+			for (byte[] parameter : parameters) {
+				bodyLength += 2 + parameter.length;
+			}
+		}
+		final ByteBuffer frame = allocateFrame(bodyLength, correlationId);
+		frame.putShort((short) commandId);
+		frame.put((byte) ((commandRequest.isIncludeRawOutput() ? INCLUDE_RAW_OUTPUT_FLAG : 0)
+				| (payload != null ? PAYLOAD_FLAG : 0)));
+		frame.putInt(commandRequest.getPriority());
+		frame.putInt((int) Math.min(Integer.MAX_VALUE, commandRequest.getDeadlineMillis()));
+		frame.putInt((int) Math.min(Integer.MAX_VALUE, commandRequest.getCommandTimeoutMillis()));
+		putString(frame, deviceId);
+		if (payload != null) {
+			frame.putInt(payload.length);
+			frame.put(payload);
+		} else {
+			frame.put((byte) parameters.size());
+			for (byte[] parameter : parameters) {
+				putString(frame, parameter);
+			}
+		}
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Decode a request , The frame is positioned after the correlation id
+	 * 
+	 * @param frame
+	 *            The frame (A heap buffer)
+	 * @return The command request
+	 * @throws IllegalArgumentException
+	 *             If the command id is not registered , Or a length does not
+	 *             fit in the frame
+	 * @throws java.nio.BufferUnderflowException
+	 *             If the frame is truncated
+	 */
+	public static CommandRequest decodeRequest(final ByteBuffer frame) {
+		final int commandId = frame.getShort();
+		final SerialCommand command = CommandRegistry.getDefault().getCommand(commandId);
+		if (command == null) {
+			throw new IllegalArgumentException(String.format(UNKNOWN_COMMAND_ERROR_MESSAGE, commandId));
+		}
+		final CommandRequest cr = new CommandRequest();
+		cr.setCommand(command);
+		final byte flags = frame.get();
+		cr.setIncludeRawOutput((flags & INCLUDE_RAW_OUTPUT_FLAG) != 0);
+		cr.setPriority(frame.getInt());
+		cr.setDeadlineMillis(frame.getInt());
+		cr.setCommandTimeoutMillis(frame.getInt());
+		final String deviceId = getString(frame);
+		cr.setDeviceId(deviceId.isEmpty() ? null : deviceId);
+		if ((flags & PAYLOAD_FLAG) != 0) {
+			final byte[] payload = new byte[checkLength(frame, frame.getInt())];
+			frame.get(payload);
+			cr.setCommandPayload(payload);
+			return cr;
+		}
+		final int parameterCount = frame.get() & MAX_PARAMETERS;
+		if (parameterCount > 0) {
+			final List<String> parameters = new ArrayList<String>(parameterCount);
+			for (int i = 0; i < parameterCount; i++) {
+				parameters.add(getString(frame));
+			}
+			cr.setCommandParameters(parameters);
+		}
+		return cr;
+	}
+
+	/**
+	 * Encode the result of a request
+	 * 
+	 * @param correlationId
+	 *            The correlation id of the request
+	 * @param commandResult
+	 *            The command result
+	 * @return The frame , Ready to be written
+	 */
+	public static ByteBuffer encodeResult(final long correlationId, final CommandResult commandResult) {
+		final List<String> commandOutput = commandResult.getCommandOutput();
+		final int lineCount = commandOutput == null ? 0 : Math.min(commandOutput.size(), MAX_STRING_LENGTH);
+		final byte[][] lines = new byte[lineCount][];
+		final byte[] rawOutput = commandResult.getRawOutput();
+		int bodyLength = 1 + 1 + 1 + 8 + 2 + 4 + (rawOutput == null ? 0 : rawOutput.length);
+		for (int i = 0; i < lineCount; i++) {
+			lines[i] = encodeString(commandOutput.get(i));
+			bodyLength += 2 + lines[i].length;
+		}
+		final ByteBuffer frame = allocateFrame(bodyLength, correlationId);
+		frame.put(RESULT);
+		frame.put((byte) commandResult.getCommandStatus().ordinal());
+		frame.put((byte) (commandResult.getCacheStatus() == null ? 0 : commandResult.getCacheStatus().ordinal() + 1));
+		frame.putDouble(commandResult.getCommandDuration());
+		frame.putShort((short) lineCount);
+		for (byte[] line : lines) {
+			putString(frame, line);
+		}
+		if (rawOutput == null) {
+			frame.putInt(NO_RAW_OUTPUT);
+		} else {
+			frame.putInt(rawOutput.length);
+			frame.put(rawOutput);
+		}
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Encode the rejection of a request (see
+	 * {@link io.nirvagi.iot.serial.at.command.executor.CommandRejectedException})
+	 */
+	public static ByteBuffer encodeRejection(final long correlationId, final long retryAfterMillis,
+			final String message) {
+		final byte[] messageBytes = encodeString(message);
+		final ByteBuffer frame = allocateFrame(1 + 8 + 2 + messageBytes.length, correlationId);
+		frame.put(REJECTED);
+		frame.putLong(retryAfterMillis);
+		putString(frame, messageBytes);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Encode the failure of a request
+	 * 
+	 * @param correlationId
+	 *            The correlation id of the request
+	 * @param responseType
+	 *            {@link #INVALID} or {@link #ERROR}
+	 * @param message
+	 *            The error message
+	 * @return The frame , Ready to be written
+	 */
+	public static ByteBuffer encodeFailure(final long correlationId, final byte responseType, final String message) {
+		final byte[] messageBytes = encodeString(message);
+		final ByteBuffer frame = allocateFrame(1 + 2 + messageBytes.length, correlationId);
+		frame.put(responseType);
+		putString(frame, messageBytes);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Decode a result , The frame is positioned after the response type
+	 * 
+	 * @param frame
+	 *            The frame (A heap buffer)
+	 * @return The command result
+	 */
+	public static CommandResult decodeResult(final ByteBuffer frame) {
+		final CommandResult commandResult = new CommandResult();
+		commandResult.setCommandStatus(COMMAND_STATUSES[frame.get()]);
+		final int cacheStatus = frame.get();
+		commandResult.setCacheStatus(cacheStatus == 0 ? null : CACHE_STATUSES[cacheStatus - 1]);
+		commandResult.setCommandDuration(frame.getDouble());
+		final int lineCount = frame.getShort() & MAX_STRING_LENGTH;
+		final List<String> commandOutput = new ArrayList<String>(lineCount);
+		for (int i = 0; i < lineCount; i++) {
+			commandOutput.add(getString(frame));
+		}
+		commandResult.setCommandOutput(commandOutput);
+		final int rawOutputLength = frame.getInt();
+		if (rawOutputLength != NO_RAW_OUTPUT) {
+			final byte[] rawOutput = new byte[checkLength(frame, rawOutputLength)];
+			frame.get(rawOutput);
+			commandResult.setRawOutput(rawOutput);
+		}
+		return commandResult;
+	}
+
+	/**
+	 * Decode the message of a failed request , The frame is positioned after
+	 * the response type (And after the retry delay of a rejected request)
+	 */
+	public static String decodeMessage(final ByteBuffer frame) {
+		return getString(frame);
+	}
+
+}
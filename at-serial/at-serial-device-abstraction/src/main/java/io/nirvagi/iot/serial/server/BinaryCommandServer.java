@@ -0,0 +1,385 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.executor.CommandExecutor;
+import io.nirvagi.iot.serial.at.command.executor.CommandRejectedException;
+
+/**
+ * A TCP listener speaking the compact binary protocol of
+ * {@link BinaryCommandProtocol} , For the local clients the HTTP and JSON
+ * overhead of {@link ServerCommandProcessor} is too much for. The commands are
+ * sent to the same command executor as the HTTP requests.
+ * 
+ * A connection carries any number of requests at once , Every request is
+ * executed as soon as it is read and its response is written as soon as the
+ * command completes. The responses can come back in any order , The client
+ * matches them to the requests by the correlation id. A single selector
+ * thread accepts the connections and reads the requests , A response is
+ * written by the thread that completes the command and is only handed to the
+ * selector thread when the socket cannot take it at once
+ * 
+ * @author bharath
+ *
+ */
+public class BinaryCommandServer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BinaryCommandServer.class);
+	private static final String SELECTOR_THREAD_NAME = "binary-command-server";
+	private static final int INITIAL_READ_BUFFER_SIZE = 4096;
+	// A client that does not read its responses is dropped
+	private static final int MAX_QUEUED_RESPONSE_BYTES = 16 * BinaryCommandProtocol.MAX_FRAME_LENGTH;
+	private static final int CORRELATION_ID_SIZE = 8;
+	private static final String TRUNCATED_FRAME_ERROR_MESSAGE = "The request frame is truncated";
+	private static final String MALFORMED_FRAME_ERROR_MESSAGE = "The request frame is malformed";
+	private static final String GENERIC_ERROR_MESSAGE = "An error has occurred while processing your request";
+	private final CommandExecutor commandExecutor;
+	private final int port;
+	// The connections with responses waiting for the socket to become writable
+	private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private volatile boolean stopped;
+
+	/**
+	 * A client connection
+	 */
+	private final class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey selectionKey;
+		// Only used by the selector thread
+		private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+		// The fields below are guarded by this
+		private final Deque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+		private int queuedBytes;
+		private boolean closed;
+
+		Connection(final SocketChannel channel, final SelectionKey selectionKey) {
+			this.channel = channel;
+			this.selectionKey = selectionKey;
+		}
+
+		/**
+		 * Read the available data and dispatch the complete frames
+		 */
+		void read() throws IOException {
+			if (this.channel.read(this.readBuffer) < 0) {
+				this.close();
+				return;
+			}
+			this.readBuffer.flip();
+			while (this.readBuffer.remaining() >= BinaryCommandProtocol.LENGTH_FIELD_SIZE) {
+				final int frameLength = this.readBuffer.getInt(this.readBuffer.position());
+				if (frameLength < CORRELATION_ID_SIZE || frameLength > BinaryCommandProtocol.MAX_FRAME_LENGTH) {
+					LOGGER.debug("Closing the connection of {} , Invalid frame length {}",
+							this.channel.getRemoteAddress(), frameLength);
+					this.close();
+					return;
+				}
+				if (this.readBuffer.remaining() < BinaryCommandProtocol.LENGTH_FIELD_SIZE + frameLength) {
+					break;
+				}
+				this.readBuffer.position(this.readBuffer.position() + BinaryCommandProtocol.LENGTH_FIELD_SIZE);
+				final ByteBuffer frame = this.readBuffer.slice();
+				frame.limit(frameLength);
+				this.readBuffer.position(this.readBuffer.position() + frameLength);
+				dispatch(this, frame);
+			}
+			this.readBuffer.compact();
+			// Make room for a frame larger than the buffer
+			if (this.readBuffer.position() >= BinaryCommandProtocol.LENGTH_FIELD_SIZE) {
+				final int requiredSize = BinaryCommandProtocol.LENGTH_FIELD_SIZE + this.readBuffer.getInt(0);
+				if (requiredSize > this.readBuffer.capacity()) {
+					final ByteBuffer largerBuffer = ByteBuffer.allocate(requiredSize);
+					this.readBuffer.flip();
+					largerBuffer.put(this.readBuffer);
+					this.readBuffer = largerBuffer;
+				}
+			}
+		}
+
+		/**
+		 * Send a response , Written at once unless earlier responses are still
+		 * queued or the socket is full
+		 */
+		synchronized void send(final ByteBuffer frame) {
+			if (this.closed) {
+				return;
+			}
+			if (this.writeQueue.isEmpty()) {
+				try {
+					this.channel.write(frame);
+				} catch (IOException err) {
+					LOGGER.debug("Unable to write a response , The client has gone away", err);
+					this.close();
+					return;
+				}
+				if (frame.hasRemaining() == false) {
+					return;
+				}
+			}
+			this.queuedBytes += frame.remaining();
+			if (this.queuedBytes > MAX_QUEUED_RESPONSE_BYTES) {
+				LOGGER.debug("Closing a connection that does not read its responses");
+				this.close();
+				return;
+			}
+			this.writeQueue.addLast(frame);
+			if (this.writeQueue.size() == 1) {
+				pendingWrites.add(this);
+				selector.wakeup();
+			}
+		}
+
+		/**
+		 * Wait for the socket to become writable , Called from the selector
+		 * thread
+		 */
+		synchronized void enableWrite() {
+			if (this.closed == false && this.writeQueue.isEmpty() == false) {
+				this.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Write the queued responses , Called from the selector thread once the
+		 * socket is writable
+		 */
+		synchronized void write() throws IOException {
+			while (this.writeQueue.isEmpty() == false) {
+				final ByteBuffer frame = this.writeQueue.peekFirst();
+				this.queuedBytes -= this.channel.write(frame);
+				if (frame.hasRemaining()) {
+					return;
+				}
+				this.writeQueue.removeFirst();
+			}
+			this.selectionKey.interestOps(SelectionKey.OP_READ);
+		}
+
+		synchronized void close() {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			this.writeQueue.clear();
+			this.selectionKey.cancel();
+			try {
+				this.channel.close();
+			} catch (IOException err) {
+				LOGGER.debug("Unable to close a connection", err);
+			}
+		}
+	}
+
+	/**
+	 * Build the listener , It does not listen until started
+	 * 
+	 * @param commandExecutor
+	 *            The executor the command requests are sent to
+	 * @param port
+	 *            The TCP port to listen on , 0 for any free port
+	 */
+	public BinaryCommandServer(final CommandExecutor commandExecutor, final int port) {
+		this.commandExecutor = commandExecutor;
+		this.port = port;
+	}
+
+	/**
+	 * Send the response of a request once its command completes
+	 */
+	private void respond(final Connection connection, final long correlationId, final CommandResult result,
+			Throwable err) {
+		if (err == null) {
+			connection.send(BinaryCommandProtocol.encodeResult(correlationId, result));
+			return;
+		}
+		if (err instanceof CompletionException && err.getCause() != null) {
+			err = err.getCause();
+		}
+		if (err instanceof IllegalArgumentException) {
+			connection.send(BinaryCommandProtocol.encodeFailure(correlationId, BinaryCommandProtocol.INVALID,
+					err.getMessage()));
+			return;
+		}
+		if (err instanceof CommandRejectedException) {
+			connection.send(BinaryCommandProtocol.encodeRejection(correlationId,
+					((CommandRejectedException) err).getRetryAfterMillis(), err.getMessage()));
+			return;
+		}
+		LOGGER.debug("The command {} failed", correlationId, err);
+		connection.send(
+				BinaryCommandProtocol.encodeFailure(correlationId, BinaryCommandProtocol.ERROR, GENERIC_ERROR_MESSAGE));
+	}
+
+	/**
+	 * Execute the request of a frame , The frame is positioned after the
+	 * length
+	 */
+	private void dispatch(final Connection connection, final ByteBuffer frame) {
+		final long correlationId = frame.getLong();
+		final CommandRequest commandRequest;
+		try {
+			commandRequest = BinaryCommandProtocol.decodeRequest(frame);
+		} catch (BufferUnderflowException err) {
+			connection.send(BinaryCommandProtocol.encodeFailure(correlationId, BinaryCommandProtocol.INVALID,
+					TRUNCATED_FRAME_ERROR_MESSAGE));
+			return;
+		} catch (IllegalArgumentException err) {
+			connection.send(BinaryCommandProtocol.encodeFailure(correlationId, BinaryCommandProtocol.INVALID,
+					err.getMessage()));
+			return;
+		} catch (RuntimeException err) {
+			// A bad frame must not stop the selector thread serving every connection
+			LOGGER.debug("Unable to decode the request {}", correlationId, err);
+			connection.send(BinaryCommandProtocol.encodeFailure(correlationId, BinaryCommandProtocol.INVALID,
+					MALFORMED_FRAME_ERROR_MESSAGE));
+			return;
+		}
+		try {
+			this.commandExecutor.executeAsync(commandRequest)
+					.whenComplete((result, err) -> this.respond(connection, correlationId, result, err));
+		} catch (RuntimeException err) {
+			this.respond(connection, correlationId, null, err);
+		}
+	}
+
+	private void accept() throws IOException {
+		final SocketChannel channel = this.serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		// The responses are small , They must not wait for more data
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		final SelectionKey selectionKey = channel.register(this.selector, SelectionKey.OP_READ);
+		selectionKey.attach(new Connection(channel, selectionKey));
+		LOGGER.debug("Accepted the binary command connection of {}", channel.getRemoteAddress());
+	}
+
+	private void select() throws IOException {
+		this.selector.select();
+		Connection connection;
+		while ((connection = this.pendingWrites.poll()) != null) {
+			connection.enableWrite();
+		}
+		final Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
+		while (selectedKeys.hasNext()) {
+			final SelectionKey selectionKey = selectedKeys.next();
+			selectedKeys.remove();
+			if (selectionKey.isValid() == false) {
+				continue;
+			}
+			if (selectionKey.isAcceptable()) {
+				this.accept();
+				continue;
+			}
+			connection = (Connection) selectionKey.attachment();
+			try {
+				if (selectionKey.isReadable()) {
+					connection.read();
+				}
+				if (selectionKey.isValid() && selectionKey.isWritable()) {
+					connection.write();
+				}
+			} catch (IOException err) {
+				LOGGER.debug("Closing a binary command connection", err);
+				connection.close();
+			} catch (RuntimeException err) {
+				LOGGER.error("Closing a binary command connection that could not be served", err);
+				connection.close();
+			}
+		}
+	}
+
+	private void runSelector() {
+		while (this.stopped == false) {
+			try {
+				this.select();
+			} catch (IOException err) {
+				LOGGER.error("The binary command listener failed to select", err);
+			}
+		}
+		for (SelectionKey selectionKey : this.selector.keys()) {
+			if (selectionKey.attachment() instanceof Connection) {
+				((Connection) selectionKey.attachment()).close();
+			}
+		}
+		try {
+			this.serverChannel.close();
+			this.selector.close();
+		} catch (IOException err) {
+			LOGGER.debug("Unable to close the binary command listener", err);
+		}
+	}
+
+	/**
+	 * Start listening
+	 * 
+	 * @throws IOException
+	 *             If the port cannot be bound
+	 */
+	public void start() throws IOException {
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(this.port));
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+		final Thread selectorThread = new Thread(this::runSelector, SELECTOR_THREAD_NAME);
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		LOGGER.debug("Listening for binary commands on {}", this.serverChannel.getLocalAddress());
+	}
+
+	/**
+	 * Stop listening and close the connections , The commands in flight are
+	 * not cancelled
+	 */
+	public void stop() {
+		this.stopped = true;
+		this.selector.wakeup();
+	}
+
+	/**
+	 * @return The port the listener is bound to
+	 * @throws IOException
+	 *             If the listener is not bound
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) this.serverChannel.getLocalAddress()).getPort();
+	}
+
+}
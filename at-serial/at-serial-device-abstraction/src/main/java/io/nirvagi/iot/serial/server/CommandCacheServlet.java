@@ -0,0 +1,70 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import io.nirvagi.iot.serial.at.command.executor.RoutingCommandExecutor;
+
+/**
+ * A servlet that drops the cached command results of a device , A DELETE
+ * request drops the cached results of the device named by the device request
+ * parameter , Or of all the devices if the parameter is left out. To be used
+ * when the device state is known to have changed outside the agent
+ * 
+ * @author bharath
+ *
+ */
+public class CommandCacheServlet extends HttpServlet {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -6208457351186208346L;
+	private static final String DEVICE_PARAMETER = "device";
+
+	private final RoutingCommandExecutor commandExecutor;
+
+	/**
+	 * Build the servlet
+	 * 
+	 * @param commandExecutor
+	 *            The executor routing the commands to the devices
+	 */
+	public CommandCacheServlet(final RoutingCommandExecutor commandExecutor) {
+		this.commandExecutor = commandExecutor;
+	}
+
+	protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final String deviceId = request.getParameter(DEVICE_PARAMETER);
+		if (deviceId == null) {
+			this.commandExecutor.invalidateCache();
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			return;
+		}
+		try {
+			this.commandExecutor.getDeviceExecutor(deviceId).invalidateCache();
+		} catch (IllegalArgumentException err) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, err.getMessage());
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+	}
+
+}
@@ -0,0 +1,372 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import io.nirvagi.iot.serial.at.command.CommandRequest;
+import io.nirvagi.iot.serial.at.command.CommandResult;
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.iot.serial.util.ByteUtil;
+import io.nirvagi.serial.command.SerialCommand;
+
+/**
+ * A streaming JSON codec for the command requests and the command results ,
+ * The requests are read token by token and the results are written field by
+ * field , No JSON tree is built. A request body is decoded into a string once
+ * it has been received in full (see {@link #newJsonReader(byte[], int, int)}) ,
+ * It is not parsed while it arrives. The command names are resolved through
+ * the {@link CommandRegistry}
+ * 
+ * The results are encoded into a buffer (And through a character encoder)
+ * kept per thread , So encoding a result only allocates the bytes handed to
+ * the response. The format is the one of {@link CommandRequestDesierializer}
+ * and of Gson for the results , Except that the JSON is parsed strictly
+ * 
+ * @author bharath
+ *
+ */
+public class CommandCodec {
+	private static final String COMMAND_FIELD = "command";
+	private static final String DEVICE_ID_FIELD = "deviceId";
+	private static final String PRIORITY_FIELD = "priority";
+	private static final String DEADLINE_FIELD = "deadlineMillis";
+	private static final String COMMAND_TIMEOUT_FIELD = "commandTimeoutMillis";
+	private static final String INCLUDE_RAW_OUTPUT_FIELD = "includeRawOutput";
+	private static final String COMMAND_PARAMETERS_FIELD = "commandParameters";
+	private static final String PAYLOAD_HEX_FIELD = "commandPayloadHex";
+	private static final String PAYLOAD_BASE64_FIELD = "commandPayloadBase64";
+	private static final String COMMAND_STATUS_FIELD = "commandStatus";
+	private static final String COMMAND_DURATION_FIELD = "commandDuration";
+	private static final String COMMAND_OUTPUT_FIELD = "commandOutput";
+	private static final String CACHE_STATUS_FIELD = "cacheStatus";
+	private static final String RAW_OUTPUT_FIELD = "rawOutput";
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+	// A buffer grown beyond this by a large result is not kept
+	private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+	private static final String COMMAND_NOT_SET_ERROR_MESSAGE = "The command is not set";
+	private static final String TRAILING_DATA_ERROR_MESSAGE = "Unexpected data after the command request";
+	private static final String PAYLOAD_CONFLICT_ERROR_MESSAGE = "Only one of commandParameters , commandPayloadHex and commandPayloadBase64 can be set";
+	private static final String MALFORMED_PAYLOAD_ERROR_MESSAGE = "The command payload is malformed , %s";
+	private static final String NOT_REGISTERED_ERROR_MESSAGE = "The command %s is not registered , Please make sure that it is built in or defined in the command definitions file";
+
+	/**
+	 * A byte array output stream whose buffer can be checked for its size
+	 */
+	private static final class ResultBuffer extends ByteArrayOutputStream {
+		ResultBuffer() {
+			super(INITIAL_BUFFER_SIZE);
+		}
+
+		int capacity() {
+			return this.buf.length;
+		}
+	}
+
+	/**
+	 * The buffer and the character encoder reused by a thread
+	 */
+	private static final class ResultEncoder {
+		private final ResultBuffer buffer = new ResultBuffer();
+		// The JSON writer writes in small pieces , The character encoder is fed in blocks
+		private final Writer writer = new BufferedWriter(
+				new OutputStreamWriter(this.buffer, StandardCharsets.UTF_8));
+	}
+
+	private final ThreadLocal<ResultEncoder> resultEncoders = ThreadLocal.withInitial(ResultEncoder::new);
+
+	/**
+	 * Build a reader of a request body , The body is decoded at once (A small
+	 * body does not warrant the block buffer of a streaming decoder)
+	 * 
+	 * @param body
+	 *            The UTF-8 encoded body
+	 * @param offset
+	 *            The offset of the body
+	 * @param length
+	 *            The length of the body
+	 * @return The reader
+	 */
+	public static JsonReader newJsonReader(final byte[] body, final int offset, final int length) {
+		return new JsonReader(new StringReader(new String(body, offset, length, StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Read a string value , A JSON null reads as null
+	 */
+	private static String nextString(final JsonReader jsonReader) throws IOException {
+		if (jsonReader.peek() == JsonToken.NULL) {
+			jsonReader.nextNull();
+			return null;
+		}
+		return jsonReader.nextString();
+	}
+
+	private static List<String> readCommandParameters(final JsonReader jsonReader) throws IOException {
+		final List<String> commandParameters = new ArrayList<String>();
+		jsonReader.beginArray();
+		while (jsonReader.hasNext()) {
+			commandParameters.add(jsonReader.nextString());
+		}
+		jsonReader.endArray();
+		return commandParameters;
+	}
+
+	private static byte[] decodePayload(final String payloadHex, final String payloadBase64) {
+		try {
+			if (payloadHex != null) {
+				return ByteUtil.decodeHex(payloadHex);
+			}
+			return Base64.getDecoder().decode(payloadBase64);
+		} catch (IllegalArgumentException err) {
+			throw new JsonParseException(String.format(MALFORMED_PAYLOAD_ERROR_MESSAGE, err.getMessage()));
+		}
+	}
+
+	private CommandRequest readRequestObject(final JsonReader jsonReader) throws IOException {
+		final CommandRequest cr = new CommandRequest();
+		List<String> commandParameters = null;
+		String payloadHex = null;
+		String payloadBase64 = null;
+		jsonReader.beginObject();
+		while (jsonReader.hasNext()) {
+			final String fieldName = jsonReader.nextName();
+			if (jsonReader.peek() == JsonToken.NULL) {
+				jsonReader.nextNull();
+				continue;
+			}
+			switch (fieldName) {
+			case COMMAND_FIELD:
+				final String commandName = jsonReader.nextString();
+				final SerialCommand command = CommandRegistry.getDefault().getCommand(commandName);
+				if (command == null) {
+					throw new JsonParseException(String.format(NOT_REGISTERED_ERROR_MESSAGE, commandName));
+				}
+				cr.setCommand(command);
+				break;
+			case DEVICE_ID_FIELD:
+				cr.setDeviceId(jsonReader.nextString());
+				break;
+			case PRIORITY_FIELD:
+				cr.setPriority(jsonReader.nextInt());
+				break;
+			case DEADLINE_FIELD:
+				cr.setDeadlineMillis(jsonReader.nextLong());
+				break;
+			case COMMAND_TIMEOUT_FIELD:
+				cr.setCommandTimeoutMillis(jsonReader.nextLong());
+				break;
+			case INCLUDE_RAW_OUTPUT_FIELD:
+				cr.setIncludeRawOutput(jsonReader.nextBoolean());
+				break;
+			case COMMAND_PARAMETERS_FIELD:
+				commandParameters = readCommandParameters(jsonReader);
+				break;
+			case PAYLOAD_HEX_FIELD:
+				payloadHex = nextString(jsonReader);
+				break;
+			case PAYLOAD_BASE64_FIELD:
+				payloadBase64 = nextString(jsonReader);
+				break;
+			default:
+				jsonReader.skipValue();
+			}
+		}
+		jsonReader.endObject();
+		if (cr.getCommand() == null) {
+			throw new JsonParseException(COMMAND_NOT_SET_ERROR_MESSAGE);
+		}
+		if (payloadHex != null || payloadBase64 != null) {
+			if (commandParameters != null || (payloadHex != null && payloadBase64 != null)) {
+				throw new JsonParseException(PAYLOAD_CONFLICT_ERROR_MESSAGE);
+			}
+			cr.setCommandPayload(decodePayload(payloadHex, payloadBase64));
+		} else if (commandParameters != null) {
+			cr.setCommandParameters(commandParameters);
+		}
+		return cr;
+	}
+
+	private static void endDocument(final JsonReader jsonReader) throws IOException {
+		if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+			throw new JsonSyntaxException(TRAILING_DATA_ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Read a document holding a single command request
+	 * 
+	 * @param jsonReader
+	 *            The reader of the document
+	 * @return The command request
+	 * @throws IOException
+	 *             If the document cannot be read or is not valid JSON
+	 *             (MalformedJsonException)
+	 * @throws JsonParseException
+	 *             If the command request is not valid
+	 */
+	public CommandRequest readRequest(final JsonReader jsonReader) throws IOException {
+		final CommandRequest cr = this.readRequestObject(jsonReader);
+		endDocument(jsonReader);
+		return cr;
+	}
+
+	/**
+	 * Read a document holding a batch (A JSON array) of command requests
+	 * 
+	 * @param jsonReader
+	 *            The reader of the document
+	 * @return The command requests in order
+	 * @throws IOException
+	 *             If the document cannot be read or is not valid JSON
+	 *             (MalformedJsonException)
+	 * @throws JsonParseException
+	 *             If a command request is not valid
+	 */
+	public List<CommandRequest> readBatch(final JsonReader jsonReader) throws IOException {
+		final List<CommandRequest> batch = new ArrayList<CommandRequest>();
+		jsonReader.beginArray();
+		while (jsonReader.hasNext()) {
+			batch.add(this.readRequestObject(jsonReader));
+		}
+		jsonReader.endArray();
+		endDocument(jsonReader);
+		return batch;
+	}
+
+	/**
+	 * Write a command result , The fields that are not set are left out
+	 * 
+	 * @param jsonWriter
+	 *            The writer
+	 * @param commandResult
+	 *            The command result
+	 * @throws IOException
+	 *             If the writer fails
+	 */
+	public void writeResult(final JsonWriter jsonWriter, final CommandResult commandResult) throws IOException {
+		jsonWriter.beginObject();
+		if (commandResult.getCommandStatus() != null) {
+			jsonWriter.name(COMMAND_STATUS_FIELD).value(commandResult.getCommandStatus().name());
+		}
+		jsonWriter.name(COMMAND_DURATION_FIELD).value(commandResult.getCommandDuration());
+		if (commandResult.getCommandOutput() != null) {
+			jsonWriter.name(COMMAND_OUTPUT_FIELD).beginArray();
+			for (String line : commandResult.getCommandOutput()) {
+				jsonWriter.value(line);
+			}
+			jsonWriter.endArray();
+		}
+		if (commandResult.getCacheStatus() != null) {
+			jsonWriter.name(CACHE_STATUS_FIELD).value(commandResult.getCacheStatus().name());
+		}
+		if (commandResult.getRawOutput() != null) {
+			jsonWriter.name(RAW_OUTPUT_FIELD).value(Base64.getEncoder().encodeToString(commandResult.getRawOutput()));
+		}
+		jsonWriter.endObject();
+	}
+
+	/**
+	 * Write the command results of a batch as a JSON array
+	 * 
+	 * @param jsonWriter
+	 *            The writer
+	 * @param commandResults
+	 *            The command results in order
+	 * @throws IOException
+	 *             If the writer fails
+	 */
+	public void writeResults(final JsonWriter jsonWriter, final List<CommandResult> commandResults)
+			throws IOException {
+		jsonWriter.beginArray();
+		for (CommandResult commandResult : commandResults) {
+			this.writeResult(jsonWriter, commandResult);
+		}
+		jsonWriter.endArray();
+	}
+
+	/**
+	 * Encode a command result (or a batch of them) with the encoder of the
+	 * calling thread
+	 */
+	private byte[] encode(final CommandResult commandResult, final List<CommandResult> commandResults) {
+		final ResultEncoder resultEncoder = this.resultEncoders.get();
+		resultEncoder.buffer.reset();
+		boolean isEncoded = false;
+		try {
+			// A JSON writer holds a single document , It is not reusable
+			final JsonWriter jsonWriter = new JsonWriter(resultEncoder.writer);
+			if (commandResults == null) {
+				this.writeResult(jsonWriter, commandResult);
+			} else {
+				this.writeResults(jsonWriter, commandResults);
+			}
+			jsonWriter.flush();
+			isEncoded = true;
+		} catch (IOException err) {
+			throw new UncheckedIOException(err);
+		} finally {
+			// The character encoder may hold a part of the failed result
+			if (isEncoded == false) {
+				this.resultEncoders.remove();
+			}
+		}
+		final byte[] encodedResult = resultEncoder.buffer.toByteArray();
+		if (resultEncoder.buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+			this.resultEncoders.remove();
+		}
+		return encodedResult;
+	}
+
+	/**
+	 * Encode a command result
+	 * 
+	 * @param commandResult
+	 *            The command result
+	 * @return The UTF-8 encoded JSON
+	 */
+	public byte[] encodeResult(final CommandResult commandResult) {
+		return this.encode(commandResult, null);
+	}
+
+	/**
+	 * Encode the command results of a batch
+	 * 
+	 * @param commandResults
+	 *            The command results in order
+	 * @return The UTF-8 encoded JSON array
+	 */
+	public byte[] encodeResults(final List<CommandResult> commandResults) {
+		return this.encode(null, commandResults);
+	}
+
+}
@@ -17,6 +17,7 @@ package io.nirvagi.iot.serial.server;
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Iterator;
 import java.util.List;
 
@@ -28,11 +29,26 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 
 import io.nirvagi.iot.serial.at.command.CommandRequest;
-import io.nirvagi.serial.command.ATSerialCommand;
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.iot.serial.util.ByteUtil;
 import io.nirvagi.serial.command.SerialCommand;
 
+/**
+ * Deserializer for a command request . A batch of command requests is a JSON
+ * array of command requests , Each element of the array is deserialized by
+ * this class (parse it as CommandRequest[])
+ * 
+ * A raw command payload is given either as a hex string (commandPayloadHex)
+ * or as a base64 string (commandPayloadBase64) , In place of the command
+ * parameters
+ * 
+ * @author bharath
+ *
+ */
 public class CommandRequestDesierializer implements JsonDeserializer<CommandRequest> {
-	private static final String NOT_REGISTERED_ERROR_MESSAGE = "The command %s is not registered , Please make sure that it is added to ATSerialCommand and the module is recompiled";
+	private static final String PAYLOAD_CONFLICT_ERROR_MESSAGE = "Only one of commandParameters , commandPayloadHex and commandPayloadBase64 can be set";
+	private static final String MALFORMED_PAYLOAD_ERROR_MESSAGE = "The command payload is malformed , %s";
+	private static final String NOT_REGISTERED_ERROR_MESSAGE = "The command %s is not registered , Please make sure that it is built in or defined in the command definitions file";
 
 	private List<String> getCommandParams(final JsonArray jsonArray) {
 		final List<String> jsonArrayData = new ArrayList<String>();
@@ -47,21 +63,58 @@ public class CommandRequestDesierializer implements JsonDeserializer<CommandRequ
 		return jsonArrayData;
 	}
 
+	private byte[] getCommandPayload(final JsonElement payloadHexElement, final JsonElement payloadBase64Element) {
+		try {
+			if (payloadHexElement != null) {
+				return ByteUtil.decodeHex(payloadHexElement.getAsString());
+			}
+			return Base64.getDecoder().decode(payloadBase64Element.getAsString());
+		} catch (IllegalArgumentException err) {
+			throw new JsonParseException(String.format(MALFORMED_PAYLOAD_ERROR_MESSAGE, err.getMessage()));
+		}
+	}
+
 	public CommandRequest deserialize(JsonElement json, Type type, JsonDeserializationContext context)
 			throws JsonParseException {
 		final JsonObject object = json.getAsJsonObject();
-		SerialCommand command = null;
 		final String commandNameString = object.get("command").getAsString();
-		try {
-			command = ATSerialCommand.valueOf(commandNameString);	
-		} catch (IllegalArgumentException err) {
-			System.err.println(err.getMessage());
+		final SerialCommand command = CommandRegistry.getDefault().getCommand(commandNameString);
+		if (command == null) {
 			throw new JsonParseException(String.format(NOT_REGISTERED_ERROR_MESSAGE, commandNameString));
 		}
 		final CommandRequest cr = new CommandRequest();
 		cr.setCommand(command);
+		final JsonElement deviceIdElement = object.get("deviceId");
+		if (deviceIdElement != null) {
+			cr.setDeviceId(deviceIdElement.getAsString());
+		}
+		final JsonElement priorityElement = object.get("priority");
+		if (priorityElement != null) {
+			cr.setPriority(priorityElement.getAsInt());
+		}
+		final JsonElement deadlineElement = object.get("deadlineMillis");
+		if (deadlineElement != null) {
+			cr.setDeadlineMillis(deadlineElement.getAsLong());
+		}
+		final JsonElement commandTimeoutElement = object.get("commandTimeoutMillis");
+		if (commandTimeoutElement != null) {
+			cr.setCommandTimeoutMillis(commandTimeoutElement.getAsLong());
+		}
+		final JsonElement includeRawOutputElement = object.get("includeRawOutput");
+		if (includeRawOutputElement != null) {
+			cr.setIncludeRawOutput(includeRawOutputElement.getAsBoolean());
+		}
 		List<String> commandParameters = null;
 		final JsonElement commandParamsElement = object.get("commandParameters");
+		final JsonElement payloadHexElement = object.get("commandPayloadHex");
+		final JsonElement payloadBase64Element = object.get("commandPayloadBase64");
+		if (payloadHexElement != null || payloadBase64Element != null) {
+			if (commandParamsElement != null || (payloadHexElement != null && payloadBase64Element != null)) {
+				throw new JsonParseException(PAYLOAD_CONFLICT_ERROR_MESSAGE);
+			}
+			cr.setCommandPayload(this.getCommandPayload(payloadHexElement, payloadBase64Element));
+			return cr;
+		}
 		if (commandParamsElement == null) {
 			return cr;
 		} else {
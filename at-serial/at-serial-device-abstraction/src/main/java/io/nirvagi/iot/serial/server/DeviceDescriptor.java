@@ -0,0 +1,72 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+/**
+ * A holder describing a serial device attached to the agent . The device id is
+ * the name clients use to route their commands to the device
+ * 
+ * @author bharath
+ *
+ */
+public class DeviceDescriptor {
+	private static final String DESCRIPTOR_SEPERATOR = ",";
+	private static final String MALFORMED_DESCRIPTOR_ERROR_MESSAGE = "The device %s is malformed , It must be of the form <deviceId>,<portDescriptor>,<baudRate>";
+	private final String deviceId;
+	private final String portDescriptor;
+	private final int baudRate;
+
+	public DeviceDescriptor(final String deviceId, final String portDescriptor, final int baudRate) {
+		this.deviceId = deviceId;
+		this.portDescriptor = portDescriptor;
+		this.baudRate = baudRate;
+	}
+
+	/**
+	 * Parse a device descriptor
+	 * 
+	 * @param device
+	 *            The device of the form
+	 *            &lt;deviceId&gt;,&lt;portDescriptor&gt;,&lt;baudRate&gt; (for
+	 *            example zb1,/dev/ttyUSB0,19200)
+	 * @return The device descriptor
+	 */
+	public static DeviceDescriptor parse(final String device) {
+		final String[] deviceFields = device.split(DESCRIPTOR_SEPERATOR);
+		if (deviceFields.length != 3) {
+			throw new IllegalArgumentException(String.format(MALFORMED_DESCRIPTOR_ERROR_MESSAGE, device));
+		}
+		try {
+			return new DeviceDescriptor(deviceFields[0].trim(), deviceFields[1].trim(),
+					Integer.parseInt(deviceFields[2].trim()));
+		} catch (NumberFormatException err) {
+			throw new IllegalArgumentException(String.format(MALFORMED_DESCRIPTOR_ERROR_MESSAGE, device));
+		}
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public String getPortDescriptor() {
+		return portDescriptor;
+	}
+
+	public int getBaudRate() {
+		return baudRate;
+	}
+
+}
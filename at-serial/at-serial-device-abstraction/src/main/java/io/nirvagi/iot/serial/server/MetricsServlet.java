@@ -0,0 +1,63 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import io.nirvagi.iot.serial.metrics.DeviceMetrics;
+import io.nirvagi.iot.serial.metrics.PrometheusTextFormat;
+
+/**
+ * A servlet that exposes the metrics of all the devices in the Prometheus text
+ * exposition format , To be scraped by a Prometheus server (Or read by a
+ * human)
+ * 
+ * @author bharath
+ *
+ */
+public class MetricsServlet extends HttpServlet {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4511530946826152497L;
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
+	private final Map<String, DeviceMetrics> deviceMetrics;
+
+	/**
+	 * Build the servlet
+	 * 
+	 * @param deviceMetrics
+	 *            The device metrics keyed by the device id
+	 */
+	public MetricsServlet(final Map<String, DeviceMetrics> deviceMetrics) {
+		this.deviceMetrics = deviceMetrics;
+	}
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final StringBuilder metrics = new StringBuilder(INITIAL_BUFFER_SIZE);
+		PrometheusTextFormat.write(this.deviceMetrics, metrics);
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(PrometheusTextFormat.CONTENT_TYPE);
+		response.getWriter().write(metrics.toString());
+	}
+
+}
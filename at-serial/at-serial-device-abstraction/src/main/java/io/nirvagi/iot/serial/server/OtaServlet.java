@@ -0,0 +1,146 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+
+import io.nirvagi.iot.serial.at.command.executor.ATSerialCommandExecutor;
+import io.nirvagi.iot.serial.at.command.ota.OtaImage;
+import io.nirvagi.iot.serial.at.command.ota.OtaTransfer;
+
+/**
+ * A servlet that controls the OTA transfers of the devices . A POST request
+ * starts serving the image file named by the image request parameter (The
+ * window request parameter bounds the block responses in flight) , A GET
+ * request returns the progress of the transfer and a DELETE request stops it.
+ * The device request parameter names the device , It can be left out when the
+ * agent drives a single device
+ * 
+ * @author bharath
+ *
+ */
+public class OtaServlet extends HttpServlet {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2385186270914736530L;
+	private static final String DEVICE_PARAMETER = "device";
+	private static final String IMAGE_PARAMETER = "image";
+	private static final String WINDOW_PARAMETER = "window";
+	private static final String RESPONSE_CONTENT_TYPE = "application/json";
+	private static final int DEFAULT_WINDOW_SIZE = 4;
+	private static final String DEVICE_NOT_SET_ERROR_MESSAGE = "The device parameter must be set when the agent drives more than one device";
+	private static final String DEVICE_NOT_FOUND_ERROR_MESSAGE = "No device is registered with the id %s";
+	private static final String IMAGE_NOT_SET_ERROR_MESSAGE = "The image parameter must be set";
+	private static final String IMAGE_UNREADABLE_ERROR_MESSAGE = "Unable to read the OTA image %s";
+	private static final String NO_TRANSFER_ERROR_MESSAGE = "The device is not serving an OTA image";
+
+	private final Map<String, ATSerialCommandExecutor> deviceExecutors;
+	private final Gson gson = new Gson();
+
+	/**
+	 * Build the servlet
+	 * 
+	 * @param deviceExecutors
+	 *            The device executors keyed by the device id
+	 */
+	public OtaServlet(final Map<String, ATSerialCommandExecutor> deviceExecutors) {
+		this.deviceExecutors = deviceExecutors;
+	}
+
+	private ATSerialCommandExecutor getDeviceExecutor(final HttpServletRequest request) {
+		final String deviceId = request.getParameter(DEVICE_PARAMETER);
+		if (deviceId == null) {
+			if (this.deviceExecutors.size() != 1) {
+				throw new IllegalArgumentException(DEVICE_NOT_SET_ERROR_MESSAGE);
+			}
+			return this.deviceExecutors.values().iterator().next();
+		}
+		final ATSerialCommandExecutor deviceExecutor = this.deviceExecutors.get(deviceId);
+		if (deviceExecutor == null) {
+			throw new IllegalArgumentException(String.format(DEVICE_NOT_FOUND_ERROR_MESSAGE, deviceId));
+		}
+		return deviceExecutor;
+	}
+
+	private void writeProgress(final HttpServletResponse response, final OtaTransfer otaTransfer)
+			throws IOException {
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(RESPONSE_CONTENT_TYPE);
+		response.getWriter().write(this.gson.toJson(otaTransfer.getProgress()));
+	}
+
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final String imagePath = request.getParameter(IMAGE_PARAMETER);
+		if (imagePath == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, IMAGE_NOT_SET_ERROR_MESSAGE);
+			return;
+		}
+		final ATSerialCommandExecutor deviceExecutor;
+		final OtaImage otaImage;
+		final int windowSize;
+		try {
+			deviceExecutor = this.getDeviceExecutor(request);
+			windowSize = request.getParameter(WINDOW_PARAMETER) == null ? DEFAULT_WINDOW_SIZE
+					: Integer.parseInt(request.getParameter(WINDOW_PARAMETER));
+			otaImage = OtaImage.open(imagePath);
+		} catch (IOException err) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, String.format(IMAGE_UNREADABLE_ERROR_MESSAGE, imagePath));
+			return;
+		} catch (IllegalArgumentException err) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, err.getMessage());
+			return;
+		}
+		try {
+			this.writeProgress(response, deviceExecutor.startOtaTransfer(otaImage, windowSize));
+		} catch (IllegalArgumentException err) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, err.getMessage());
+		}
+	}
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final OtaTransfer otaTransfer;
+		try {
+			otaTransfer = this.getDeviceExecutor(request).getOtaTransfer();
+		} catch (IllegalArgumentException err) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, err.getMessage());
+			return;
+		}
+		if (otaTransfer == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, NO_TRANSFER_ERROR_MESSAGE);
+			return;
+		}
+		this.writeProgress(response, otaTransfer);
+	}
+
+	protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		try {
+			this.getDeviceExecutor(request).stopOtaTransfer();
+		} catch (IllegalArgumentException err) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, err.getMessage());
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+	}
+
+}
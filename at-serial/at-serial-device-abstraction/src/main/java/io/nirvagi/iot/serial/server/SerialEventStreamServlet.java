@@ -0,0 +1,308 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nirvagi.iot.serial.at.command.observer.SerialEventBroadcaster;
+import io.nirvagi.iot.serial.at.command.observer.SerialEventSubscriber;
+import io.nirvagi.iot.serial.at.command.observer.SerialEventSubscriber.DropPolicy;
+
+/**
+ * A servlet that streams every line received from a serial device to the
+ * client as Server-Sent Events , Over one long lived connection. Unlike a
+ * listen command the client does not miss the lines that arrive between two
+ * requests.
+ * 
+ * The request parameters are
+ * <ul>
+ * <li>device - The device id , Can be left out when there is only one
+ * device</li>
+ * <li>prefix - Only the lines starting with the prefix are streamed , Can be
+ * repeated</li>
+ * <li>bufferSize - The number of lines buffered for the client</li>
+ * <li>dropPolicy - DROP_OLDEST or DROP_NEWEST , What is dropped when a slow
+ * client lets its buffer fill up</li>
+ * </ul>
+ * 
+ * Every line is sent as a data event. When lines are dropped a dropped event
+ * carrying the number of lines dropped is sent before the next line
+ * 
+ * The streams are written asynchronously , No server thread is parked on a
+ * client. The buffered lines are written when they arrive and for as long as
+ * the client keeps up , The rest is left to the buffer of the client
+ * 
+ * @author bharath
+ *
+ */
+public class SerialEventStreamServlet extends HttpServlet {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2920357420417566416L;
+	private static final Logger LOGGER = LoggerFactory.getLogger(SerialEventStreamServlet.class);
+	private static final String EVENT_STREAM_MEDIA_TYPE = "text/event-stream";
+	private static final String DEVICE_PARAMETER = "device";
+	private static final String PREFIX_PARAMETER = "prefix";
+	private static final String BUFFER_SIZE_PARAMETER = "bufferSize";
+	private static final String DROP_POLICY_PARAMETER = "dropPolicy";
+	private static final int DEFAULT_BUFFER_SIZE = 256;
+	private static final int MAX_BUFFER_SIZE = 4096;
+	private static final int KEEP_ALIVE_INTERVAL_IN_SECONDS = 15;
+	private static final String DATA_EVENT_FORMAT = "data: %s\n\n";
+	private static final String DROPPED_EVENT_FORMAT = "event: dropped\ndata: %d\n\n";
+	private static final String KEEP_ALIVE_COMMENT = ": keep-alive\n\n";
+
+	// ERROR MESSAGES
+	private static final String UNKNOWN_DEVICE_ERROR_MESSAGE = "The device is not known , The available devices are %s";
+	private static final String MALFORMED_REQUEST_ERROR_MESSAGE = "Bad Request , Please check the request parameters";
+
+	private final Map<String, SerialEventBroadcaster> deviceBroadcasters;
+	private ScheduledExecutorService eventStreamExecutor;
+
+	/**
+	 * Build the servlet
+	 * 
+	 * @param deviceBroadcasters
+	 *            The serial event broadcasters keyed by the device id
+	 */
+	public SerialEventStreamServlet(final Map<String, SerialEventBroadcaster> deviceBroadcasters) {
+		this.deviceBroadcasters = deviceBroadcasters;
+	}
+
+	private SerialEventBroadcaster getBroadcaster(final String deviceId) {
+		if (deviceId == null) {
+			return this.deviceBroadcasters.size() == 1 ? this.deviceBroadcasters.values().iterator().next() : null;
+		}
+		return this.deviceBroadcasters.get(deviceId);
+	}
+
+	private SerialEventSubscriber buildSubscriber(final HttpServletRequest request) {
+		final List<String> prefixes = new ArrayList<String>();
+		final String[] prefixParameters = request.getParameterValues(PREFIX_PARAMETER);
+		if (prefixParameters != null) {
+			for (String prefix : prefixParameters) {
+				// The serial lines are upper cased
+				prefixes.add(prefix.toUpperCase());
+			}
+		}
+		final String bufferSizeParameter = request.getParameter(BUFFER_SIZE_PARAMETER);
+		final int bufferSize = bufferSizeParameter == null ? DEFAULT_BUFFER_SIZE
+				: Math.min(Integer.parseInt(bufferSizeParameter), MAX_BUFFER_SIZE);
+		final String dropPolicyParameter = request.getParameter(DROP_POLICY_PARAMETER);
+		final DropPolicy dropPolicy = dropPolicyParameter == null ? DropPolicy.DROP_OLDEST
+				: DropPolicy.valueOf(dropPolicyParameter.toUpperCase());
+		return new SerialEventSubscriber(prefixes, bufferSize, dropPolicy);
+	}
+
+	/**
+	 * An event stream to a single client , The stream is drained on the event
+	 * stream thread when a line arrives and on a container thread when the
+	 * client is ready for more data
+	 */
+	private class EventStream implements WriteListener, AsyncListener, Runnable {
+		private final AsyncContext asyncContext;
+		private final ServletOutputStream out;
+		private final SerialEventBroadcaster broadcaster;
+		private final SerialEventSubscriber subscriber;
+		private final AtomicBoolean isDrainScheduled = new AtomicBoolean();
+		private volatile boolean isKeepAliveDue;
+		private ScheduledFuture<?> keepAliveTask;
+		private boolean isClosed;
+
+		EventStream(final AsyncContext asyncContext, final ServletOutputStream out,
+				final SerialEventBroadcaster broadcaster, final SerialEventSubscriber subscriber) {
+			this.asyncContext = asyncContext;
+			this.out = out;
+			this.broadcaster = broadcaster;
+			this.subscriber = subscriber;
+		}
+
+		synchronized void start() {
+			this.asyncContext.addListener(this);
+			// The container calls onWritePossible once , Which commits the
+			// headers. The output is non blocking before any line is drained
+			this.out.setWriteListener(this);
+			if (this.isClosed) {
+				return;
+			}
+			this.subscriber.setLineListener(this::scheduleDrain);
+			this.broadcaster.subscribe(this.subscriber);
+			this.keepAliveTask = eventStreamExecutor.scheduleAtFixedRate(() -> {
+				this.isKeepAliveDue = true;
+				this.scheduleDrain();
+			}, KEEP_ALIVE_INTERVAL_IN_SECONDS, KEEP_ALIVE_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+		}
+
+		/**
+		 * Called from the serial event thread , Only hands the stream over to
+		 * the event stream thread
+		 */
+		private void scheduleDrain() {
+			if (this.isDrainScheduled.compareAndSet(false, true)) {
+				try {
+					eventStreamExecutor.execute(this);
+				} catch (RejectedExecutionException err) {
+					this.close(true);
+				}
+			}
+		}
+
+		private String nextEvent() {
+			final long droppedLineCount = this.subscriber.drainDroppedLineCount();
+			if (droppedLineCount > 0) {
+				return String.format(DROPPED_EVENT_FORMAT, droppedLineCount);
+			}
+			final String line = this.subscriber.poll();
+			if (line != null) {
+				return String.format(DATA_EVENT_FORMAT, line);
+			}
+			if (this.isKeepAliveDue) {
+				this.isKeepAliveDue = false;
+				return KEEP_ALIVE_COMMENT;
+			}
+			return null;
+		}
+
+		/**
+		 * Write the buffered events for as long as the client can take them
+		 * without blocking , When the client can not the container calls
+		 * onWritePossible once it can
+		 */
+		private synchronized void drain() {
+			if (this.isClosed) {
+				return;
+			}
+			try {
+				while (this.out.isReady()) {
+					final String event = this.nextEvent();
+					if (event == null) {
+						this.out.flush();
+						return;
+					}
+					this.out.write(event.getBytes(StandardCharsets.UTF_8));
+				}
+			} catch (IOException | IllegalStateException err) {
+				this.close(true);
+			}
+		}
+
+		private synchronized void close(final boolean isCompleteRequired) {
+			if (this.isClosed) {
+				return;
+			}
+			LOGGER.debug("The event stream client has gone away");
+			this.isClosed = true;
+			this.subscriber.setLineListener(null);
+			this.broadcaster.unsubscribe(this.subscriber);
+			if (this.keepAliveTask != null) {
+				this.keepAliveTask.cancel(false);
+			}
+			if (isCompleteRequired) {
+				try {
+					this.asyncContext.complete();
+				} catch (IllegalStateException err) {
+					// The request is already complete
+				}
+			}
+		}
+
+		public void run() {
+			this.isDrainScheduled.set(false);
+			this.drain();
+		}
+
+		public void onWritePossible() {
+			this.drain();
+		}
+
+		public void onError(Throwable err) {
+			this.close(true);
+		}
+
+		public void onComplete(AsyncEvent event) {
+			this.close(false);
+		}
+
+		public void onTimeout(AsyncEvent event) {
+			this.close(true);
+		}
+
+		public void onError(AsyncEvent event) {
+			this.close(true);
+		}
+
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+
+	public void init() {
+		this.eventStreamExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "event-stream");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void destroy() {
+		this.eventStreamExecutor.shutdownNow();
+	}
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final SerialEventBroadcaster broadcaster = this.getBroadcaster(request.getParameter(DEVICE_PARAMETER));
+		if (broadcaster == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					String.format(UNKNOWN_DEVICE_ERROR_MESSAGE, this.deviceBroadcasters.keySet()));
+			return;
+		}
+		SerialEventSubscriber subscriber = null;
+		try {
+			subscriber = this.buildSubscriber(request);
+		} catch (IllegalArgumentException err) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, MALFORMED_REQUEST_ERROR_MESSAGE);
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(EVENT_STREAM_MEDIA_TYPE);
+		final AsyncContext asyncContext = request.startAsync();
+		// The stream lasts until the client goes away
+		asyncContext.setTimeout(0);
+		new EventStream(asyncContext, response.getOutputStream(), broadcaster, subscriber).start();
+	}
+
+}
@@ -15,30 +15,72 @@
  * \*-------------------------------------------------------------------------------------------------------------------*/
 package io.nirvagi.iot.serial.server;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import io.nirvagi.iot.serial.at.command.CommandRequest;
 import io.nirvagi.iot.serial.at.command.CommandResult;
-import io.nirvagi.iot.serial.at.command.executor.ATSerialCommandExecutor;
 import io.nirvagi.iot.serial.at.command.executor.CommandExecutor;
+import io.nirvagi.iot.serial.at.command.executor.CommandRejectedException;
 
 /**
  * A simple servlet that exposes an Rest-ish interface that allows the user to
- * send and receive serial commands to and from the serial interface . It should
- * be possible to integrate the same with an MQTT based client, for example that
- * would allow users to send and receive the commands remotely .
+ * send and receive serial commands to and from the serial interface . The same
+ * commands can be sent remotely through an MQTT broker (see
+ * {@link io.nirvagi.iot.serial.mqtt.MqttBridge}) .
  * 
+ * The request body is either a single command request , Or a JSON array of
+ * command requests that are executed in order as a batch . The batch response
+ * is an array of the command results , When the stopOnFailure request
+ * parameter is true the batch stops at the first command that does not
+ * succeed
+ * 
+ * The requests are processed asynchronously , The request body is read
+ * without blocking and the response is committed from the completion callback
+ * of the command. A request waiting on the serial device (A listen command
+ * waiting for minutes for example) does not hold a server thread. The command
+ * of a request the container gives up on (The client going away for example)
+ * is cancelled , It does not keep its place in the device queue
+ * 
+ * A request times out once it could no longer complete on its own , After
+ * the time it may be queued (Its deadline , or a minute without one) and the
+ * timeouts of its commands. The command is then cancelled and the request is
+ * answered with a 503
+ * 
+ * The request body is limited to {@link #MAX_REQUEST_BODY_SIZE} bytes , A
+ * larger body is rejected with a 413
+ * 
+ * A command that the device is too busy to serve in time (see the priority and
+ * deadline of a command request) is rejected with a 429 , The Retry-After
+ * header holds the estimated time in seconds until the device catches up
+ * 
+ * A command request can carry a binary payload (see
+ * {@link CommandRequestDesierializer}) , The raw output of a command result is
+ * rendered as a base64 string
+ * 
+ * The requests are parsed and the results are rendered by the streaming
+ * {@link CommandCodec} , The request body is collected as it is received and
+ * parsed once it is complete without building a JSON tree
  * 
  * @author bharath
  *
@@ -49,73 +91,266 @@ public class ServerCommandProcessor extends HttpServlet {
 	 */
 	private static final long serialVersionUID = 3794643339436069788L;
 	private static final String ACCEPTED_MEDIA_TYPE = "application/json";
-	public static final String PORT_DESCRIPTOR_PROPERTY = "device.port";
-	public static final String BAUD_RATE_PROPERTY = "device.baudrate";
+	private static final String STOP_ON_FAILURE_PARAMETER = "stopOnFailure";
+	private static final int READ_BUFFER_SIZE = 1024;
+	public static final int MAX_REQUEST_BODY_SIZE = 1024 * 1024;
+	private static final String RETRY_AFTER_HEADER = "Retry-After";
+	// Not defined by the servlet API
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+	// The time a client has to send the request body
+	private static final long BODY_READ_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	// The time a request without a deadline may wait in the device queue
+	private static final long QUEUE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
 	// ERROR MESSAGES
 	private static final String UNSUPPORTED_MEDIA_TYPE_ERROR_MESSAGE = "Unsupported media type , only application / json is supported";
 	private static final String MALFORMED_REQUEST_ERROR_MESSAGE = "Bad Request , Please check the request data";
 	private static final String GENERIC_ERROR_MESSAGE = "An error has occurred while processing your request ";
+	private static final String REQUEST_TOO_LARGE_ERROR_MESSAGE = "Request Entity Too Large , The request body is limited to "
+			+ MAX_REQUEST_BODY_SIZE + " bytes";
+	private static final String REQUEST_TIMEOUT_ERROR_MESSAGE = "The request timed out waiting for the serial device";
 	
 
-	private CommandExecutor commandExecutor;
-	private Gson gson;
+	private final CommandExecutor commandExecutor;
+	private final CommandCodec commandCodec = new CommandCodec();
 	
 
-	private void buildAndCommitResponse(final HttpServletResponse response, int statusCode, final String message)
-			throws IOException {
-		final PrintWriter out = response.getWriter();
-		response.setStatus(statusCode);
-		out.write(message);
-		out.flush();
+	private boolean isContentTypeValid(final HttpServletRequest request) {
+		return request.getContentType() != null && request.getContentType().equals(ACCEPTED_MEDIA_TYPE);
 	}
 
-	private void checkAndValidateContentTypeHeader(final HttpServletRequest request, HttpServletResponse response)
-			throws IOException {
-		if (request.getContentType() == null || request.getContentType().equals(ACCEPTED_MEDIA_TYPE) == false) {
-			this.buildAndCommitResponse(response, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
-					UNSUPPORTED_MEDIA_TYPE_ERROR_MESSAGE);
+	/**
+	 * The received request body , Read back in place
+	 */
+	private static final class RequestBody extends ByteArrayOutputStream {
+		JsonReader toJsonReader() {
+			return CommandCodec.newJsonReader(this.buf, 0, this.count);
 		}
 	}
-	
 
-	private void processRequest(final HttpServletRequest request, HttpServletResponse response) throws IOException {
-		// Validate the content type header
-		this.checkAndValidateContentTypeHeader(request, response);
-		final StringBuffer sb = new StringBuffer();
-		final BufferedReader br = request.getReader();
-		String line = null;
-		CommandRequest cr = null;
+	/**
+	 * Cancels the command of a request that the container gives up on , The
+	 * client going away or the request timing out
+	 */
+	private static final class CommandCanceller implements AsyncListener {
+		// Set once the request body is parsed
+		private volatile CompletableFuture<?> commandFuture;
+		private volatile boolean isAbandoned;
 
-		while ((line = br.readLine()) != null) {
-			sb.append(line);
+		void setCommandFuture(final CompletableFuture<?> commandFuture) {
+			this.commandFuture = commandFuture;
+			// The request may have been abandoned while the body was parsed
+			if (this.isAbandoned) {
+				commandFuture.cancel(false);
+			}
 		}
+
+		/**
+		 * Cancel the command of the request
+		 * 
+		 * @return true if the response is left to the caller , false if the
+		 *         command has completed and commits the response itself
+		 */
+		private boolean abandon() {
+			this.isAbandoned = true;
+			final CompletableFuture<?> commandFuture = this.commandFuture;
+			return commandFuture == null || commandFuture.cancel(false);
+		}
+
+		public void onTimeout(AsyncEvent event) {
+			if (this.abandon()) {
+				AsyncResponseWriter.commit(event.getAsyncContext(), HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+						REQUEST_TIMEOUT_ERROR_MESSAGE);
+			}
+		}
+
+		public void onError(AsyncEvent event) {
+			if (this.abandon()) {
+				event.getAsyncContext().complete();
+			}
+		}
+
+		public void onComplete(AsyncEvent event) {
+		}
+
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+
+	/**
+	 * Get the time a request may take , The time its commands may be queued
+	 * (The earliest deadline , or the queue timeout without one) and the
+	 * timeouts of its commands sent one after the other
+	 * 
+	 * @param commandRequests
+	 *            The command requests of the request
+	 * @return The request timeout in milliseconds
+	 */
+	private static long getRequestTimeout(final List<CommandRequest> commandRequests) {
+		long queueTimeout = Long.MAX_VALUE;
+		long commandTimeout = 0;
+		for (CommandRequest commandRequest : commandRequests) {
+			if (commandRequest.getDeadlineMillis() > 0) {
+				queueTimeout = Math.min(queueTimeout, commandRequest.getDeadlineMillis());
+			}
+			commandTimeout += commandRequest.getEffectiveCommandTimeout();
+		}
+		return (queueTimeout == Long.MAX_VALUE ? QUEUE_TIMEOUT_MILLIS : queueTimeout) + commandTimeout;
+	}
+
+	/**
+	 * Reads the request body as the container receives it , The request is
+	 * processed once the whole body is read. A body larger than
+	 * {@link #MAX_REQUEST_BODY_SIZE} is rejected without reading the rest
+	 */
+	private class RequestBodyReader implements ReadListener {
+		private final AsyncContext asyncContext;
+		private final ServletInputStream in;
+		private final CommandCanceller commandCanceller;
+		private final RequestBody body = new RequestBody();
+		private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+		private boolean isRejected;
+
+		RequestBodyReader(final AsyncContext asyncContext, final ServletInputStream in,
+				final CommandCanceller commandCanceller) {
+			this.asyncContext = asyncContext;
+			this.in = in;
+			this.commandCanceller = commandCanceller;
+		}
+
+		public void onDataAvailable() throws IOException {
+			int length;
+			while (this.isRejected == false && this.in.isReady() && (length = this.in.read(this.readBuffer)) != -1) {
+				if (this.body.size() + length > MAX_REQUEST_BODY_SIZE) {
+					this.isRejected = true;
+					AsyncResponseWriter.commit(this.asyncContext, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+							REQUEST_TOO_LARGE_ERROR_MESSAGE);
+					return;
+				}
+				this.body.write(this.readBuffer, 0, length);
+			}
+		}
+
+		public void onAllDataRead() {
+			if (this.isRejected) {
+				return;
+			}
+			processRequest(this.asyncContext, this.body.toJsonReader(), this.commandCanceller);
+		}
+
+		public void onError(Throwable err) {
+			if (this.isRejected) {
+				return;
+			}
+			AsyncResponseWriter.commit(this.asyncContext, HttpServletResponse.SC_BAD_REQUEST,
+					MALFORMED_REQUEST_ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Commit the response once the command (Or the batch) completes , Called
+	 * from the thread that completes the command
+	 */
+	private void commitResult(final AsyncContext asyncContext, final CommandResult result,
+			final List<CommandResult> results, Throwable err) {
+		if (err == null) {
+			final byte[] body;
+			try {
+				body = results == null ? this.commandCodec.encodeResult(result)
+						: this.commandCodec.encodeResults(results);
+			} catch (RuntimeException encodeErr) {
+				AsyncResponseWriter.commit(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+						GENERIC_ERROR_MESSAGE);
+				return;
+			}
+			AsyncResponseWriter.commit(asyncContext, HttpServletResponse.SC_OK, body);
+			return;
+		}
+		if (err instanceof CompletionException && err.getCause() != null) {
+			err = err.getCause();
+		}
+		if (err instanceof CancellationException) {
+			// The request was abandoned and is already complete
+			return;
+		}
+		if (err instanceof IllegalArgumentException) {
+			AsyncResponseWriter.commit(asyncContext, HttpServletResponse.SC_BAD_REQUEST, err.getMessage());
+			return;
+		}
+		if (err instanceof CommandRejectedException) {
+			// The client may retry once the device is expected to have caught up
+			final long retryAfterSeconds = Math.max(1,
+					TimeUnit.MILLISECONDS.toSeconds(((CommandRejectedException) err).getRetryAfterMillis() + 999));
+			((HttpServletResponse) asyncContext.getResponse()).setHeader(RETRY_AFTER_HEADER,
+					String.valueOf(retryAfterSeconds));
+			AsyncResponseWriter.commit(asyncContext, SC_TOO_MANY_REQUESTS, err.getMessage());
+			return;
+		}
+		AsyncResponseWriter.commit(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, GENERIC_ERROR_MESSAGE);
+	}
+
+	private void processRequest(final AsyncContext asyncContext, final JsonReader jsonReader,
+			final CommandCanceller commandCanceller) {
+		final HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
 		// Convert the request json to Command Request
 		try {
-			System.out.println("Got the request " + sb.toString());
-			cr = this.gson.fromJson(sb.toString(), CommandRequest.class);
-			final CommandResult result = this.commandExecutor.execute(cr);
-			this.buildAndCommitResponse(response, HttpServletResponse.SC_OK, this.gson.toJson(result));
-		} catch (JsonSyntaxException err) {
-			this.buildAndCommitResponse(response, HttpServletResponse.SC_BAD_REQUEST, MALFORMED_REQUEST_ERROR_MESSAGE);
+			if (jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+				final List<CommandRequest> batch = this.commandCodec.readBatch(jsonReader);
+				final boolean stopOnFailure = Boolean.parseBoolean(request.getParameter(STOP_ON_FAILURE_PARAMETER));
+				asyncContext.setTimeout(getRequestTimeout(batch));
+				final CompletableFuture<List<CommandResult>> batchFuture = this.commandExecutor
+						.executeBatchAsync(batch, stopOnFailure);
+				commandCanceller.setCommandFuture(batchFuture);
+				batchFuture.whenComplete((results, err) -> this.commitResult(asyncContext, null, results, err));
+				return;
+			}
+			final CommandRequest cr = this.commandCodec.readRequest(jsonReader);
+			asyncContext.setTimeout(getRequestTimeout(Collections.singletonList(cr)));
+			final CompletableFuture<CommandResult> commandFuture = this.commandExecutor.executeAsync(cr);
+			commandCanceller.setCommandFuture(commandFuture);
+			commandFuture.whenComplete((result, err) -> this.commitResult(asyncContext, result, null, err));
+		} catch (IOException | JsonSyntaxException | IllegalStateException err) {
+			// Not JSON , Or a value of the wrong type
+			AsyncResponseWriter.commit(asyncContext, HttpServletResponse.SC_BAD_REQUEST, MALFORMED_REQUEST_ERROR_MESSAGE);
 		} catch (JsonParseException err) {
-			this.buildAndCommitResponse(response, HttpServletResponse.SC_BAD_REQUEST, err.getMessage());
+			AsyncResponseWriter.commit(asyncContext, HttpServletResponse.SC_BAD_REQUEST, err.getMessage());
+		} catch (IllegalArgumentException err) {
+			AsyncResponseWriter.commit(asyncContext, HttpServletResponse.SC_BAD_REQUEST, err.getMessage());
 		} catch (Exception err) {
-			this.buildAndCommitResponse(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, GENERIC_ERROR_MESSAGE);
+			AsyncResponseWriter.commit(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, GENERIC_ERROR_MESSAGE);
 		}
 
 	}
 
-	public void init() {
-		// Init the command executor
-		final String devicePort = System.getProperty(PORT_DESCRIPTOR_PROPERTY);
-		final int baudRate = Integer.parseInt(System.getProperty(BAUD_RATE_PROPERTY));
-		this.commandExecutor = new ATSerialCommandExecutor(devicePort, baudRate);
-		this.gson = new GsonBuilder().registerTypeAdapter(CommandRequest.class, new CommandRequestDesierializer()).create();
+	/**
+	 * Build the servlet
+	 * 
+	 * @param commandExecutor
+	 *            The executor the command requests are sent to
+	 */
+	public ServerCommandProcessor(final CommandExecutor commandExecutor) {
+		this.commandExecutor = commandExecutor;
 	}
 
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		this.processRequest(request, response);
+		// Validate the content type header
+		if (this.isContentTypeValid(request) == false) {
+			response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+			response.getWriter().write(UNSUPPORTED_MEDIA_TYPE_ERROR_MESSAGE);
+			return;
+		}
+		if (request.getContentLengthLong() > MAX_REQUEST_BODY_SIZE) {
+			response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			response.getWriter().write(REQUEST_TOO_LARGE_ERROR_MESSAGE);
+			return;
+		}
+		final AsyncContext asyncContext = request.startAsync();
+		// Replaced by the timeout of the request once its body is read
+		asyncContext.setTimeout(BODY_READ_TIMEOUT_MILLIS);
+		final CommandCanceller commandCanceller = new CommandCanceller();
+		asyncContext.addListener(commandCanceller);
+		final ServletInputStream in = request.getInputStream();
+		in.setReadListener(new RequestBodyReader(asyncContext, in, commandCanceller));
 	}
 
 }
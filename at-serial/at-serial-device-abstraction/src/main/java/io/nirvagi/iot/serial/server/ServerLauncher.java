@@ -15,14 +15,38 @@
  * \*-------------------------------------------------------------------------------------------------------------------*/
 package io.nirvagi.iot.serial.server;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.servlet.Servlet;
 
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.paho.client.mqttv3.MqttException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.nirvagi.iot.serial.JSerialCommInterface;
+import io.nirvagi.iot.serial.SerialInterface;
+import io.nirvagi.iot.serial.SerialInterfaceException;
+import io.nirvagi.iot.serial.at.command.executor.ATSerialCommandExecutor;
+import io.nirvagi.iot.serial.at.command.executor.CommandExecutor;
+import io.nirvagi.iot.serial.at.command.executor.RoutingCommandExecutor;
+import io.nirvagi.iot.serial.at.command.observer.SerialEventBroadcaster;
+import io.nirvagi.iot.serial.at.command.registry.CommandRegistry;
+import io.nirvagi.iot.serial.journal.JournalReplay;
+import io.nirvagi.iot.serial.journal.TrafficJournal;
+import io.nirvagi.iot.serial.metrics.DeviceMetrics;
+import io.nirvagi.iot.serial.mqtt.MqttBridge;
+import io.nirvagi.iot.serial.simulator.SimulatedSerialInterface;
+import io.nirvagi.iot.serial.simulator.SimulatorScript;
 
 
 public class ServerLauncher {
@@ -30,7 +54,29 @@ public class ServerLauncher {
 	private static final String SHUTDOWN_ERROR_MESSAGE = "Application shutdown because of unhandled exception, Please check the message trace";
 	private static final String SERVLET_CONTEXT_PATH = "/";
 	private static final String SERVLET_PATH_SPEC = "/*";
+	private static final String EVENT_STREAM_PATH_SPEC = "/events";
+	private static final String COMMAND_CACHE_PATH_SPEC = "/cache";
+	private static final String METRICS_PATH_SPEC = "/metrics";
+	private static final String OTA_PATH_SPEC = "/ota";
+	private static final String SIMULATED_PORT_PREFIX = "sim:";
+	private static final String REPLAY_PORT_PREFIX = "replay:";
+	private static final int JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final int JOURNAL_MAX_SEGMENTS = 16;
+	private static final String JOURNAL_ERROR_MESSAGE = "Unable to open the traffic journal of %s in %s";
+	private static final String REPLAY_ERROR_MESSAGE = "Unable to replay the traffic journal of %s";
+	private static final String SIMULATOR_SCRIPT_ERROR_MESSAGE = "Unable to read the simulator script %s";
+	private static final String DUPLICATE_DEVICE_ERROR_MESSAGE = "The device id %s is used by more than one device";
 	private final Server server;
+	private final Map<String, SerialEventBroadcaster> deviceBroadcasters = new LinkedHashMap<String, SerialEventBroadcaster>();
+	private final Map<String, DeviceMetrics> deviceMetrics = new LinkedHashMap<String, DeviceMetrics>();
+	private final Map<String, ATSerialCommandExecutor> deviceExecutors = new LinkedHashMap<String, ATSerialCommandExecutor>();
+	private final List<JournalReplay> journalReplays = new ArrayList<JournalReplay>();
+	private final Path journalDirectory;
+	private final double replaySpeed;
+	private final BinaryCommandServer binaryCommandServer;
+	private final RoutingCommandExecutor commandExecutor;
+	private MqttBridge mqttBridge;
+	private boolean watchCommandDefinitions;
 	
 	
 	private void setExceptionHandler(){
@@ -44,19 +90,197 @@ public class ServerLauncher {
 	}
 	
 	
-	public ServerLauncher(final int port, final String portDescriptor, final int baudRate){
-		System.setProperty(ServerCommandProcessor.PORT_DESCRIPTOR_PROPERTY, portDescriptor);
-		System.setProperty(ServerCommandProcessor.BAUD_RATE_PROPERTY, String.valueOf(baudRate));
+	/**
+	 * Open the serial interface of a device , A port descriptor of the form
+	 * sim:&lt;scriptPath&gt; attaches a simulated device loaded from the
+	 * script (see {@link SimulatorScript}) , A port descriptor of the form
+	 * replay:&lt;journalDirectory&gt; attaches a simulated device the journal
+	 * recorded for the device id is replayed through (see
+	 * {@link JournalReplay})
+	 */
+	private SerialInterface openSerialInterface(final DeviceDescriptor device) {
+		final String portDescriptor = device.getPortDescriptor();
+		if (portDescriptor.startsWith(REPLAY_PORT_PREFIX)) {
+			// The recorded chunks carry their own timing , They are delivered as recorded
+			return new SimulatedSerialInterface(device.getDeviceId());
+		}
+		if (portDescriptor.startsWith(SIMULATED_PORT_PREFIX) == false) {
+			return new JSerialCommInterface(portDescriptor, device.getBaudRate());
+		}
+		final String scriptPath = portDescriptor.substring(SIMULATED_PORT_PREFIX.length());
+		try {
+			return SimulatorScript.load(device.getDeviceId(), scriptPath, device.getBaudRate());
+		} catch (IOException err) {
+			throw new SerialInterfaceException(String.format(SIMULATOR_SCRIPT_ERROR_MESSAGE, scriptPath));
+		}
+	}
+	
+	
+	/**
+	 * Record the traffic of the device in the journal directory , When one is
+	 * set
+	 */
+	private void openTrafficJournal(final DeviceDescriptor device, final SerialInterface serialInterface) {
+		if (this.journalDirectory == null) {
+			return;
+		}
+		try {
+			serialInterface.setTrafficJournal(new TrafficJournal(this.journalDirectory, device.getDeviceId(),
+					JOURNAL_SEGMENT_SIZE, JOURNAL_MAX_SEGMENTS));
+		} catch (IOException err) {
+			throw new SerialInterfaceException(
+					String.format(JOURNAL_ERROR_MESSAGE, device.getDeviceId(), this.journalDirectory));
+		}
+	}
+	
+	
+	/**
+	 * Build one command executor per device , Every executor opens its own
+	 * serial port and runs its own command processor thread
+	 */
+	private RoutingCommandExecutor buildCommandExecutor(final List<DeviceDescriptor> devices) {
+		final Map<String, CommandExecutor> deviceExecutors = new LinkedHashMap<String, CommandExecutor>();
+		for (DeviceDescriptor device : devices) {
+			if (deviceExecutors.containsKey(device.getDeviceId())) {
+				throw new IllegalArgumentException(String.format(DUPLICATE_DEVICE_ERROR_MESSAGE, device.getDeviceId()));
+			}
+			LOGGER.debug("Attaching the device {} at {}", device.getDeviceId(), device.getPortDescriptor());
+			final SerialInterface serialInterface = this.openSerialInterface(device);
+			this.openTrafficJournal(device, serialInterface);
+			final ATSerialCommandExecutor commandExecutor = new ATSerialCommandExecutor(device.getDeviceId(),
+					serialInterface);
+			if (device.getPortDescriptor().startsWith(REPLAY_PORT_PREFIX)) {
+				this.journalReplays.add(new JournalReplay(
+						Paths.get(device.getPortDescriptor().substring(REPLAY_PORT_PREFIX.length())),
+						device.getDeviceId(), (SimulatedSerialInterface) serialInterface, commandExecutor,
+						this.replaySpeed));
+			}
+			deviceExecutors.put(device.getDeviceId(), commandExecutor);
+			this.deviceBroadcasters.put(device.getDeviceId(), commandExecutor.getSerialEventBroadcaster());
+			this.deviceMetrics.put(device.getDeviceId(), commandExecutor.getDeviceMetrics());
+			this.deviceExecutors.put(device.getDeviceId(), commandExecutor);
+		}
+		return new RoutingCommandExecutor(deviceExecutors);
+	}
+	
+	
+	/**
+	 * The servlets process the requests asynchronously , A request waiting on
+	 * a device does not hold a server thread
+	 */
+	private ServletHolder buildAsyncServletHolder(final Servlet servlet) {
+		final ServletHolder servletHolder = new ServletHolder(servlet);
+		servletHolder.setAsyncSupported(true);
+		return servletHolder;
+	}
+	
+	
+	/**
+	 * Build the server
+	 * 
+	 * @param port
+	 *            The server port
+	 * @param devices
+	 *            The attached devices
+	 * @param journalDirectory
+	 *            The directory the traffic of every device is recorded in , null
+	 *            to not record the traffic
+	 * @param replaySpeed
+	 *            The speed the replayed journals run at relative to the
+	 *            recording
+	 * @param binaryPort
+	 *            The port of the binary command listener (see
+	 *            {@link BinaryCommandServer}) , 0 to not start it
+	 */
+	public ServerLauncher(final int port, final List<DeviceDescriptor> devices, final Path journalDirectory,
+			final double replaySpeed, final int binaryPort){
+		this.journalDirectory = journalDirectory;
+		this.replaySpeed = replaySpeed;
+		final RoutingCommandExecutor commandExecutor = this.buildCommandExecutor(devices);
+		this.commandExecutor = commandExecutor;
 		this.server = new Server(port);
 		final ServletContextHandler servletContextHandler = new ServletContextHandler(ServletContextHandler.SESSIONS);
 		servletContextHandler.setContextPath(SERVLET_CONTEXT_PATH);
 		server.setHandler(servletContextHandler);
-		servletContextHandler.addServlet(new ServletHolder(new ServerCommandProcessor()), SERVLET_PATH_SPEC);
+		servletContextHandler.addServlet(this.buildAsyncServletHolder(new ServerCommandProcessor(commandExecutor)),
+				SERVLET_PATH_SPEC);
+		servletContextHandler.addServlet(this.buildAsyncServletHolder(new SerialEventStreamServlet(this.deviceBroadcasters)),
+				EVENT_STREAM_PATH_SPEC);
+		servletContextHandler.addServlet(new ServletHolder(new CommandCacheServlet(commandExecutor)),
+				COMMAND_CACHE_PATH_SPEC);
+		servletContextHandler.addServlet(new ServletHolder(new MetricsServlet(this.deviceMetrics)), METRICS_PATH_SPEC);
+		servletContextHandler.addServlet(new ServletHolder(new OtaServlet(this.deviceExecutors)), OTA_PATH_SPEC);
+		this.binaryCommandServer = binaryPort == 0 ? null : new BinaryCommandServer(commandExecutor, binaryPort);
 		this.setExceptionHandler();
 	}
 	
+	
+	public ServerLauncher(final int port, final List<DeviceDescriptor> devices){
+		this(port, devices, null, 1, 0);
+	}
+	
+	
+	public ServerLauncher(final int port, final String portDescriptor, final int baudRate){
+		this(port, Collections.singletonList(new DeviceDescriptor(portDescriptor, portDescriptor, baudRate)));
+	}
+	
+	/**
+	 * Bridge the devices to an MQTT broker when launched (see
+	 * {@link MqttBridge})
+	 * 
+	 * @param brokerUri
+	 *            The URI of the broker
+	 * @param topicPrefix
+	 *            The prefix of the device topics
+	 * @param eventPrefixes
+	 *            The prefixes of the published lines , All the lines if empty
+	 * @param batchWindowMillis
+	 *            The time the lines are collected for before they are
+	 *            published
+	 * @throws MqttException
+	 *             If the broker URI is not valid
+	 */
+	public void enableMqttBridge(final String brokerUri, final String topicPrefix, final List<String> eventPrefixes,
+			final long batchWindowMillis) throws MqttException {
+		this.mqttBridge = new MqttBridge(brokerUri, topicPrefix, this.commandExecutor, this.deviceBroadcasters,
+				eventPrefixes, batchWindowMillis);
+	}
+	
+	/**
+	 * Load the commands of a definitions file into the command registry (see
+	 * {@link CommandRegistry}) , Once launched the file is reloaded whenever
+	 * it changes
+	 * 
+	 * @param definitionsFile
+	 *            The definitions file
+	 * @throws IOException
+	 *             If the file cannot be read
+	 * @throws IllegalArgumentException
+	 *             If the file holds an invalid definition
+	 */
+	public void loadCommandDefinitions(final Path definitionsFile) throws IOException {
+		CommandRegistry.getDefault().load(definitionsFile);
+		this.watchCommandDefinitions = true;
+	}
+	
 	public void launch() throws Exception{
+		if (this.watchCommandDefinitions) {
+			CommandRegistry.getDefault().startWatching();
+		}
 		this.server.start();
+		if (this.binaryCommandServer != null) {
+			this.binaryCommandServer.start();
+		}
+		if (this.mqttBridge != null) {
+			this.mqttBridge.start();
+		}
+		for (JournalReplay journalReplay : this.journalReplays) {
+			try {
+				journalReplay.start();
+			} catch (IOException err) {
+				throw new SerialInterfaceException(String.format(REPLAY_ERROR_MESSAGE, err.getMessage()));
+			}
+		}
 	}
 	
 	
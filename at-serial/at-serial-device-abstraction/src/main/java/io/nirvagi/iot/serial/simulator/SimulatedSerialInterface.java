@@ -0,0 +1,305 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.simulator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nirvagi.iot.serial.SerialInterface;
+import io.nirvagi.iot.serial.SerialInterfaceException;
+
+/**
+ * An in-process AT device behind the serial interface , Everything above the
+ * transport (The executor , The observers and the server) runs unmodified on
+ * top of it.
+ * 
+ * The device answers a written command with the canned response of the
+ * longest matching command prefix , After the latency of the response. A
+ * command without a response is answered with an error. Unsolicited output
+ * can be injected at any time or repeated periodically.
+ * 
+ * The output of the device shares a single simulated wire , A response or an
+ * unsolicited output starts once the wire is free. The output is delivered in
+ * chunks of the configured size (Like a serial driver delivering whatever has
+ * arrived) and , When a baud rate is set , Every chunk is delivered once it
+ * would have been transmitted at that baud rate. With no latency , No chunk
+ * size and no baud rate the device answers at full speed.
+ * 
+ * The output is published from the device thread , The same way jSerialComm
+ * publishes from its event thread
+ * 
+ * @author bharath
+ *
+ */
+public class SimulatedSerialInterface extends SerialInterface {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SimulatedSerialInterface.class);
+	private static final String DEVICE_THREAD_NAME = "simulated-device-%s";
+	private static final String INTERFACE_CLOSED_ERROR_MESSAGE = "Unable to send the serial command, The simulated device %s is closed";
+	// Telegesis answers an unknown command with ERROR:02
+	private static final String UNKNOWN_COMMAND_RESPONSE = "ERROR:02\r\n";
+	// A byte on the wire is a start bit , 8 data bits and a stop bit
+	private static final long BITS_PER_BYTE = 10;
+
+	/**
+	 * A canned response to the commands starting with a prefix
+	 */
+	private static class CannedResponse {
+		private final byte[] commandPrefix;
+		private final byte[] response;
+		private final long latencyNanos;
+
+		CannedResponse(final byte[] commandPrefix, final byte[] response, final long latencyNanos) {
+			this.commandPrefix = commandPrefix;
+			this.response = response;
+			this.latencyNanos = latencyNanos;
+		}
+
+		boolean matches(final byte[] command, final int length) {
+			if (length < this.commandPrefix.length) {
+				return false;
+			}
+			for (int i = 0; i < this.commandPrefix.length; i++) {
+				if (command[i] != this.commandPrefix[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final String deviceName;
+	private final int baudRate;
+	private final int chunkSize;
+	private final ScheduledExecutorService deviceThread;
+	// Guarded by itself
+	private final List<CannedResponse> cannedResponses = new ArrayList<CannedResponse>();
+	private volatile byte[] unknownCommandResponse = UNKNOWN_COMMAND_RESPONSE.getBytes(StandardCharsets.US_ASCII);
+	// The time the simulated wire is free , Guarded by the wire lock
+	private long wireFreeNanos;
+	// Not the observable monitor , The observers run without it
+	private final Object wireLock = new Object();
+
+	/**
+	 * Build a simulated device
+	 * 
+	 * @param deviceName
+	 *            The name of the device , Used to name the device thread
+	 * @param baudRate
+	 *            The baud rate the output is throttled to , 0 to deliver the
+	 *            output without throttling
+	 * @param chunkSize
+	 *            The size of the chunks the output is delivered in , 0 to
+	 *            deliver every output in one chunk
+	 */
+	public SimulatedSerialInterface(final String deviceName, final int baudRate, final int chunkSize) {
+		if (baudRate < 0 || chunkSize < 0) {
+			throw new IllegalArgumentException("The baud rate and the chunk size cannot be negative");
+		}
+		this.deviceName = deviceName;
+		this.baudRate = baudRate;
+		this.chunkSize = chunkSize;
+		this.deviceThread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				final Thread thread = new Thread(runnable, String.format(DEVICE_THREAD_NAME, deviceName));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Build a simulated device that answers at full speed
+	 * 
+	 * @param deviceName
+	 *            The name of the device
+	 */
+	public SimulatedSerialInterface(final String deviceName) {
+		this(deviceName, 0, 0);
+	}
+
+	/**
+	 * Answer the commands starting with a prefix
+	 * 
+	 * @param commandPrefix
+	 *            The command prefix (for example AT+NTABLE) , The longest
+	 *            matching prefix wins
+	 * @param response
+	 *            The response , Lines are terminated with CR LF
+	 * @param latency
+	 *            The time the device takes before it starts answering
+	 * @param latencyUnit
+	 *            The unit of the latency
+	 * @return This device
+	 */
+	public SimulatedSerialInterface addResponse(final String commandPrefix, final String response, final long latency,
+			final TimeUnit latencyUnit) {
+		return this.addResponse(commandPrefix.getBytes(StandardCharsets.US_ASCII),
+				response.getBytes(StandardCharsets.US_ASCII), latency, latencyUnit);
+	}
+
+	/**
+	 * Answer the binary commands starting with a prefix
+	 * 
+	 * @param commandPrefix
+	 *            The command prefix , The longest matching prefix wins
+	 * @param response
+	 *            The response bytes
+	 * @param latency
+	 *            The time the device takes before it starts answering
+	 * @param latencyUnit
+	 *            The unit of the latency
+	 * @return This device
+	 */
+	public SimulatedSerialInterface addResponse(final byte[] commandPrefix, final byte[] response, final long latency,
+			final TimeUnit latencyUnit) {
+		final CannedResponse cannedResponse = new CannedResponse(commandPrefix.clone(), response.clone(),
+				latencyUnit.toNanos(latency));
+		synchronized (this.cannedResponses) {
+			this.cannedResponses.add(cannedResponse);
+		}
+		return this;
+	}
+
+	/**
+	 * Set the answer to the commands without a canned response
+	 * 
+	 * @param response
+	 *            The response , ERROR:02 by default
+	 */
+	public void setUnknownCommandResponse(final String response) {
+		this.unknownCommandResponse = response.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Inject unsolicited output , It is delivered once the wire is free
+	 * 
+	 * @param output
+	 *            The output , Lines are terminated with CR LF
+	 */
+	public void injectUnsolicited(final String output) {
+		this.injectUnsolicited(output.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Inject unsolicited binary output , It is delivered once the wire is free
+	 * 
+	 * @param output
+	 *            The output bytes
+	 */
+	public void injectUnsolicited(final byte[] output) {
+		this.transmit(output, 0);
+	}
+
+	/**
+	 * Inject unsolicited output later , And optionally repeat it until the
+	 * device is closed
+	 * 
+	 * @param output
+	 *            The output , Lines are terminated with CR LF
+	 * @param delay
+	 *            The time before the output is first sent
+	 * @param period
+	 *            The period the output is repeated with , 0 to send it once
+	 * @param timeUnit
+	 *            The unit of the delay and the period
+	 */
+	public void scheduleUnsolicited(final String output, final long delay, final long period,
+			final TimeUnit timeUnit) {
+		final byte[] outputBytes = output.getBytes(StandardCharsets.US_ASCII);
+		final Runnable unsolicitedOutput = new Runnable() {
+			public void run() {
+				transmit(outputBytes, 0);
+			}
+		};
+		if (period == 0) {
+			this.deviceThread.schedule(unsolicitedOutput, delay, timeUnit);
+		} else {
+			this.deviceThread.scheduleAtFixedRate(unsolicitedOutput, delay, period, timeUnit);
+		}
+	}
+
+	private CannedResponse findResponse(final byte[] command, final int length) {
+		CannedResponse matchedResponse = null;
+		synchronized (this.cannedResponses) {
+			for (CannedResponse cannedResponse : this.cannedResponses) {
+				if (cannedResponse.matches(command, length) && (matchedResponse == null
+						|| cannedResponse.commandPrefix.length > matchedResponse.commandPrefix.length)) {
+					matchedResponse = cannedResponse;
+				}
+			}
+		}
+		return matchedResponse;
+	}
+
+	private long getTransmitNanos(final int length) {
+		return this.baudRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(length * BITS_PER_BYTE) / this.baudRate;
+	}
+
+	/**
+	 * Put the output on the simulated wire , The chunks are scheduled on the
+	 * device thread at the time they are received
+	 */
+	private void transmit(final byte[] output, final long latencyNanos) {
+		synchronized (this.wireLock) {
+			if (this.deviceThread.isShutdown()) {
+				return;
+			}
+			final long nowNanos = System.nanoTime();
+			long chunkStartNanos = Math.max(nowNanos + latencyNanos, this.wireFreeNanos);
+			final int chunkSize = this.chunkSize == 0 ? Math.max(output.length, 1) : this.chunkSize;
+			for (int offset = 0; offset < output.length; offset += chunkSize) {
+				final byte[] chunk = Arrays.copyOfRange(output, offset, Math.min(offset + chunkSize, output.length));
+				chunkStartNanos += this.getTransmitNanos(chunk.length);
+				this.deviceThread.schedule(new Runnable() {
+					public void run() {
+						publishSerialData(chunk);
+					}
+				}, chunkStartNanos - nowNanos, TimeUnit.NANOSECONDS);
+			}
+			this.wireFreeNanos = chunkStartNanos;
+		}
+	}
+
+	public void write(final byte[] data, final int length) {
+		if (this.deviceThread.isShutdown()) {
+			throw new SerialInterfaceException(String.format(INTERFACE_CLOSED_ERROR_MESSAGE, this.deviceName));
+		}
+		this.recordTransmittedData(data, length);
+		final CannedResponse cannedResponse = this.findResponse(data, length);
+		if (cannedResponse == null) {
+			LOGGER.debug("The simulated device {} has no response to {}", this.deviceName,
+					new String(data, 0, length, StandardCharsets.US_ASCII).trim());
+			this.transmit(this.unknownCommandResponse, 0);
+			return;
+		}
+		this.transmit(cannedResponse.response, cannedResponse.latencyNanos);
+	}
+
+	public void close() {
+		LOGGER.debug("Closing the simulated device {}", this.deviceName);
+		this.deviceThread.shutdownNow();
+	}
+
+}
@@ -0,0 +1,217 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a simulated device from a script . The script is a list of sections ,
+ * A section starts with a header in square brackets and its body is the device
+ * output (one line per line , Terminated with CR LF when sent). Lines starting
+ * with # are comments.
+ * 
+ * <pre>
+ * # Deliver the output in chunks of 16 bytes
+ * [chunk 16]
+ * # Answer the commands starting with ATI after 20 milliseconds
+ * [response ATI 20]
+ * ATI
+ * Telegesis ETRX357
+ *
+ * OK
+ * # Send an image query after 1000 milliseconds and then every 5000
+ * # milliseconds , Without the period it is sent once
+ * [unsolicited 1000 5000]
+ * IMGQUERY:D6D6,09,00,1039,0203,01045700,02
+ * </pre>
+ * 
+ * The blank lines at the end of a section are dropped
+ * 
+ * @author bharath
+ *
+ */
+public class SimulatorScript {
+	private static final String MALFORMED_SECTION_ERROR_MESSAGE = "The simulator script section %s at line %d is malformed";
+	private static final String LINE_TERMINATOR = "\r\n";
+	private static final String COMMENT_PREFIX = "#";
+	private static final String CHUNK_SECTION = "chunk";
+	private static final String RESPONSE_SECTION = "response";
+	private static final String UNSOLICITED_SECTION = "unsolicited";
+
+	/**
+	 * A section header along with its body
+	 */
+	private static class Section {
+		private final String[] header;
+		private final String headerLine;
+		private final int lineNumber;
+		private final List<String> lines = new ArrayList<String>();
+
+		Section(final String headerLine, final int lineNumber) {
+			this.headerLine = headerLine;
+			this.header = headerLine.substring(1, headerLine.length() - 1).trim().split("\\s+");
+			this.lineNumber = lineNumber;
+		}
+
+		String getOutput() {
+			int lineCount = this.lines.size();
+			while (lineCount > 0 && this.lines.get(lineCount - 1).isEmpty()) {
+				lineCount--;
+			}
+			final StringBuilder output = new StringBuilder();
+			for (int i = 0; i < lineCount; i++) {
+				output.append(this.lines.get(i)).append(LINE_TERMINATOR);
+			}
+			return output.toString();
+		}
+
+		long getLongArgument(final int index) {
+			try {
+				return Long.parseLong(this.header[index]);
+			} catch (RuntimeException err) {
+				throw this.malformed();
+			}
+		}
+
+		IllegalArgumentException malformed() {
+			return new IllegalArgumentException(
+					String.format(MALFORMED_SECTION_ERROR_MESSAGE, this.headerLine, this.lineNumber));
+		}
+	}
+
+	private SimulatorScript() {
+	}
+
+	private static List<Section> parse(final Reader reader) throws IOException {
+		final List<Section> sections = new ArrayList<Section>();
+		final BufferedReader lineReader = new BufferedReader(reader);
+		Section section = null;
+		String line;
+		int lineNumber = 0;
+		while ((line = lineReader.readLine()) != null) {
+			lineNumber++;
+			if (line.startsWith(COMMENT_PREFIX)) {
+				continue;
+			}
+			if (line.startsWith("[") && line.trim().endsWith("]")) {
+				section = new Section(line.trim(), lineNumber);
+				sections.add(section);
+				continue;
+			}
+			if (section == null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				throw new IllegalArgumentException(
+						String.format("The simulator script line %d is not part of a section", lineNumber));
+			}
+			section.lines.add(line);
+		}
+		return sections;
+	}
+
+	/**
+	 * Build a simulated device from a script
+	 * 
+	 * @param deviceName
+	 *            The name of the device
+	 * @param scriptReader
+	 *            The script
+	 * @param baudRate
+	 *            The baud rate the output is throttled to , 0 to deliver the
+	 *            output without throttling
+	 * @return The simulated device
+	 * @throws IOException
+	 *             If the script cannot be read
+	 */
+	public static SimulatedSerialInterface load(final String deviceName, final Reader scriptReader,
+			final int baudRate) throws IOException {
+		final List<Section> sections = parse(scriptReader);
+		int chunkSize = 0;
+		for (Section section : sections) {
+			if (CHUNK_SECTION.equals(section.header[0])) {
+				if (section.header.length != 2) {
+					throw section.malformed();
+				}
+				chunkSize = (int) section.getLongArgument(1);
+			}
+		}
+		final SimulatedSerialInterface serialInterface = new SimulatedSerialInterface(deviceName, baudRate,
+				chunkSize);
+		try {
+			addSections(serialInterface, sections);
+		} catch (IllegalArgumentException err) {
+			serialInterface.close();
+			throw err;
+		}
+		return serialInterface;
+	}
+
+	private static void addSections(final SimulatedSerialInterface serialInterface, final List<Section> sections) {
+		for (Section section : sections) {
+			switch (section.header[0]) {
+			case CHUNK_SECTION:
+				break;
+			case RESPONSE_SECTION:
+				if (section.header.length != 3) {
+					throw section.malformed();
+				}
+				serialInterface.addResponse(section.header[1], section.getOutput(), section.getLongArgument(2),
+						TimeUnit.MILLISECONDS);
+				break;
+			case UNSOLICITED_SECTION:
+				if (section.header.length != 2 && section.header.length != 3) {
+					throw section.malformed();
+				}
+				serialInterface.scheduleUnsolicited(section.getOutput(), section.getLongArgument(1),
+						section.header.length == 3 ? section.getLongArgument(2) : 0, TimeUnit.MILLISECONDS);
+				break;
+			default:
+				throw section.malformed();
+			}
+		}
+	}
+
+	/**
+	 * Build a simulated device from a script file
+	 * 
+	 * @param deviceName
+	 *            The name of the device
+	 * @param scriptPath
+	 *            The path of the script file
+	 * @param baudRate
+	 *            The baud rate the output is throttled to , 0 to deliver the
+	 *            output without throttling
+	 * @return The simulated device
+	 * @throws IOException
+	 *             If the script cannot be read
+	 */
+	public static SimulatedSerialInterface load(final String deviceName, final String scriptPath,
+			final int baudRate) throws IOException {
+		try (Reader scriptReader = Files.newBufferedReader(Paths.get(scriptPath), StandardCharsets.US_ASCII)) {
+			return load(deviceName, scriptReader, baudRate);
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+/*---------------------------------------------------------------------------------------------------------
+ * Copyright 2018 - Nirvagi project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * \*-------------------------------------------------------------------------------------------------------------------*/
+package io.nirvagi.iot.serial.util;
+
+/**
+ * Helpers for binary payloads , The payloads travel as hex (or base64) strings
+ * in the requests and responses
+ * 
+ * @author bharath
+ *
+ */
+public class ByteUtil {
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	private static final String ODD_HEX_LENGTH_ERROR_MESSAGE = "The hex string has an odd number of digits";
+	private static final String INVALID_HEX_DIGIT_ERROR_MESSAGE = "The hex string has an invalid digit %s";
+
+	private static int hexDigitValue(final char hexDigit) {
+		final int value = Character.digit(hexDigit, 16);
+		if (value < 0) {
+			throw new IllegalArgumentException(String.format(INVALID_HEX_DIGIT_ERROR_MESSAGE, hexDigit));
+		}
+		return value;
+	}
+
+	/**
+	 * Decode a hex string , The digits can be of either case
+	 * 
+	 * @param hex
+	 *            The hex string (for example 0A1B2C)
+	 * @return The decoded bytes
+	 */
+	public static byte[] decodeHex(final String hex) {
+		if (hex.length() % 2 != 0) {
+			throw new IllegalArgumentException(ODD_HEX_LENGTH_ERROR_MESSAGE);
+		}
+		final byte[] data = new byte[hex.length() / 2];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ((hexDigitValue(hex.charAt(2 * i)) << 4) | hexDigitValue(hex.charAt(2 * i + 1)));
+		}
+		return data;
+	}
+
+	/**
+	 * Encode bytes as an upper case hex string
+	 * 
+	 * @param data
+	 *            The bytes
+	 * @return The hex string
+	 */
+	public static String encodeHex(final byte[] data) {
+		final char[] hex = new char[data.length * 2];
+		for (int i = 0; i < data.length; i++) {
+			hex[2 * i] = HEX_DIGITS[(data[i] >> 4) & 0x0F];
+			hex[2 * i + 1] = HEX_DIGITS[data[i] & 0x0F];
+		}
+		return new String(hex);
+	}
+
+}
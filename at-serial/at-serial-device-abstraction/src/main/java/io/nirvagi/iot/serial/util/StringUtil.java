@@ -21,10 +21,10 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import io.nirvagi.iot.serial.SerialLineFramer;
 import io.nirvagi.iot.serial.at.command.CommandRequest;
 
 public class StringUtil {
-	private static final String OUTPUT_RESULT_DELIMITER = "\n";
 	private static final String COMMAND_ERROR_STRING = "ERROR";
 	// Zigbee typically sends Nacks for certain commands in case of an error  
 	private static final String NACK_STRING = "NACK";
@@ -35,20 +35,20 @@ public class StringUtil {
 	private static final String COMMAND_TERMINATION_CHAR = "\r";
 	
 	
+	/**
+	 * Convert a self contained chunk of serial data to lines . The serial
+	 * interface frames the streamed data itself (see {@link SerialLineFramer}) ,
+	 * This is meant for data that is known to hold whole lines , A trailing
+	 * line without a terminator is returned as well
+	 * 
+	 * @param data
+	 *            The serial data
+	 * @return The upper cased lines
+	 */
 	public static  List<String> convertDataBytesToString(final byte[] data) {
-		final String commandResult = new String(data);
-		final List<String> outputDataList = new ArrayList<String>();
-		if (commandResult != null && commandResult.isEmpty() == false) {
-			for (String resultFragment : commandResult.split(OUTPUT_RESULT_DELIMITER)) {
-				if (resultFragment.trim().isEmpty() == false) {
-					// Convert the result into upper case , So that there are no
-					// issues while pattern matching
-					// Also remove any CR present in the output
-					resultFragment = resultFragment.replaceAll("\\r", "").toUpperCase();
-					outputDataList.add(resultFragment);
-				}
-			}
-		}
+		final SerialLineFramer lineFramer = new SerialLineFramer(Math.max(data.length, 1));
+		final List<String> outputDataList = new ArrayList<String>(lineFramer.frame(data));
+		outputDataList.addAll(lineFramer.flush());
 		return outputDataList;
 	}
 	
@@ -82,21 +82,28 @@ public class StringUtil {
 		return (firstLine.contains(COMMAND_ERROR_STRING)|| firstLine.contains(NACK_STRING)) ? true : false;
 	}
 	
+	/**
+	 * Build the command string of a request , The commands sent to the device
+	 * are encoded without building a string (see
+	 * {@link io.nirvagi.iot.serial.at.command.executor.CommandEncoder})
+	 * 
+	 * @param commandRequest
+	 *            The command request
+	 * @return The command string , Terminated with a CR
+	 */
 	public static String buildCommandString(final CommandRequest commandRequest) {
-		final String commandName = commandRequest.getCommand().getCommandName();
-		final String commandSeperator = commandRequest.getCommand().getCommandSeperator().trim();
-		String commandParamString = "";
+		final StringBuilder commandString = new StringBuilder(commandRequest.getCommand().getCommandName())
+				.append(commandRequest.getCommand().getCommandSeperator().trim());
 		final List<String> commandParams = commandRequest.getCommandParameters();
 		if (commandParams != null) {
-			for (String commandParam : commandRequest.getCommandParameters()) {
-				commandParamString += COMMAND_PARAM_SEPERATOR + commandParam;
+			for (int i = 0; i < commandParams.size(); i++) {
+				if (i > 0) {
+					commandString.append(COMMAND_PARAM_SEPERATOR);
+				}
+				commandString.append(commandParams.get(i));
 			}
-			commandParamString = commandParamString.substring(1);
-		} else {
-			commandParamString = "";
 		}
-		final String commandString = commandName + commandSeperator + commandParamString + COMMAND_TERMINATION_CHAR;
-		return commandString;
+		return commandString.append(COMMAND_TERMINATION_CHAR).toString();
 	}
 	
 	public static void main(String args[]){
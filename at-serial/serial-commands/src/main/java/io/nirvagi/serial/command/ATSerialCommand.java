@@ -15,56 +15,93 @@
  * \*-------------------------------------------------------------------------------------------------------------------*/
 package io.nirvagi.serial.command;
 
+import java.nio.charset.StandardCharsets;
+
 /**
- * Enum holding the actual serial commands , All the command definitions should
- * be added here. Note : The commands given here are for example purposes
+ * Enum holding the built in serial commands , More commands can be defined in
+ * a file the agent loads at runtime (A definition of the file replaces the
+ * built in command of the same name). Note : The commands given here are for
+ * example purposes
  * 
  * 
  * @author bharath
  *
  */
 public enum ATSerialCommand implements SerialCommand {
-	/* Zigbee ATI command , Used to print the Serial device hardware info*/
-	ZB_ATI("ATI", CommandType.SEND, "Telegesis"), 
-	/*Get the Neighbouring table of coordinator*/
-	ZB_NTABLE("AT+NTABLE", CommandType.SEND, "Ntable:"),
+	/* Zigbee ATI command , Used to print the Serial device hardware info , The info does not change*/
+	ZB_ATI("ATI", CommandType.SEND, "Telegesis", MatchType.PREFIX, 300, true), 
+	/*Get the Neighbouring table of coordinator , The table changes slowly*/
+	ZB_NTABLE("AT+NTABLE", CommandType.SEND, "Ntable:", MatchType.PREFIX, 10, true),
 	/*Wait for an image Query for 45 seconds*/
-	ZB_IMGQUERY("IMGQUERY", CommandType.LISTEN, 300, "IMGQUERY:"),
+	ZB_IMGQUERY("IMGQUERY", CommandType.LISTEN, 300000, "IMGQUERY:", MatchType.PREFIX),
+	/*Answer an image query , Offers the OTA image to the node*/
+	ZB_QIMGRSP("AT+QIMGRSP", CommandType.SEND, "OK", MatchType.PREFIX),
+	/*Answer an image block request , The raw block follows the command*/
+	ZB_IMGBRSP("AT+IMGBRSP", CommandType.SEND, "OK", MatchType.PREFIX),
 	;
 	
 
 	private static final String COMMAND_SEPERATOR = ":";
-	private static final int DEFAULT_TIMEOUT_IN_SECONDS = 5;
+	// The Telegesis module answers a query within tens of milliseconds
+	private static final int DEFAULT_TIMEOUT_IN_MILLIS = 500;
+	private static final int NOT_CACHED = 0;
 	private final String commandName;
-	private final int commandTimeout;
+	private final int commandTimeoutMillis;
 	private final String commandExceptedOutput;
 	private final String commandSeperator;
 	private final CommandType commandType;
+	private final MatchType commandMatchType;
+	private final int commandCacheTtlSeconds;
+	private final boolean commandCoalescable;
+	private final byte[] commandPrefix;
 
-	private ATSerialCommand(final String commandName, final CommandType commandType, final int commandTimeout,
-			final String commandExceptedOutput) {
+	private ATSerialCommand(final String commandName, final CommandType commandType, final int commandTimeoutMillis,
+			final String commandExceptedOutput, final MatchType commandMatchType, final int commandCacheTtlSeconds,
+			final boolean commandCoalescable) {
 		this.commandName = commandName;
 		this.commandType = commandType;
-		this.commandTimeout = commandTimeout;
+		this.commandTimeoutMillis = commandTimeoutMillis;
 		this.commandExceptedOutput = commandExceptedOutput;
 		this.commandSeperator = COMMAND_SEPERATOR;
+		this.commandMatchType = commandMatchType;
+		this.commandCacheTtlSeconds = commandCacheTtlSeconds;
+		this.commandCoalescable = commandCoalescable;
+		this.commandPrefix = (commandName + COMMAND_SEPERATOR.trim()).getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private ATSerialCommand(final String commandName, final CommandType commandType, final int commandTimeoutMillis,
+			final String commandExceptedOutput, final MatchType commandMatchType) {
+		this(commandName, commandType, commandTimeoutMillis, commandExceptedOutput, commandMatchType, NOT_CACHED, false);
+	}
+
+	private ATSerialCommand(final String commandName, final CommandType commandType, final int commandTimeoutMillis,
+			final String commandExceptedOutput) {
+		this(commandName, commandType, commandTimeoutMillis, commandExceptedOutput, MatchType.CONTAINS);
+	}
+
+	private ATSerialCommand(final String commandName, final CommandType commandType,
+			final String commandExceptedOutput, final MatchType commandMatchType, final int commandCacheTtlSeconds,
+			final boolean commandCoalescable) {
+		this(commandName, commandType, DEFAULT_TIMEOUT_IN_MILLIS, commandExceptedOutput, commandMatchType,
+				commandCacheTtlSeconds, commandCoalescable);
+	}
+
+	private ATSerialCommand(final String commandName, final CommandType commandType,
+			final String commandExceptedOutput, final MatchType commandMatchType) {
+		this(commandName, commandType, DEFAULT_TIMEOUT_IN_MILLIS, commandExceptedOutput, commandMatchType);
 	}
 
 	private ATSerialCommand(final String commandName, final CommandType commandType,
 			final String commandExceptedOutput) {
-		this.commandName = commandName;
-		this.commandType = commandType;
-		this.commandTimeout = DEFAULT_TIMEOUT_IN_SECONDS;
-		this.commandExceptedOutput = commandExceptedOutput;
-		this.commandSeperator = COMMAND_SEPERATOR;
+		this(commandName, commandType, DEFAULT_TIMEOUT_IN_MILLIS, commandExceptedOutput, MatchType.CONTAINS);
 	}
 
 	public String getCommandName() {
 		return this.commandName;
 	}
 
-	public int getCommandTimeout() {
-		return this.commandTimeout;
+	public int getCommandTimeoutMillis() {
+		return this.commandTimeoutMillis;
 	}
 
 	public String getCommandExpectedOutout() {
@@ -79,4 +116,20 @@ public enum ATSerialCommand implements SerialCommand {
 		return this.commandType;
 	}
 
+	public byte[] getCommandPrefix() {
+		return this.commandPrefix;
+	}
+
+	public MatchType getCommandMatchType() {
+		return this.commandMatchType;
+	}
+
+	public int getCommandCacheTtlSeconds() {
+		return this.commandCacheTtlSeconds;
+	}
+
+	public boolean isCommandCoalescable() {
+		return this.commandCoalescable;
+	}
+
 }
@@ -1,5 +1,7 @@
 package io.nirvagi.serial.command;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * 
  * An interface representing a serial AT command . AT commands are typically as
@@ -34,6 +36,23 @@ public interface SerialCommand {
 
 	}
 
+	/**
+	 * Enum representing how the command expected output is matched against a
+	 * line of the device output . The literal match types (PREFIX and
+	 * CONTAINS) are matched without a regular expression
+	 *
+	 */
+
+	public enum MatchType {
+		// The line starts with the expected output
+		PREFIX,
+		// The line contains the expected output
+		CONTAINS,
+		// The expected output is a regular expression found in the line
+		REGEX;
+
+	}
+
 	/**
 	 * Get the AT command name
 	 * 
@@ -45,10 +64,12 @@ public interface SerialCommand {
 	 * Every command has an associated time before it should return a result ,
 	 * else the command execution will be considered as a timeout
 	 * 
-	 * @return The command timeout duration in seconds
+	 * @return The command timeout duration in milliseconds (The timeout used to
+	 *         be in seconds , The method was renamed so an implementation
+	 *         still returning seconds does not compile)
 	 */
 
-	public int getCommandTimeout();
+	public int getCommandTimeoutMillis();
 
 	/**
 	 * Get the command expected output , This could be a simple string like OK,
@@ -69,6 +90,20 @@ public interface SerialCommand {
 	public String getCommandSeperator();
 	
 	
+	/**
+	 * Get the encoded command name and separator , Written to the device ahead
+	 * of the command parameters. Implementations should encode it once , The
+	 * default implementation encodes it on every call
+	 * 
+	 * @return
+	 * 	The US-ASCII command name and separator , The returned array must not
+	 * 	be modified
+	 */
+	public default byte[] getCommandPrefix() {
+		return (this.getCommandName() + this.getCommandSeperator().trim()).getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	
 	/**
 	 * Get the command type (LISTEN command or SEND command) 
 	 * 
@@ -76,5 +111,47 @@ public interface SerialCommand {
 	 * 	The command type
 	 */
 	public CommandType getCommandType();
+	
+	
+	/**
+	 * Get how the command expected output is matched against the device output
+	 * 
+	 * @return
+	 * 	The match type , CONTAINS by default (How the expected output was
+	 * 	always matched)
+	 */
+	public default MatchType getCommandMatchType() {
+		return MatchType.CONTAINS;
+	}
+	
+	
+	/**
+	 * Read only commands (Queries of the device info for example) can have
+	 * their successful results cached , A cached result is served without
+	 * sending the command to the device for as long as it lives
+	 * 
+	 * @return
+	 * 	The time a command result lives in the cache in seconds , 0 (The
+	 * 	default) if the command results are never cached
+	 */
+	public default int getCommandCacheTtlSeconds() {
+		return 0;
+	}
+	
+	
+	/**
+	 * Identical requests of a coalescable command (Same command and same
+	 * parameters) that arrive while one is queued or in flight share its
+	 * result instead of being sent to the device again. Only read only
+	 * commands should be coalescable , A state changing command must be sent
+	 * every time it is requested
+	 * 
+	 * @return
+	 * 	true if the identical in flight requests of the command are coalesced ,
+	 * 	false (The default) if every request is sent
+	 */
+	public default boolean isCommandCoalescable() {
+		return false;
+	}
 
 }